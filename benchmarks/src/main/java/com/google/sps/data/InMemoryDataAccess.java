@@ -0,0 +1,199 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.sps.util.ServletUtils;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class keeps users, mentorship requests and mentor mentee relations in memory and recommends
+ * mentors with the same pipeline as DatastoreAccess.getRelatedMentors: the same MatchAttributes and
+ * MentorRanker ranking, blocking of disliked, requested and connected mentors, and the served
+ * window with its repull. Benchmarks use it to measure that pipeline without any database overhead,
+ * so it only supports what MatchingBenchmark needs.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public class InMemoryDataAccess {
+  private final Map<Long, UserAccount> usersByKey = new HashMap<>();
+  private final Map<MentorType, Map<Long, MentorCandidateIndex.Candidate>> candidates =
+      new EnumMap<>(MentorType.class);
+  private final Map<Long, MentorKeySet> requestedMentorKeys = new HashMap<>();
+  private final Map<Long, MentorKeySet> connectedMentorKeys = new HashMap<>();
+  private int nextOrdinal;
+
+  public InMemoryDataAccess() {
+    for (MentorType mentorType : MentorType.values()) {
+      candidates.put(mentorType, new HashMap<>());
+    }
+  }
+
+  /**
+   * Adds a user, indexing them as a candidate if they are a visible mentor.
+   *
+   * @param user the user to add
+   * @return true if no user with the same datastore key was added before
+   */
+  public boolean createUser(UserAccount user) {
+    if (usersByKey.containsKey(user.getDatastoreKey())) {
+      return false;
+    }
+    usersByKey.put(user.getDatastoreKey(), user);
+    if (user instanceof Mentor && ((Mentor) user).getVisibility()) {
+      Mentor mentor = (Mentor) user;
+      candidates
+          .get(mentor.getMentorType())
+          .put(
+              mentor.getDatastoreKey(),
+              new MentorCandidateIndex.Candidate(
+                  mentor.getDatastoreKey(),
+                  nextOrdinal++,
+                  mentor.getMentorType(),
+                  MatchAttributes.pack(mentor)));
+    }
+    return true;
+  }
+
+  /**
+   * Records a request from a mentee to a mentor, which keeps the mentor from being recommended.
+   *
+   * @param request the request to record
+   * @return true if the request is from a mentee to a mentor and was not recorded before
+   */
+  public boolean publishRequest(MentorshipRequest request) {
+    if (getMentee(request.getFromUserKey()) == null || getMentor(request.getToUserKey()) == null) {
+      return false;
+    }
+    return requestedMentorKeys
+        .computeIfAbsent(request.getFromUserKey(), menteeKey -> new MentorKeySet())
+        .add(request.getToUserKey());
+  }
+
+  /**
+   * Records a relation between a mentor and a mentee, which keeps the mentor from being
+   * recommended.
+   *
+   * @param mentorKey the datastore key of the mentor
+   * @param menteeKey the datastore key of the mentee
+   * @return true if both users exist and the relation was not recorded before
+   */
+  public boolean makeMentorMenteeRelation(long mentorKey, long menteeKey) {
+    if (getMentor(mentorKey) == null || getMentee(menteeKey) == null) {
+      return false;
+    }
+    return connectedMentorKeys.computeIfAbsent(menteeKey, key -> new MentorKeySet()).add(mentorKey);
+  }
+
+  /**
+   * Recommends mentors for the passed in mentee (see DatastoreAccess.getRelatedMentors).
+   *
+   * @param mentee the mentee to recommend mentors for
+   * @return the recommended mentors (empty if the mentee was never added)
+   */
+  public Collection<Mentor> getRelatedMentors(Mentee mentee) {
+    if (getMentee(mentee.getDatastoreKey()) == null) {
+      return new ArrayList<Mentor>();
+    }
+    Map<Long, MentorCandidateIndex.Candidate> partition =
+        candidates.get(mentee.getDesiredMentorType());
+    MentorRanker ranker = buildMentorRanker(mentee);
+    BitSet blockedMentors = getBlockedMentors(mentee, partition);
+    BitSet servedMentors = toCandidateBitmap(partition, mentee.getServedMentorKeys());
+    long[] pageKeys =
+        ranker.selectTop(
+            partition.values(),
+            candidate ->
+                !blockedMentors.get(candidate.getOrdinal())
+                    && !servedMentors.get(candidate.getOrdinal()),
+            ServletUtils.REC_BATCH_SIZE);
+    List<Mentor> relatedMentors = new ArrayList<>();
+    for (long key : pageKeys) {
+      relatedMentors.add(getMentor(key));
+      mentee.saveServedMentorKey(key);
+    }
+    if (pageKeys.length < ServletUtils.REC_BATCH_SIZE) {
+      for (long key :
+          ranker.selectTop(
+              partition.values(),
+              candidate ->
+                  !blockedMentors.get(candidate.getOrdinal())
+                      && servedMentors.get(candidate.getOrdinal()),
+              ServletUtils.REC_BATCH_SIZE - pageKeys.length)) {
+        relatedMentors.add(getMentor(key));
+      }
+    }
+    usersByKey.put(mentee.getDatastoreKey(), mentee);
+    return relatedMentors;
+  }
+
+  private MentorRanker buildMentorRanker(Mentee mentee) {
+    MentorRanker.Builder builder =
+        MentorRanker.Builder.newBuilder().mentee(MatchAttributes.pack(mentee));
+    Mentor lastRequestedMentor = getMentor(mentee.getLastRequestedMentorKey());
+    if (lastRequestedMentor != null) {
+      builder.lastRequested(MatchAttributes.pack(lastRequestedMentor));
+    }
+    Mentor lastDislikedMentor = getMentor(mentee.getLastDislikedMentorKey());
+    if (lastDislikedMentor != null) {
+      builder.lastDisliked(MatchAttributes.pack(lastDislikedMentor));
+    }
+    return builder.build();
+  }
+
+  /** Collects the disliked, requested and connected mentors of the passed in mentee. */
+  private BitSet getBlockedMentors(
+      Mentee mentee, Map<Long, MentorCandidateIndex.Candidate> partition) {
+    BitSet blockedMentors = toCandidateBitmap(partition, mentee.getDislikedMentorKeys());
+    blockedMentors.or(
+        toCandidateBitmap(
+            partition,
+            requestedMentorKeys.getOrDefault(mentee.getDatastoreKey(), new MentorKeySet())));
+    blockedMentors.or(
+        toCandidateBitmap(
+            partition,
+            connectedMentorKeys.getOrDefault(mentee.getDatastoreKey(), new MentorKeySet())));
+    return blockedMentors;
+  }
+
+  private static BitSet toCandidateBitmap(
+      Map<Long, MentorCandidateIndex.Candidate> partition, MentorKeySet mentorKeys) {
+    BitSet bitmap = new BitSet();
+    mentorKeys.forEachKey(
+        mentorKey -> {
+          MentorCandidateIndex.Candidate candidate = partition.get(mentorKey);
+          if (candidate != null) {
+            bitmap.set(candidate.getOrdinal());
+          }
+        });
+    return bitmap;
+  }
+
+  private Mentee getMentee(Long datastoreKey) {
+    UserAccount user = datastoreKey == null ? null : usersByKey.get(datastoreKey);
+    return user instanceof Mentee ? (Mentee) user : null;
+  }
+
+  private Mentor getMentor(Long datastoreKey) {
+    UserAccount user = datastoreKey == null ? null : usersByKey.get(datastoreKey);
+    return user instanceof Mentor ? (Mentor) user : null;
+  }
+}
@@ -0,0 +1,187 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.util.RandomObjects;
+import com.google.sps.util.ServletUtils;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * This class uses JMH to benchmark every stage of the mentor matching path over pools of random
+ * mentors: loading candidates into the MentorCandidateIndex, scoring a single mentor, ranking a
+ * whole pool, and the full getRelatedMentors call against both an InMemoryDataAccess and a
+ * DatastoreAccess backed by the local Datastore stub. The mentee has the same requests and
+ * relations in both, so both calls block the same mentors. Run with java -jar
+ * benchmarks/target/benchmarks.jar (see benchmarks/pom.xml for how to build it).
+ *
+ * <p>The state is per thread because the local Datastore stub is bound to the thread that set it
+ * up.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatchingBenchmark {
+  private static final int REQUESTED_MENTORS = 10;
+  private static final int CONNECTED_MENTORS = 10;
+
+  @Param({"1000", "10000", "100000"})
+  private int poolSize;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setNoStorage(true));
+
+  private DatastoreService datastoreService;
+  private DatastoreAccess datastoreAccess;
+  private InMemoryDataAccess inMemoryDataAccess;
+  private Mentee mentee;
+  private Mentor[] mentors;
+  private long[] mentorAttributes;
+  private MentorRanker ranker;
+  private int nextMentor;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    helper.setUp();
+    datastoreService = DatastoreServiceFactory.getDatastoreService();
+    datastoreAccess = DatastoreAccess.newBuilder().datastoreService(datastoreService).build();
+    inMemoryDataAccess = new InMemoryDataAccess();
+    mentee = RandomObjects.randomMentee();
+    mentors = new Mentor[poolSize];
+    mentorAttributes = new long[poolSize];
+    List<Entity> mentorEntities = new ArrayList<>();
+    for (int i = 0; i < poolSize; i++) {
+      Mentor mentor =
+          RandomObjects.randomUserBuilder(Mentor.Builder.newBuilder())
+              .userType(UserType.MENTOR)
+              .visibility(true)
+              .mentorType(mentee.getDesiredMentorType())
+              .focusList(new ArrayList<>())
+              .description("")
+              .build();
+      mentor.getFocusList().add(RandomObjects.randomEnum(Topic.class));
+      mentors[i] = mentor;
+      mentorAttributes[i] = MatchAttributes.pack(mentor);
+      mentorEntities.add(mentor.convertToEntity());
+      inMemoryDataAccess.createUser(mentor);
+    }
+    datastoreService.put(mentorEntities);
+    datastoreService.put(mentee.convertToEntity());
+    inMemoryDataAccess.createUser(mentee);
+    // both backends block the same requested and connected mentors
+    for (int i = 0; i < REQUESTED_MENTORS; i++) {
+      MentorshipRequest request =
+          new MentorshipRequest(mentors[i].getDatastoreKey(), mentee.getDatastoreKey());
+      datastoreAccess.publishRequest(request);
+      inMemoryDataAccess.publishRequest(request);
+    }
+    for (int i = REQUESTED_MENTORS; i < REQUESTED_MENTORS + CONNECTED_MENTORS; i++) {
+      datastoreAccess.makeMentorMenteeRelation(
+          mentors[i].getDatastoreKey(), mentee.getDatastoreKey());
+      inMemoryDataAccess.makeMentorMenteeRelation(
+          mentors[i].getDatastoreKey(), mentee.getDatastoreKey());
+    }
+    ranker = MentorRanker.Builder.newBuilder().mentee(MatchAttributes.pack(mentee)).build();
+    MentorCandidateIndex.getInstance().clear();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    MentorCandidateIndex.getInstance().clear();
+    DatastoreIdAllocator.getInstance().clear();
+    helper.tearDown();
+  }
+
+  private Mentor nextMentor() {
+    nextMentor = nextMentor + 1 < poolSize ? nextMentor + 1 : 0;
+    return mentors[nextMentor];
+  }
+
+  @Benchmark
+  public int loadCandidateIndex() {
+    MentorCandidateIndex.getInstance().clear();
+    return MentorCandidateIndex.getInstance()
+        .getCandidates(mentee.getDesiredMentorType(), datastoreService)
+        .size();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int similarityWithMentor() {
+    return mentee.similarityWithMentor(nextMentor());
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int mentorSimilarity() {
+    return nextMentor().similarity(nextMentor());
+  }
+
+  @Benchmark
+  public void scorePackedPool(Blackhole blackhole) {
+    for (long attributes : mentorAttributes) {
+      blackhole.consume(ranker.score(attributes));
+    }
+  }
+
+  @Benchmark
+  public long[] rankCandidateIndex() {
+    return ranker.selectTop(
+        MentorCandidateIndex.getInstance()
+            .getCandidates(mentee.getDesiredMentorType(), datastoreService)
+            .values(),
+        candidate -> true,
+        ServletUtils.REC_BATCH_SIZE);
+  }
+
+  @Benchmark
+  public Collection<Mentor> getRelatedMentorsInMemory() {
+    mentee.clearServedMentors();
+    return inMemoryDataAccess.getRelatedMentors(mentee);
+  }
+
+  @Benchmark
+  public Collection<Mentor> getRelatedMentorsLocalDatastore() {
+    mentee.clearServedMentors();
+    return datastoreAccess.getRelatedMentors(mentee);
+  }
+}
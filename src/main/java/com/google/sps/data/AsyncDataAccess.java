@@ -0,0 +1,85 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This interface provides non-blocking versions of the DataAccess reads that pages make most often.
+ * Each method starts its database calls right away and returns a future for the result, so a
+ * servlet can start several independent reads at once and join them when it needs the results. The
+ * results match what the DataAccess method of the same name returns.
+ *
+ * <p>Implementations may leave waiting for the database to the thread that joins a returned future.
+ * Callers should therefore join (or get) the returned futures themselves instead of waiting only on
+ * stages derived from them with methods like thenApply.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public interface AsyncDataAccess {
+
+  /**
+   * Gets a user from the database based on their userID from the authentication API
+   *
+   * @param userID user ID we want to look for
+   * @return a future for the associated UserAccount (completes with null if there is none)
+   */
+  CompletableFuture<UserAccount> getUserAsync(String userID);
+
+  /**
+   * Gets a user from the database based on their unique indentifier key within the database
+   *
+   * @param datastoreKey the unique identifier key
+   * @return a future for the UserAccount (completes with null if there is none)
+   */
+  CompletableFuture<UserAccount> getUserAsync(long datastoreKey);
+
+  /**
+   * Gets users from the database based on their unique indentifier keys with a single batched
+   * lookup.
+   *
+   * @param datastoreKeys the unique identifier keys of the users to look for
+   * @return a future for a map from each key to its UserAccount (keys not found are omitted)
+   */
+  CompletableFuture<Map<Long, UserAccount>> getUsersAsync(Collection<Long> datastoreKeys);
+
+  /**
+   * Gets the MentorshipRequests that have been sent to the passed in UserAccount.
+   *
+   * @param user the UserAccount for whom to find incoming MentorshipRequests
+   * @return a future for the requests sent to the passed in user (can be empty, never null)
+   */
+  CompletableFuture<Collection<MentorshipRequest>> getIncomingRequestsAsync(UserAccount user);
+
+  /**
+   * Gets the MentorshipRequests that were sent from the passed in UserAccount.
+   *
+   * @param user the UserAccount for whom to find outgoing MentorshipRequests
+   * @return a future for the requests sent from the passed in user (can be empty, never null)
+   */
+  CompletableFuture<Collection<MentorshipRequest>> getOutgoingRequestsAsync(UserAccount user);
+
+  /**
+   * Gets the MentorMenteeRelations that the passed in UserAccount is a part of.
+   *
+   * @param user the UserAccount for whom to find all MentorMenteeRelations
+   * @return a future for the relations containing the passed in user (can be empty, never null)
+   */
+  CompletableFuture<Collection<MentorMenteeRelation>> getMentorMenteeRelationsAsync(
+      UserAccount user);
+}
@@ -0,0 +1,446 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.sps.util.ParameterConstants;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * This class implements AsyncDataAccess with the App Engine AsyncDatastoreService. Every database
+ * call is issued on the calling thread as soon as its inputs are known, so independent calls run at
+ * the same time. Waiting for the results and decoding them happens on the thread that joins the
+ * returned future, so no threads are started for it and follow-up calls are issued with that
+ * thread's API environment. Users are read through the same UserAccountCache as DatastoreAccess.
+ * The request scoped UserIdentityMap is not consulted, so results never depend on which thread
+ * joins them.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public class AsyncDatastoreAccess implements AsyncDataAccess {
+
+  private AsyncDatastoreService asyncDatastoreService;
+  private UserAccountCache userCache;
+
+  public AsyncDatastoreAccess() {
+    this(DatastoreServiceFactory.getAsyncDatastoreService(), UserAccountCache.getInstance());
+  }
+
+  private AsyncDatastoreAccess(
+      AsyncDatastoreService asyncDatastoreService, UserAccountCache userCache) {
+    this.asyncDatastoreService =
+        asyncDatastoreService != null
+            ? asyncDatastoreService
+            : DatastoreServiceFactory.getAsyncDatastoreService();
+    this.userCache = userCache;
+  }
+
+  public AsyncDatastoreAccess(Builder builder) {
+    this(builder.asyncDatastoreService, builder.userCache);
+  }
+
+  public CompletableFuture<UserAccount> getUserAsync(String userID) {
+    PendingWork work = new PendingWork();
+    return work.result(getUserAsync(userID, work));
+  }
+
+  private CompletableFuture<UserAccount> getUserAsync(String userID, PendingWork work) {
+    if (userID == null || userID.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    Long cachedKey = userCache == null ? null : userCache.getDatastoreKey(userID);
+    CompletableFuture<UserAccount> cachedUser =
+        cachedKey == null
+            ? CompletableFuture.completedFuture(null)
+            : getUserAsync(cachedKey.longValue(), work)
+                .thenApply(user -> hasUserID(user, userID) ? user : null);
+    return cachedUser.thenCompose(
+        user ->
+            user != null ? CompletableFuture.completedFuture(user) : lookupUserAsync(userID, work));
+  }
+
+  /**
+   * Follows the UserIDLookup entity for the passed in userID to its UserAccount, falling back to a
+   * query on the userID property (and writing the missing lookup entity) like DatastoreAccess.
+   */
+  private CompletableFuture<UserAccount> lookupUserAsync(String userID, PendingWork work) {
+    long cacheVersion = userCache == null ? 0 : userCache.getVersion();
+    Future<Entity> lookupEntity =
+        asyncDatastoreService.get(
+            KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ID_LOOKUP, userID));
+    return work.supply(() -> getOrNull(lookupEntity))
+        .thenCompose(
+            entity ->
+                entity == null
+                    ? CompletableFuture.completedFuture(null)
+                    : getUserAsync((long) entity.getProperty(ParameterConstants.USER_KEY), work)
+                        .thenApply(user -> hasUserID(user, userID) ? user : null))
+        .thenCompose(
+            user ->
+                user != null
+                    ? CompletableFuture.completedFuture(user)
+                    : queryUserAsync(userID, work))
+        .thenApply(
+            user -> {
+              if (user != null && userCache != null) {
+                userCache.putDatastoreKey(userID, user.getDatastoreKey(), cacheVersion);
+              }
+              return user;
+            });
+  }
+
+  private CompletableFuture<UserAccount> queryUserAsync(String userID, PendingWork work) {
+    List<Entity> userEntities =
+        asyncDatastoreService
+            .prepare(DatastoreAccess.userIDQuery(userID))
+            .asList(FetchOptions.Builder.withLimit(1));
+    return work.supply(
+        () -> {
+          if (userEntities.isEmpty()) {
+            return null;
+          }
+          UserAccount user = UserAccount.fromStoredEntity(userEntities.get(0));
+          asyncDatastoreService
+              .put(DatastoreAccess.convertToUserIDLookup(userID, user.getDatastoreKey()))
+              .get();
+          return user;
+        });
+  }
+
+  private static boolean hasUserID(UserAccount user, String userID) {
+    return user != null && userID.equals(user.getUserID());
+  }
+
+  public CompletableFuture<UserAccount> getUserAsync(long datastoreKey) {
+    PendingWork work = new PendingWork();
+    return work.result(getUserAsync(datastoreKey, work));
+  }
+
+  private CompletableFuture<UserAccount> getUserAsync(long datastoreKey, PendingWork work) {
+    Entity cachedEntity = userCache == null ? null : userCache.get(datastoreKey);
+    if (cachedEntity != null) {
+      return CompletableFuture.completedFuture(UserAccount.fromStoredEntity(cachedEntity));
+    }
+    long cacheVersion = userCache == null ? 0 : userCache.getVersion();
+    Future<Entity> userEntity =
+        asyncDatastoreService.get(
+            KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, datastoreKey));
+    return work.supply(
+        () -> {
+          Entity entity = getOrNull(userEntity);
+          if (entity != null && userCache != null) {
+            userCache.put(entity, cacheVersion);
+          }
+          return UserAccount.fromStoredEntity(entity);
+        });
+  }
+
+  public CompletableFuture<Map<Long, UserAccount>> getUsersAsync(Collection<Long> datastoreKeys) {
+    PendingWork work = new PendingWork();
+    return work.result(getUsersAsync(datastoreKeys, work));
+  }
+
+  private CompletableFuture<Map<Long, UserAccount>> getUsersAsync(
+      Collection<Long> datastoreKeys, PendingWork work) {
+    Map<Long, Entity> cachedEntities =
+        userCache == null ? new HashMap<>() : userCache.getAll(datastoreKeys);
+    Set<Key> keysToFetch = new LinkedHashSet<>();
+    for (long datastoreKey : datastoreKeys) {
+      if (!cachedEntities.containsKey(datastoreKey)) {
+        keysToFetch.add(
+            KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, datastoreKey));
+      }
+    }
+    long cacheVersion = userCache == null ? 0 : userCache.getVersion();
+    Future<Map<Key, Entity>> fetchedEntities =
+        keysToFetch.isEmpty() ? null : asyncDatastoreService.get(keysToFetch);
+    return work.supply(
+        () -> {
+          Map<Long, UserAccount> users = new HashMap<>();
+          cachedEntities.forEach(
+              (key, entity) -> users.put(key, UserAccount.fromStoredEntity(entity)));
+          if (fetchedEntities != null) {
+            for (Entity entity : fetchedEntities.get().values()) {
+              if (userCache != null) {
+                userCache.put(entity, cacheVersion);
+              }
+              users.put(entity.getKey().getId(), UserAccount.fromStoredEntity(entity));
+            }
+          }
+          return users;
+        });
+  }
+
+  public CompletableFuture<Collection<MentorshipRequest>> getIncomingRequestsAsync(
+      UserAccount user) {
+    PendingWork work = new PendingWork();
+    CompletableFuture<Boolean> userExists = existsAsync(user, work);
+    CompletableFuture<Collection<MentorshipRequest>> requests =
+        queryMentorshipRequestsAsync(ParameterConstants.TO_USER_KEY, user.getDatastoreKey(), work);
+    return work.result(
+        userExists
+            .thenCombine(requests, (exists, results) -> exists ? results : null)
+            .thenCompose(
+                results ->
+                    results == null
+                        ? CompletableFuture.completedFuture(new ArrayList<>())
+                        : getUsersAsync(
+                                results.stream()
+                                    .map(MentorshipRequest::getFromUserKey)
+                                    .collect(Collectors.toSet()),
+                                work)
+                            .thenApply(
+                                senders -> {
+                                  DatastoreAccess.populateIncomingRequests(user, results, senders);
+                                  return results;
+                                })));
+  }
+
+  public CompletableFuture<Collection<MentorshipRequest>> getOutgoingRequestsAsync(
+      UserAccount user) {
+    PendingWork work = new PendingWork();
+    CompletableFuture<Boolean> userExists = existsAsync(user, work);
+    CompletableFuture<Collection<MentorshipRequest>> requests =
+        queryMentorshipRequestsAsync(
+            ParameterConstants.FROM_USER_KEY, user.getDatastoreKey(), work);
+    return work.result(
+        userExists
+            .thenCombine(requests, (exists, results) -> exists ? results : null)
+            .thenCompose(
+                results ->
+                    results == null
+                        ? CompletableFuture.completedFuture(new ArrayList<>())
+                        : getUsersAsync(
+                                results.stream()
+                                    .map(MentorshipRequest::getToUserKey)
+                                    .collect(Collectors.toSet()),
+                                work)
+                            .thenApply(
+                                receivers -> {
+                                  DatastoreAccess.populateOutgoingRequests(
+                                      user, results, receivers);
+                                  return results;
+                                })));
+  }
+
+  public CompletableFuture<Collection<MentorMenteeRelation>> getMentorMenteeRelationsAsync(
+      UserAccount user) {
+    PendingWork work = new PendingWork();
+    CompletableFuture<UserAccount> storedUser = getUserAsync(user.getDatastoreKey(), work);
+    List<Iterator<Entity>> relationEntities =
+        MentorMenteeRelationQueries.start(
+            asyncDatastoreService,
+            MentorMenteeRelationQueries.plan(user.getDatastoreKey(), user.getUserType()));
+    CompletableFuture<Collection<MentorMenteeRelation>> relations =
+        work.supply(() -> MentorMenteeRelationQueries.merge(relationEntities));
+    return work.result(
+        storedUser
+            .thenCombine(relations, (stored, results) -> stored == null ? null : results)
+            .thenCompose(
+                results ->
+                    results == null
+                        ? CompletableFuture.completedFuture(new ArrayList<>())
+                        : getUsersAsync(DatastoreAccess.getRelatedUserKeys(user, results), work)
+                            .thenApply(
+                                relatedUsers -> {
+                                  DatastoreAccess.populateMentorMenteeRelations(
+                                      user, results, relatedUsers);
+                                  return results;
+                                })));
+  }
+
+  /** Checks that the passed in user is in the database by datastore key or else by userID. */
+  private CompletableFuture<Boolean> existsAsync(UserAccount user, PendingWork work) {
+    return userExistsAsync(user.getDatastoreKey(), work)
+        .thenCompose(
+            exists ->
+                exists
+                    ? CompletableFuture.completedFuture(true)
+                    : getUserAsync(user.getUserID(), work).thenApply(userByID -> userByID != null));
+  }
+
+  /** Checks that a user is in the database by datastore key without building a UserAccount. */
+  private CompletableFuture<Boolean> userExistsAsync(long datastoreKey, PendingWork work) {
+    if (userCache != null && userCache.get(datastoreKey) != null) {
+      return CompletableFuture.completedFuture(true);
+    }
+    long cacheVersion = userCache == null ? 0 : userCache.getVersion();
+    Future<Entity> userEntity =
+        asyncDatastoreService.get(
+            KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, datastoreKey));
+    return work.supply(
+        () -> {
+          Entity entity = getOrNull(userEntity);
+          if (entity != null && userCache != null) {
+            userCache.put(entity, cacheVersion);
+          }
+          return entity != null;
+        });
+  }
+
+  private CompletableFuture<Collection<MentorshipRequest>> queryMentorshipRequestsAsync(
+      String userKeyProperty, long userKey, PendingWork work) {
+    List<Entity> requestEntities =
+        asyncDatastoreService
+            .prepare(DatastoreAccess.mentorshipRequestsQuery(userKeyProperty, userKey))
+            .asList(FetchOptions.Builder.withDefaults());
+    return work.supply(
+        () -> requestEntities.stream().map(MentorshipRequest::new).collect(Collectors.toList()));
+  }
+
+  /** Waits for an entity lookup, treating a missing entity as null. */
+  private static Entity getOrNull(Future<Entity> entity)
+      throws InterruptedException, ExecutionException {
+    try {
+      return entity.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof EntityNotFoundException) {
+        return null;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * The work of a single AsyncDataAccess call that waits for database results and decodes them. It
+   * is queued instead of run right away, and the thread that joins the call's result runs it. Each
+   * call gets its own queue, so joining one result never runs the work of another call.
+   */
+  private static final class PendingWork {
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /** Queues the passed in work and exposes its outcome as a future. */
+    private <T> CompletableFuture<T> supply(Callable<T> work) {
+      CompletableFuture<T> result = new CompletableFuture<>();
+      tasks.add(
+          () -> {
+            try {
+              result.complete(work.call());
+            } catch (ExecutionException e) {
+              result.completeExceptionally(e.getCause());
+            } catch (Exception e) {
+              result.completeExceptionally(e);
+            }
+          });
+      return result;
+    }
+
+    /** Wraps the final stage of a call in a future that runs the queued work when it is joined. */
+    private <T> CompletableFuture<T> result(CompletableFuture<T> stages) {
+      if (stages.isDone()) {
+        return stages;
+      }
+      JoinedFuture<T> result = new JoinedFuture<>(this);
+      stages.whenComplete(
+          (value, error) -> {
+            if (error != null) {
+              result.completeExceptionally(error);
+            } else {
+              result.complete(value);
+            }
+          });
+      return result;
+    }
+
+    /**
+     * Runs queued work until the passed in future is done. Work queued by the work that runs is
+     * picked up as well, since it belongs to the same call.
+     */
+    private void runUntilDone(Future<?> future) {
+      Runnable task;
+      while (!future.isDone() && (task = tasks.poll()) != null) {
+        task.run();
+      }
+    }
+  }
+
+  /** A call result that runs the call's queued work on the thread that waits for it. */
+  private static final class JoinedFuture<T> extends CompletableFuture<T> {
+    private final PendingWork work;
+
+    private JoinedFuture(PendingWork work) {
+      this.work = work;
+    }
+
+    @Override
+    public T join() {
+      work.runUntilDone(this);
+      return super.join();
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+      work.runUntilDone(this);
+      return super.get();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      work.runUntilDone(this);
+      return super.get(timeout, unit);
+    }
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private AsyncDatastoreService asyncDatastoreService;
+    private UserAccountCache userCache;
+
+    public Builder asyncDatastoreService(AsyncDatastoreService asyncDatastoreService) {
+      this.asyncDatastoreService = asyncDatastoreService;
+      return this;
+    }
+
+    /**
+     * Sets the cache to read users through. AsyncDatastoreAccess objects made with the builder do
+     * not cache users unless one is set.
+     */
+    public Builder userCache(UserAccountCache userCache) {
+      this.userCache = userCache;
+      return this;
+    }
+
+    public AsyncDatastoreAccess build() {
+      return new AsyncDatastoreAccess(this);
+    }
+  }
+}
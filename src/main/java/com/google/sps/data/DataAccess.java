@@ -68,6 +68,15 @@ public interface DataAccess {
    */
   UserAccount getUser(long datastoreKey);
 
+  /**
+   * Gets users from the database based on their unique indentifier keys within the database. All of
+   * the users are read with a single batched lookup and duplicate keys are only read once.
+   *
+   * @param datastoreKeys the unique identifier keys of the users to look for
+   * @return a map from each key to its UserAccount (keys not found in the database are omitted)
+   */
+  Map<Long, UserAccount> getUsers(Collection<Long> datastoreKeys);
+
   /**
    * Gets a Mentee user from the database based on their userID from the authentication API This
    * method returns null if the result UserAccount is a Mentor.
@@ -296,7 +305,7 @@ public interface DataAccess {
 
   /**
    * Deletes a blob from the Blobstore based on the specifed key. This method will remove the blob
-   * entry from the database.
+   * entry from the database, possibly in the background after it returns.
    *
    * @param blobKeyString the key for the blobstore data
    */
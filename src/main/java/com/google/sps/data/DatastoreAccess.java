@@ -19,7 +19,6 @@ import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
-import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
@@ -29,21 +28,37 @@ import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.taskqueue.DeferredTask;
 import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.tasks.TaskQueue;
 import com.google.sps.util.ContextFields;
+import com.google.sps.util.ErrorMessages;
 import com.google.sps.util.ParameterConstants;
 import com.google.sps.util.ServletUtils;
 import com.google.sps.util.URLPatterns;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -55,31 +70,46 @@ import javax.servlet.http.HttpServletResponse;
  * @version 1.0
  */
 public class DatastoreAccess implements DataAccess {
+  private static final Logger LOG = Logger.getLogger(DatastoreAccess.class.getName());
+  /** The most keys the datastore accepts in a single batch delete. */
+  static final int DELETE_BATCH_SIZE = 500;
 
   private UserService userService;
   private DatastoreService datastoreService;
   private BlobstoreService blobstoreService;
   private BlobInfoFactory blobInfoFactory;
+  private UserAccountCache userCache;
+  private MenteeStateBuffer menteeStateBuffer;
+  private TaskQueue taskQueue;
 
   public DatastoreAccess() {
     this(
         UserServiceFactory.getUserService(),
         DatastoreServiceFactory.getDatastoreService(),
         BlobstoreServiceFactory.getBlobstoreService(),
-        new BlobInfoFactory());
+        new BlobInfoFactory(),
+        UserAccountCache.getInstance(),
+        MenteeStateBuffer.getInstance(),
+        TaskQueue.getInstance());
   }
 
   private DatastoreAccess(
       UserService userService,
       DatastoreService datastoreService,
       BlobstoreService blobstoreService,
-      BlobInfoFactory blobInfoFactory) {
+      BlobInfoFactory blobInfoFactory,
+      UserAccountCache userCache,
+      MenteeStateBuffer menteeStateBuffer,
+      TaskQueue taskQueue) {
     this.userService = userService != null ? userService : UserServiceFactory.getUserService();
     this.datastoreService =
         datastoreService != null ? datastoreService : DatastoreServiceFactory.getDatastoreService();
     this.blobstoreService =
         blobstoreService != null ? blobstoreService : BlobstoreServiceFactory.getBlobstoreService();
     this.blobInfoFactory = blobInfoFactory != null ? blobInfoFactory : new BlobInfoFactory();
+    this.userCache = userCache;
+    this.menteeStateBuffer = menteeStateBuffer;
+    this.taskQueue = taskQueue;
   }
 
   public DatastoreAccess(Builder builder) {
@@ -87,7 +117,10 @@ public class DatastoreAccess implements DataAccess {
         builder.userService,
         builder.datastoreService,
         builder.blobstoreService,
-        builder.blobInfoFactory);
+        builder.blobInfoFactory,
+        builder.userCache,
+        builder.menteeStateBuffer,
+        builder.taskQueue);
   }
 
   public boolean seed_db(Collection<Entity> entities) {
@@ -124,25 +157,344 @@ public class DatastoreAccess implements DataAccess {
     return userService.getCurrentUser();
   }
 
+  /**
+   * Gets a user by their userID with a key lookup through their UserIDLookup entity. Users that do
+   * not have a lookup entity yet (e.g. users created before lookups existed) are found with a query
+   * on the userID property instead and their lookup entity is written so later calls take the fast
+   * path.
+   */
   public UserAccount getUser(String userID) {
-    Query query =
-        new Query(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT)
-            .setFilter(
-                new Query.FilterPredicate(
-                    ParameterConstants.USER_ID, Query.FilterOperator.EQUAL, userID));
-    PreparedQuery result = datastoreService.prepare(query);
-    Entity userEntity = result.asSingleEntity();
-    return UserAccount.fromEntity(userEntity);
+    UserIdentityMap identityMap = UserIdentityMap.current();
+    if (identityMap != null && identityMap.containsUserID(userID)) {
+      return identityMap.getByUserID(userID);
+    }
+    if (userCache != null && userID != null) {
+      Long cachedKey = userCache.getDatastoreKey(userID);
+      if (cachedKey != null) {
+        UserAccount user = getUser(cachedKey.longValue());
+        if (user != null && userID.equals(user.getUserID())) {
+          return user;
+        }
+      }
+    }
+    long cacheVersion = userCache == null ? 0 : userCache.getVersion();
+    UserAccount user = getUserByLookup(userID);
+    if (user == null) {
+      user = queryUser(userID);
+      if (user != null && user.getUserID() != null && !user.getUserID().isEmpty()) {
+        datastoreService.put(convertToUserIDLookup(user.getUserID(), user.getDatastoreKey()));
+      }
+    }
+    if (userCache != null && user != null) {
+      userCache.putDatastoreKey(userID, user.getDatastoreKey(), cacheVersion);
+    }
+    if (identityMap != null) {
+      if (user == null) {
+        identityMap.putMissingUserID(userID);
+      } else {
+        identityMap.put(user);
+      }
+    }
+    return user;
   }
 
-  public UserAccount getUser(long datastoreKey) {
+  /**
+   * Follows the UserIDLookup entity for the passed in userID to its UserAccount.
+   *
+   * @return the user or null if there is no lookup entity or it no longer points to this userID
+   */
+  private UserAccount getUserByLookup(String userID) {
+    if (userID == null || userID.isEmpty()) {
+      return null;
+    }
+    Entity lookupEntity;
     try {
-      return UserAccount.fromEntity(
+      lookupEntity =
           datastoreService.get(
-              KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, datastoreKey)));
+              KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ID_LOOKUP, userID));
     } catch (EntityNotFoundException e) {
       return null;
     }
+    UserAccount user = getUser((long) lookupEntity.getProperty(ParameterConstants.USER_KEY));
+    return user != null && userID.equals(user.getUserID()) ? user : null;
+  }
+
+  /** Finds a user with an index query on the userID property. */
+  private UserAccount queryUser(String userID) {
+    PreparedQuery result = datastoreService.prepare(userIDQuery(userID));
+    return UserAccount.fromStoredEntity(applyBufferedState(result.asSingleEntity()));
+  }
+
+  /** Builds the query for the UserAccount with the passed in userID. */
+  static Query userIDQuery(String userID) {
+    return new Query(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT)
+        .setFilter(
+            new Query.FilterPredicate(
+                ParameterConstants.USER_ID, Query.FilterOperator.EQUAL, userID));
+  }
+
+  /** Applies browsing state that has not been flushed yet to a user entity that was just read. */
+  private Entity applyBufferedState(Entity userEntity) {
+    return menteeStateBuffer == null ? userEntity : menteeStateBuffer.applyTo(userEntity);
+  }
+
+  /**
+   * Saves the passed in mentee after their browsing state changed. If nothing but browsing state
+   * changed, the write is left to the mentee state buffer instead of being made right away.
+   *
+   * @param mentee the Mentee to save
+   * @return a boolean representing the success of the operation
+   */
+  private boolean saveBrowsingState(Mentee mentee) {
+    if (menteeStateBuffer == null
+        || !mentee.isPersisted()
+        || !Mentee.BUFFERED_BROWSING_STATE_PROPERTIES.containsAll(mentee.getDirtyProperties())) {
+      return updateUser(mentee);
+    }
+    if (mentee.isDirty()) {
+      menteeStateBuffer.buffer(mentee);
+      mentee.markClean();
+    }
+    return true;
+  }
+
+  /**
+   * Drops a user that was just written or deleted from the user cache, if there is one.
+   *
+   * @param userVersion the version that was written (UserAccountCache.DELETED_USER_VERSION if the
+   *     user was deleted)
+   */
+  private void invalidateCachedUser(long datastoreKey, String userID, long userVersion) {
+    if (userCache != null) {
+      userCache.invalidate(datastoreKey, userID, userVersion);
+    }
+  }
+
+  /** Builds the UserIDLookup entity that maps the passed in userID to a user's datastore key. */
+  static Entity convertToUserIDLookup(String userID, long datastoreKey) {
+    Entity lookupEntity =
+        new Entity(KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ID_LOOKUP, userID));
+    lookupEntity.setUnindexedProperty(ParameterConstants.USER_KEY, datastoreKey);
+    return lookupEntity;
+  }
+
+  /**
+   * Writes the passed in user entity, batched with the UserIDLookup entity for it when the userID
+   * may have changed.
+   */
+  private void putUserEntity(Entity userEntity, boolean writeLookup) {
+    String userID = (String) userEntity.getProperty(ParameterConstants.USER_ID);
+    if (!writeLookup || userID == null || userID.isEmpty()) {
+      datastoreService.put(userEntity);
+    } else {
+      datastoreService.put(
+          Arrays.asList(userEntity, convertToUserIDLookup(userID, userEntity.getKey().getId())));
+    }
+  }
+
+  /**
+   * Writes a change to a stored user with the OptimisticUserWriter, in the same transaction as the
+   * UserIDLookup entity for it when the userID may have changed.
+   *
+   * @return the entity that was written or null if the user is no longer stored
+   */
+  private Entity writeUserEntity(UserEntityChange change, boolean writeLookup) {
+    String userID = (String) change.entity.getProperty(ParameterConstants.USER_ID);
+    if (writeLookup && userID != null && !userID.isEmpty()) {
+      change.otherEntities.add(convertToUserIDLookup(userID, change.entity.getKey().getId()));
+    }
+    return OptimisticUserWriter.getInstance()
+        .write(datastoreService, change.entity.getKey().getId(), change);
+  }
+
+  /**
+   * Writes a user entity that was built from a UserAccount. If the user was written by someone else
+   * since it was read, only the properties that changed are written on top of the stored version,
+   * and browsing state is merged (see Mentee.mergeBrowsingState).
+   */
+  private static final class UserEntityChange implements OptimisticUserWriter.Change {
+    private final Entity entity;
+    private final long baseVersion;
+    private final Set<String> changedProperties;
+    private final List<Entity> otherEntities = new ArrayList<>();
+
+    /** Creates a change that overwrites whatever version is stored. */
+    private UserEntityChange(Entity entity) {
+      this(entity, ANY_VERSION, null);
+    }
+
+    private UserEntityChange(Entity entity, long baseVersion, Set<String> changedProperties) {
+      this.entity = entity;
+      this.baseVersion = baseVersion;
+      this.changedProperties = changedProperties;
+    }
+
+    public long getBaseVersion() {
+      return baseVersion;
+    }
+
+    public Entity applyTo(Entity storedEntity) {
+      if (changedProperties == null || baseVersion == UserAccount.versionOf(storedEntity)) {
+        return entity;
+      }
+      for (String property : changedProperties) {
+        Object value = entity.getProperty(property);
+        if (Mentee.BROWSING_STATE_PROPERTIES.contains(property)) {
+          value = Mentee.mergeBrowsingState(property, storedEntity.getProperty(property), value);
+        }
+        if (!entity.hasProperty(property)) {
+          storedEntity.removeProperty(property);
+        } else if (entity.isUnindexedProperty(property)) {
+          storedEntity.setUnindexedProperty(property, value);
+        } else {
+          storedEntity.setProperty(property, value);
+        }
+      }
+      Mentee.removeDislikedFromServedMentors(storedEntity);
+      return storedEntity;
+    }
+
+    public List<Entity> getOtherEntities() {
+      return otherEntities;
+    }
+  }
+
+  public UserAccount getUser(long datastoreKey) {
+    UserIdentityMap identityMap = UserIdentityMap.current();
+    if (identityMap != null && identityMap.containsKey(datastoreKey)) {
+      return identityMap.get(datastoreKey);
+    }
+    Entity userEntity = userCache == null ? null : userCache.get(datastoreKey);
+    if (userEntity == null) {
+      long cacheVersion = userCache == null ? 0 : userCache.getVersion();
+      userEntity =
+          getEntity(
+              KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, datastoreKey));
+      if (userCache != null && userEntity != null) {
+        userCache.put(userEntity, cacheVersion);
+      }
+    }
+    UserAccount user = UserAccount.fromStoredEntity(applyBufferedState(userEntity));
+    if (identityMap != null) {
+      if (user == null) {
+        identityMap.putMissing(datastoreKey);
+      } else {
+        identityMap.put(user);
+      }
+    }
+    return user;
+  }
+
+  /**
+   * Checks that a user is in the database without building a UserAccount for it. The identity map
+   * of the current request and the user cache are checked before the database is read.
+   *
+   * @param datastoreKey the unique identifier key of the user
+   * @param excludedType the user type that does not count as a match (null to accept any type)
+   * @return true if a user with the passed in key and an accepted type is in the database
+   */
+  private boolean userExists(long datastoreKey, UserType excludedType) {
+    UserIdentityMap identityMap = UserIdentityMap.current();
+    if (identityMap != null && identityMap.containsKey(datastoreKey)) {
+      UserAccount user = identityMap.get(datastoreKey);
+      return user != null && user.getUserType() != excludedType;
+    }
+    Entity userEntity = userCache == null ? null : userCache.get(datastoreKey);
+    if (userEntity == null) {
+      long cacheVersion = userCache == null ? 0 : userCache.getVersion();
+      userEntity =
+          getEntity(
+              KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, datastoreKey));
+      if (userEntity == null) {
+        if (identityMap != null) {
+          identityMap.putMissing(datastoreKey);
+        }
+        return false;
+      }
+      if (userCache != null) {
+        userCache.put(userEntity, cacheVersion);
+      }
+    }
+    return excludedType == null
+        || !excludedType.name().equals(userEntity.getProperty(ParameterConstants.USER_TYPE));
+  }
+
+  /**
+   * Checks that the passed in user is in the database by datastore key or else by userID. Only the
+   * fallback lookup by userID builds a UserAccount.
+   *
+   * @param user the user the caller already holds
+   * @param excludedType the user type that does not count as a match (null to accept any type)
+   * @return true if the user is in the database with an accepted type
+   */
+  private boolean isStoredUser(UserAccount user, UserType excludedType) {
+    if (userExists(user.getDatastoreKey(), excludedType)) {
+      return true;
+    }
+    UserAccount userByID = getUser(user.getUserID());
+    return userByID != null && userByID.getUserType() != excludedType;
+  }
+
+  /** Reads an entity by key, treating a missing entity as null. */
+  private Entity getEntity(Key key) {
+    try {
+      return datastoreService.get(key);
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  public Map<Long, UserAccount> getUsers(Collection<Long> datastoreKeys) {
+    Map<Long, UserAccount> users = new HashMap<>();
+    UserIdentityMap identityMap = UserIdentityMap.current();
+    Set<Key> keysToFetch = new LinkedHashSet<>();
+    for (long datastoreKey : datastoreKeys) {
+      if (identityMap != null && identityMap.containsKey(datastoreKey)) {
+        UserAccount user = identityMap.get(datastoreKey);
+        if (user != null) {
+          users.put(datastoreKey, user);
+        }
+      } else {
+        keysToFetch.add(
+            KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, datastoreKey));
+      }
+    }
+    if (keysToFetch.isEmpty()) {
+      return users;
+    }
+    Map<Key, Entity> userEntities = new HashMap<>();
+    if (userCache != null) {
+      userCache
+          .getAll(keysToFetch.stream().map(Key::getId).collect(Collectors.toList()))
+          .values()
+          .forEach(userEntity -> userEntities.put(userEntity.getKey(), userEntity));
+    }
+    long cacheVersion = userCache == null ? 0 : userCache.getVersion();
+    List<Key> uncachedKeys =
+        keysToFetch.stream()
+            .filter(key -> !userEntities.containsKey(key))
+            .collect(Collectors.toList());
+    if (!uncachedKeys.isEmpty()) {
+      Map<Key, Entity> fetchedEntities = datastoreService.get(uncachedKeys);
+      userEntities.putAll(fetchedEntities);
+      if (userCache != null) {
+        fetchedEntities.values().forEach(userEntity -> userCache.put(userEntity, cacheVersion));
+      }
+    }
+    for (Key key : keysToFetch) {
+      UserAccount user = UserAccount.fromStoredEntity(applyBufferedState(userEntities.get(key)));
+      if (identityMap != null) {
+        if (user == null) {
+          identityMap.putMissing(key.getId());
+        } else {
+          identityMap.put(user);
+        }
+      }
+      if (user != null) {
+        users.put(key.getId(), user);
+      }
+    }
+    return users;
   }
 
   public Mentee getMentee(String userID) {
@@ -167,7 +519,16 @@ public class DatastoreAccess implements DataAccess {
 
   public boolean createUser(UserAccount user) {
     if (getUser(user.getDatastoreKey()) == null) {
-      datastoreService.put(user.convertToEntity());
+      Entity userEntity = user.convertToEntity();
+      putUserEntity(userEntity, true);
+      user.markClean();
+      invalidateCachedUser(
+          user.getDatastoreKey(), user.getUserID(), UserAccount.versionOf(userEntity));
+      MentorCandidateIndex.getInstance().update(userEntity);
+      UserIdentityMap identityMap = UserIdentityMap.current();
+      if (identityMap != null) {
+        identityMap.put(user);
+      }
       return true;
     }
     return false;
@@ -177,21 +538,95 @@ public class DatastoreAccess implements DataAccess {
     UserAccount oldUser =
         user.isKeyInitialized() ? getUser(user.getDatastoreKey()) : getUser(user.getUserID());
     if (oldUser != null) {
+      if (user.isKeyInitialized() && !user.isDirty()) {
+        return true;
+      }
+      UserIdentityMap identityMap = UserIdentityMap.current();
+      if (oldUser.getUserID() != null
+          && !oldUser.getUserID().isEmpty()
+          && !oldUser.getUserID().equals(user.getUserID())) {
+        datastoreService.delete(
+            KeyFactory.createKey(
+                ParameterConstants.ENTITY_TYPE_USER_ID_LOOKUP, oldUser.getUserID()));
+      }
       if (user.isKeyInitialized()) {
-        datastoreService.put(user.convertToEntity());
+        Entity userEntity = user.convertToEntity();
+        Map<String, Object> takenState =
+            menteeStateBuffer == null
+                ? Collections.emptyMap()
+                : menteeStateBuffer.takeInto(
+                    userEntity,
+                    user.isPersisted()
+                        ? user.getDirtyProperties()
+                        : Mentee.BROWSING_STATE_PROPERTIES);
+        Set<String> changedProperties = new HashSet<>(user.getDirtyProperties());
+        changedProperties.addAll(takenState.keySet());
+        Entity writtenEntity;
+        try {
+          writtenEntity =
+              writeUserEntity(
+                  user.isPersisted()
+                      ? new UserEntityChange(userEntity, user.getVersion(), changedProperties)
+                      : new UserEntityChange(userEntity),
+                  user.isDirty(ParameterConstants.USER_ID));
+        } catch (ConcurrentModificationException e) {
+          if (menteeStateBuffer != null) {
+            menteeStateBuffer.restore(user.getDatastoreKey(), takenState);
+          }
+          return false;
+        }
+        if (writtenEntity == null) {
+          return false;
+        }
+        user.setVersion(UserAccount.versionOf(writtenEntity));
+        user.markClean();
+        long writtenVersion = UserAccount.versionOf(writtenEntity);
+        invalidateCachedUser(oldUser.getDatastoreKey(), oldUser.getUserID(), writtenVersion);
+        invalidateCachedUser(user.getDatastoreKey(), user.getUserID(), writtenVersion);
+        MentorCandidateIndex.getInstance().update(writtenEntity);
+        if (identityMap != null) {
+          identityMap.put(user);
+        }
       } else {
         Entity newUserEntity =
             new Entity(
                 KeyFactory.createKey(
                     ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, oldUser.getDatastoreKey()));
         newUserEntity.setPropertiesFrom(user.convertToEntity());
-        datastoreService.put(newUserEntity);
+        if (menteeStateBuffer != null) {
+          menteeStateBuffer.takeInto(newUserEntity, Mentee.BROWSING_STATE_PROPERTIES);
+        }
+        Entity writtenEntity;
+        try {
+          writtenEntity = writeUserEntity(new UserEntityChange(newUserEntity), true);
+        } catch (ConcurrentModificationException e) {
+          return false;
+        }
+        invalidateCachedUser(
+            oldUser.getDatastoreKey(),
+            oldUser.getUserID(),
+            writtenEntity == null
+                ? UserAccountCache.DELETED_USER_VERSION
+                : UserAccount.versionOf(writtenEntity));
+        if (writtenEntity == null) {
+          return false;
+        }
+        MentorCandidateIndex.getInstance().update(writtenEntity);
+        if (identityMap != null) {
+          identityMap.evict(oldUser);
+        }
       }
       return true;
     }
     return false;
   }
 
+  /**
+   * Deletes a user in two steps. The user and their UserIDLookup are first swapped for a
+   * DeletedUser tombstone in one transaction, so readers stop seeing the user right away.
+   * Everything that depended on the user is then cleaned up by completeUserDeletion on the task
+   * queue.
+   */
   public boolean deleteUser(UserAccount user) {
     if (!user.isKeyInitialized()) {
       user = getUser(user.getUserID());
@@ -199,148 +634,358 @@ public class DatastoreAccess implements DataAccess {
     if (user == null) {
       return false;
     }
+    Entity userEntity;
     try {
-      this.getIncomingRequests(user).stream().forEach(request -> this.deleteRequest(request));
-      this.getOutgoingRequests(user).stream().forEach(request -> this.deleteRequest(request));
-      this.getMentorMenteeRelations(user).stream()
-          .forEach(relation -> this.deleteMentorMenteeRelation(relation));
-      Key userKey =
-          KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, user.getDatastoreKey());
-      datastoreService.get(userKey);
-      datastoreService.delete(userKey);
-      return true;
+      userEntity = tombstoneUser(user.getDatastoreKey());
     } catch (Exception e) {
       return false;
     }
+    if (userEntity == null) {
+      return false;
+    }
+    String userID = (String) userEntity.getProperty(ParameterConstants.USER_ID);
+    if (menteeStateBuffer != null) {
+      menteeStateBuffer.discard(user.getDatastoreKey());
+    }
+    invalidateCachedUser(user.getDatastoreKey(), userID, UserAccountCache.DELETED_USER_VERSION);
+    MentorCandidateIndex.getInstance().remove(user.getDatastoreKey());
+    UserIdentityMap identityMap = UserIdentityMap.current();
+    if (identityMap != null) {
+      identityMap.putMissing(user.getDatastoreKey());
+      identityMap.putMissingUserID(userID);
+      identityMap.putMissingUserID(user.getUserID());
+    }
+    if (taskQueue != null) {
+      taskQueue.enqueue(
+          UserDeletionTask.NAME_PREFIX + user.getDatastoreKey(),
+          new UserDeletionTask(user.getDatastoreKey()));
+      return true;
+    }
+    try {
+      completeUserDeletion(user.getDatastoreKey());
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, ErrorMessages.USER_DELETION_CLEANUP_FAILED, e);
+    }
+    return true;
+  }
+
+  /**
+   * Replaces a user and their UserIDLookup with a DeletedUser tombstone in a single cross-group
+   * transaction. The tombstone keeps what completeUserDeletion needs once the user is gone.
+   *
+   * @param datastoreKey the unique identifier key of the user
+   * @return the entity of the user that was deleted or null if they were not in the database
+   */
+  private Entity tombstoneUser(long datastoreKey) {
+    Key userKey = KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, datastoreKey);
+    Transaction transaction =
+        datastoreService.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      Entity userEntity = datastoreService.get(transaction, userKey);
+      Entity tombstone =
+          new Entity(
+              KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_DELETED_USER, datastoreKey));
+      tombstone.setUnindexedProperty(
+          ParameterConstants.PROFILE_PIC_BLOB_KEY,
+          userEntity.getProperty(ParameterConstants.PROFILE_PIC_BLOB_KEY));
+      List<Key> keysToDelete = new ArrayList<>();
+      keysToDelete.add(userKey);
+      String userID = (String) userEntity.getProperty(ParameterConstants.USER_ID);
+      if (userID != null && !userID.isEmpty()) {
+        keysToDelete.add(
+            KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ID_LOOKUP, userID));
+      }
+      datastoreService.put(transaction, tombstone);
+      datastoreService.delete(transaction, keysToDelete);
+      transaction.commit();
+      return userEntity;
+    } catch (EntityNotFoundException e) {
+      return null;
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /**
+   * Deletes everything that depended on a user that deleteUser tombstoned: their
+   * MentorshipRequests, their MentorMenteeRelations and their profile picture. The dependents are
+   * found with keys-only queries that all run at the same time and are deleted in batches. The
+   * tombstone is only deleted once everything else is gone, so running this again after a failure
+   * picks up where it stopped.
+   *
+   * @param datastoreKey the unique identifier key of the deleted user
+   */
+  void completeUserDeletion(long datastoreKey) {
+    Key tombstoneKey =
+        KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_DELETED_USER, datastoreKey);
+    Entity tombstone = getEntity(tombstoneKey);
+    if (tombstone == null) {
+      return;
+    }
+    List<Query> dependentQueries = new ArrayList<>();
+    dependentQueries.add(mentorshipRequestsQuery(ParameterConstants.TO_USER_KEY, datastoreKey));
+    dependentQueries.add(mentorshipRequestsQuery(ParameterConstants.FROM_USER_KEY, datastoreKey));
+    // users can switch between mentor and mentee, so relations on both sides are cleaned up
+    dependentQueries.addAll(MentorMenteeRelationQueries.plan(datastoreKey, null));
+    dependentQueries.forEach(Query::setKeysOnly);
+    Set<Key> dependentKeys = new LinkedHashSet<>();
+    MentorMenteeRelationQueries.start(datastoreService, dependentQueries)
+        .forEach(results -> results.forEachRemaining(entity -> dependentKeys.add(entity.getKey())));
+    List<Key> keysToDelete = new ArrayList<>(dependentKeys);
+    for (int i = 0; i < keysToDelete.size(); i += DELETE_BATCH_SIZE) {
+      datastoreService.delete(
+          keysToDelete.subList(i, Math.min(i + DELETE_BATCH_SIZE, keysToDelete.size())));
+    }
+    String profilePicBlobKey =
+        (String) tombstone.getProperty(ParameterConstants.PROFILE_PIC_BLOB_KEY);
+    if (profilePicBlobKey != null && !profilePicBlobKey.isEmpty()) {
+      blobstoreService.delete(new BlobKey(profilePicBlobKey));
+    }
+    datastoreService.delete(tombstoneKey);
   }
 
   public Collection<Mentor> getRelatedMentors(Mentee mentee) {
-    if (getMentee(mentee.getDatastoreKey()) == null && getMentee(mentee.getUserID()) == null) {
+    if (!isStoredUser(mentee, UserType.MENTOR)) {
       return new ArrayList<Mentor>();
     }
-    Query query =
-        new Query(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT)
-            .setFilter(
-                Query.CompositeFilterOperator.and(
-                    new Query.FilterPredicate(
-                        ParameterConstants.USER_TYPE,
-                        Query.FilterOperator.EQUAL,
-                        UserType.MENTOR.name()),
-                    new Query.FilterPredicate(
-                        ParameterConstants.MENTOR_TYPE,
-                        Query.FilterOperator.EQUAL,
-                        mentee.getDesiredMentorType().name()),
-                    new Query.FilterPredicate(
-                        ParameterConstants.MENTOR_VISIBILITY, Query.FilterOperator.EQUAL, true)));
-    PreparedQuery results = datastoreService.prepare(query);
-    QueryResultList<Entity> resultList;
-    if (mentee.getEncodedCursor() == "") {
-      resultList =
-          results.asQueryResultList(FetchOptions.Builder.withLimit(ServletUtils.REC_BATCH_SIZE));
-      Cursor originalCursor = resultList.getCursor();
-      mentee.setEncodedCursor(originalCursor.toWebSafeString());
-    } else {
-      Cursor decodedCursor = Cursor.fromWebSafeString(mentee.getEncodedCursor());
-      resultList =
-          results.asQueryResultList(
-              FetchOptions.Builder.withLimit(ServletUtils.REC_BATCH_SIZE).cursor(decodedCursor));
-      Cursor updatedCursor = resultList.getCursor();
-      mentee.setEncodedCursor(updatedCursor.toWebSafeString());
-    }
-    List<Mentor> mentorList =
-        StreamSupport.stream(resultList.spliterator(), false)
-            .map(Mentor::new)
-            .collect(Collectors.toList());
-    ArrayList<Mentor> filteredMentors = new ArrayList<Mentor>(mentorList);
-    boolean repullMentors = false;
-    if (filteredMentors.size() < ServletUtils.REC_BATCH_SIZE) {
-      repullMentors = true;
-      mentee.getServedMentorKeys().stream()
-          .limit(ServletUtils.REC_BATCH_SIZE - filteredMentors.size())
-          .map(this::getMentor)
-          .forEach(filteredMentors::add);
-    }
-    Mentor lastRequestedMentor =
-        mentee.getLastRequestedMentorKey() == 0
-            ? null
-            : getMentor(mentee.getLastRequestedMentorKey());
-    Mentor lastDislikedMentor =
-        mentee.getLastDislikedMentorKey() == 0
-            ? null
-            : getMentor(mentee.getLastDislikedMentorKey());
-    filteredMentors.sort(
-        (Mentor mentorA, Mentor mentorB) -> {
-          int result = mentee.similarityWithMentor(mentorA) - mentee.similarityWithMentor(mentorB);
-          if (lastRequestedMentor != null)
-            result +=
-                mentorA.similarity(lastRequestedMentor) - mentorB.similarity(lastRequestedMentor);
-          if (lastDislikedMentor != null)
-            result -=
-                mentorA.similarity(lastDislikedMentor) - mentorB.similarity(lastDislikedMentor);
-          return result;
-        });
-    if (!repullMentors) {
-      for (Mentor mentor : filteredMentors) {
-        mentee.saveServedMentorKey(mentor.getDatastoreKey());
+    NavigableMap<Long, MentorCandidateIndex.Candidate> candidates =
+        MentorCandidateIndex.getInstance()
+            .getCandidates(mentee.getDesiredMentorType(), datastoreService);
+    MentorRanker ranker = buildMentorRanker(mentee, candidates);
+    BitSet blockedMentors = getBlockedMentors(mentee, candidates);
+    BitSet servedMentors = new BitSet();
+    mentee
+        .getServedMentors()
+        .forEachKey(
+            System.currentTimeMillis(),
+            mentorKey -> markCandidate(servedMentors, candidates, mentorKey));
+    long[] pageKeys =
+        ranker.selectTop(
+            candidates.values(),
+            candidate ->
+                !blockedMentors.get(candidate.getOrdinal())
+                    && !servedMentors.get(candidate.getOrdinal()),
+            ServletUtils.REC_BATCH_SIZE);
+    long[] repullKeys =
+        pageKeys.length < ServletUtils.REC_BATCH_SIZE
+            ? ranker.selectTop(
+                candidates.values(),
+                candidate ->
+                    !blockedMentors.get(candidate.getOrdinal())
+                        && servedMentors.get(candidate.getOrdinal()),
+                ServletUtils.REC_BATCH_SIZE - pageKeys.length)
+            : new long[0];
+    Map<Long, UserAccount> fetchedUsers =
+        getUsers(
+            LongStream.concat(Arrays.stream(pageKeys), Arrays.stream(repullKeys))
+                .boxed()
+                .collect(Collectors.toList()));
+    ArrayList<Mentor> relatedMentors = new ArrayList<Mentor>();
+    for (long key : pageKeys) {
+      Mentor mentor = checkIndexedMentor(key, fetchedUsers.get(key), mentee);
+      if (mentor != null) {
+        relatedMentors.add(mentor);
+        mentee.saveServedMentorKey(key);
+      }
+    }
+    for (long key : repullKeys) {
+      Mentor mentor = checkIndexedMentor(key, fetchedUsers.get(key), mentee);
+      if (mentor != null) {
+        relatedMentors.add(mentor);
       }
     }
-    updateUser(mentee);
-    return filteredMentors;
+    saveBrowsingState(mentee);
+    return relatedMentors;
+  }
+
+  /**
+   * Collects the mentors that must never be recommended to the passed in mentee: the mentors they
+   * disliked, the mentors they have an outstanding request to, and the mentors they are already
+   * connected with.
+   *
+   * @param mentee the Mentee to collect blocked mentors for
+   * @param candidates the candidate index partition being ranked
+   * @return a bitmap of the ordinals of the blocked candidates
+   */
+  private BitSet getBlockedMentors(
+      Mentee mentee, Map<Long, MentorCandidateIndex.Candidate> candidates) {
+    BitSet blockedMentors = toCandidateBitmap(candidates, mentee.getDislikedMentorKeys());
+    queryMentorshipRequests(ParameterConstants.FROM_USER_KEY, mentee.getDatastoreKey())
+        .forEach(request -> markCandidate(blockedMentors, candidates, request.getToUserKey()));
+    queryMentorMenteeRelations(mentee.getDatastoreKey(), UserType.MENTEE)
+        .forEach(relation -> markCandidate(blockedMentors, candidates, relation.getMentorKey()));
+    return blockedMentors;
+  }
+
+  private static BitSet toCandidateBitmap(
+      Map<Long, MentorCandidateIndex.Candidate> candidates, MentorKeySet mentorKeys) {
+    BitSet bitmap = new BitSet();
+    mentorKeys.forEachKey(mentorKey -> markCandidate(bitmap, candidates, mentorKey));
+    return bitmap;
+  }
+
+  private static void markCandidate(
+      BitSet bitmap, Map<Long, MentorCandidateIndex.Candidate> candidates, long mentorKey) {
+    MentorCandidateIndex.Candidate candidate = candidates.get(mentorKey);
+    if (candidate != null) {
+      bitmap.set(candidate.getOrdinal());
+    }
+  }
+
+  /**
+   * Builds a ranker for the passed in mentee. The mentors the mentee last requested and disliked
+   * are looked up in the candidate index first and only read from the database if they are not in
+   * it (e.g. if they have since been hidden).
+   *
+   * @param mentee the Mentee to rank mentors for
+   * @param candidates the candidate index partition being ranked
+   * @return the ranker to use for this mentee
+   */
+  private MentorRanker buildMentorRanker(
+      Mentee mentee, Map<Long, MentorCandidateIndex.Candidate> candidates) {
+    Long lastRequestedMentorKey = mentee.getLastRequestedMentorKey();
+    Long lastDislikedMentorKey = mentee.getLastDislikedMentorKey();
+    Map<Long, UserAccount> referenceMentors =
+        getUsers(
+            Stream.of(lastRequestedMentorKey, lastDislikedMentorKey)
+                .filter(key -> key != null && key != 0 && !candidates.containsKey(key))
+                .collect(Collectors.toList()));
+    MentorRanker.Builder builder =
+        MentorRanker.Builder.newBuilder().mentee(MatchAttributes.pack(mentee));
+    Long lastRequestedAttributes =
+        getMentorAttributes(lastRequestedMentorKey, candidates, referenceMentors);
+    if (lastRequestedAttributes != null) {
+      builder.lastRequested(lastRequestedAttributes);
+    }
+    Long lastDislikedAttributes =
+        getMentorAttributes(lastDislikedMentorKey, candidates, referenceMentors);
+    if (lastDislikedAttributes != null) {
+      builder.lastDisliked(lastDislikedAttributes);
+    }
+    return builder.build();
+  }
+
+  private static Long getMentorAttributes(
+      Long mentorKey,
+      Map<Long, MentorCandidateIndex.Candidate> candidates,
+      Map<Long, UserAccount> referenceMentors) {
+    if (mentorKey == null || mentorKey == 0) {
+      return null;
+    }
+    MentorCandidateIndex.Candidate candidate = candidates.get(mentorKey);
+    if (candidate != null) {
+      return candidate.getAttributes();
+    }
+    UserAccount user = referenceMentors.get(mentorKey);
+    return user instanceof Mentor ? MatchAttributes.pack((Mentor) user) : null;
+  }
+
+  /**
+   * Checks that a user picked from the candidate index is still a visible mentor of the type the
+   * mentee wants. The index is corrected if it was out of date.
+   *
+   * @param key the datastore key that was picked from the index
+   * @param user the user read from the database for that key (can be null)
+   * @param mentee the Mentee that mentors are being recommended to
+   * @return the user as a Mentor or null if it should not be recommended
+   */
+  private static Mentor checkIndexedMentor(long key, UserAccount user, Mentee mentee) {
+    if (user instanceof Mentor
+        && ((Mentor) user).getVisibility()
+        && ((Mentor) user).getMentorType() == mentee.getDesiredMentorType()) {
+      return (Mentor) user;
+    }
+    if (user == null) {
+      MentorCandidateIndex.getInstance().remove(key);
+    } else {
+      MentorCandidateIndex.getInstance().update(user.convertToEntity());
+    }
+    return null;
   }
 
   public Collection<MentorshipRequest> getIncomingRequests(UserAccount user) {
-    if (getUser(user.getDatastoreKey()) == null && getUser(user.getUserID()) == null) {
+    if (!isStoredUser(user, null)) {
       return new ArrayList<MentorshipRequest>();
     }
-    Query query =
-        new Query(ParameterConstants.ENTITY_TYPE_MENTORSHIP_REQUEST)
-            .setFilter(
-                new Query.FilterPredicate(
-                    ParameterConstants.TO_USER_KEY,
-                    Query.FilterOperator.EQUAL,
-                    user.getDatastoreKey()));
-    PreparedQuery results = datastoreService.prepare(query);
     Collection<MentorshipRequest> requests =
-        StreamSupport.stream(results.asIterable().spliterator(), false)
-            .map(MentorshipRequest::new)
-            .collect(Collectors.toList());
+        queryMentorshipRequests(ParameterConstants.TO_USER_KEY, user.getDatastoreKey());
+    populateIncomingRequests(
+        user,
+        requests,
+        getUsers(
+            requests.stream().map(MentorshipRequest::getFromUserKey).collect(Collectors.toSet())));
+    return requests;
+  }
+
+  /**
+   * Fills in the receiver and senders of requests that were sent to the passed in user. Requests
+   * from senders that are no longer stored (e.g. deleted users whose requests completeUserDeletion
+   * has not removed yet) are dropped from the collection.
+   */
+  static void populateIncomingRequests(
+      UserAccount user, Collection<MentorshipRequest> requests, Map<Long, UserAccount> senders) {
+    requests.removeIf(request -> !senders.containsKey(request.getFromUserKey()));
     requests.forEach(
         request -> {
           request.setToUser(user);
-          request.setFromUser(getUser(request.getFromUserKey()));
+          request.setFromUser(senders.get(request.getFromUserKey()));
         });
-    return requests;
   }
 
   public Collection<MentorshipRequest> getOutgoingRequests(UserAccount user) {
-    if (getUser(user.getDatastoreKey()) == null && getUser(user.getUserID()) == null) {
+    if (!isStoredUser(user, null)) {
       return new ArrayList<MentorshipRequest>();
     }
-    Query query =
-        new Query(ParameterConstants.ENTITY_TYPE_MENTORSHIP_REQUEST)
-            .setFilter(
-                new Query.FilterPredicate(
-                    ParameterConstants.FROM_USER_KEY,
-                    Query.FilterOperator.EQUAL,
-                    user.getDatastoreKey()));
-    PreparedQuery results = datastoreService.prepare(query);
     Collection<MentorshipRequest> requests =
-        StreamSupport.stream(results.asIterable().spliterator(), false)
-            .map(MentorshipRequest::new)
-            .collect(Collectors.toList());
+        queryMentorshipRequests(ParameterConstants.FROM_USER_KEY, user.getDatastoreKey());
+    populateOutgoingRequests(
+        user,
+        requests,
+        getUsers(
+            requests.stream().map(MentorshipRequest::getToUserKey).collect(Collectors.toSet())));
+    return requests;
+  }
+
+  /**
+   * Fills in the sender and receivers of requests that were sent from the passed in user. Requests
+   * to receivers that are no longer stored are dropped from the collection.
+   */
+  static void populateOutgoingRequests(
+      UserAccount user, Collection<MentorshipRequest> requests, Map<Long, UserAccount> receivers) {
+    requests.removeIf(request -> !receivers.containsKey(request.getToUserKey()));
     requests.forEach(
         request -> {
           request.setFromUser(user);
-          request.setToUser(getUser(request.getFromUserKey()));
+          request.setToUser(receivers.get(request.getToUserKey()));
         });
-    return requests;
+  }
+
+  /**
+   * Runs a single query for all of the MentorshipRequests whose passed in user key property matches
+   * the passed in key. The returned requests do not have their users populated.
+   */
+  private Collection<MentorshipRequest> queryMentorshipRequests(
+      String userKeyProperty, long userKey) {
+    PreparedQuery results =
+        datastoreService.prepare(mentorshipRequestsQuery(userKeyProperty, userKey));
+    return StreamSupport.stream(results.asIterable().spliterator(), false)
+        .map(MentorshipRequest::new)
+        .collect(Collectors.toList());
+  }
+
+  /** Builds the query for the MentorshipRequests whose passed in user key property matches. */
+  static Query mentorshipRequestsQuery(String userKeyProperty, long userKey) {
+    return new Query(ParameterConstants.ENTITY_TYPE_MENTORSHIP_REQUEST)
+        .setFilter(new Query.FilterPredicate(userKeyProperty, Query.FilterOperator.EQUAL, userKey));
   }
 
   public boolean dislikeMentor(Mentee mentee, Mentor mentor) {
-    if (getMentee(mentee.getDatastoreKey()) != null
-        && getMentor(mentor.getDatastoreKey()) != null) {
+    if (userExists(mentee.getDatastoreKey(), UserType.MENTOR)
+        && userExists(mentor.getDatastoreKey(), UserType.MENTEE)) {
       if (mentee.dislikeMentor(mentor)) {
-        updateUser(mentee);
+        saveBrowsingState(mentee);
         return true;
       }
     }
@@ -348,10 +993,10 @@ public class DatastoreAccess implements DataAccess {
   }
 
   public boolean requestMentor(Mentee mentee, Mentor mentor) {
-    if (getMentee(mentee.getDatastoreKey()) != null
-        && getMentor(mentor.getDatastoreKey()) != null) {
+    if (userExists(mentee.getDatastoreKey(), UserType.MENTOR)
+        && userExists(mentor.getDatastoreKey(), UserType.MENTEE)) {
       if (mentee.requestMentor(mentor)) {
-        updateUser(mentee);
+        saveBrowsingState(mentee);
         return true;
       }
     }
@@ -359,7 +1004,7 @@ public class DatastoreAccess implements DataAccess {
   }
 
   public Collection<Mentor> getDislikedMentors(Mentee mentee) {
-    if (getMentee(mentee.getDatastoreKey()) == null && getMentee(mentee.getUserID()) == null) {
+    if (!isStoredUser(mentee, UserType.MENTOR)) {
       return new ArrayList<Mentor>();
     }
     return datastoreService
@@ -376,7 +1021,7 @@ public class DatastoreAccess implements DataAccess {
   }
 
   public boolean publishRequest(MentorshipRequest request) {
-    if (getMentorshipRequest(request.getDatastoreKey()) == null) {
+    if (findMentorshipRequest(request) == null) {
       UserAccount toUser = getUser(request.getToUserKey());
       UserAccount fromUser = getUser(request.getFromUserKey());
       if (toUser != null && fromUser != null && toUser.getUserType() != fromUser.getUserType()) {
@@ -410,11 +1055,40 @@ public class DatastoreAccess implements DataAccess {
     }
   }
 
+  /**
+   * Finds the stored MentorshipRequest matching the passed in request without building the request
+   * object. A request between the same two users in either direction counts as a match when the
+   * request was built from the pair of users.
+   *
+   * @return the key of the stored request or null if there is none
+   */
+  private Key findMentorshipRequest(MentorshipRequest request) {
+    Key requestKey =
+        findLink(
+            ParameterConstants.ENTITY_TYPE_MENTORSHIP_REQUEST,
+            request.getDatastoreKey(),
+            ParameterConstants.TO_USER_KEY,
+            request.getToUserKey(),
+            ParameterConstants.FROM_USER_KEY,
+            request.getFromUserKey());
+    if (requestKey == null
+        && isDerivedLinkKey(
+            request.getDatastoreKey(), request.getToUserKey(), request.getFromUserKey())) {
+      requestKey =
+          findLegacyLink(
+              ParameterConstants.ENTITY_TYPE_MENTORSHIP_REQUEST,
+              ParameterConstants.TO_USER_KEY,
+              request.getFromUserKey(),
+              ParameterConstants.FROM_USER_KEY,
+              request.getToUserKey());
+    }
+    return requestKey;
+  }
+
   public boolean deleteRequest(MentorshipRequest request) {
-    if (getMentorshipRequest(request.getDatastoreKey()) != null) {
-      datastoreService.delete(
-          KeyFactory.createKey(
-              ParameterConstants.ENTITY_TYPE_MENTORSHIP_REQUEST, request.getDatastoreKey()));
+    Key requestKey = findMentorshipRequest(request);
+    if (requestKey != null) {
+      datastoreService.delete(requestKey);
       return true;
     }
     return false;
@@ -444,8 +1118,8 @@ public class DatastoreAccess implements DataAccess {
   }
 
   public boolean makeMentorMenteeRelation(long mentorKey, long menteeKey) {
-    if (getMentor(mentorKey) != null
-        && getMentee(menteeKey) != null
+    if (userExists(mentorKey, UserType.MENTEE)
+        && userExists(menteeKey, UserType.MENTOR)
         && !areConnected(mentorKey, menteeKey)) {
       MentorMenteeRelation mentorMenteeRelation = new MentorMenteeRelation(mentorKey, menteeKey);
       datastoreService.put(mentorMenteeRelation.convertToEntity());
@@ -454,69 +1128,171 @@ public class DatastoreAccess implements DataAccess {
     return false;
   }
 
+  /**
+   * Checks for a MentorMenteeRelation between the passed in users. Relation keys are derived from
+   * the pair of users, so this is usually a single key lookup (see findLink).
+   */
   private boolean areConnected(long mentorKey, long menteeKey) {
-    return datastoreService
+    return findRelation(
+            MentorMenteeRelation.datastoreKeyFor(mentorKey, menteeKey), mentorKey, menteeKey)
+        != null;
+  }
+
+  /**
+   * Finds the stored MentorMenteeRelation with the passed in key or between the passed in users.
+   */
+  private Key findRelation(long relationKey, long mentorKey, long menteeKey) {
+    return findLink(
+        ParameterConstants.ENTITY_TYPE_MENTOR_MENTEE_RELATION,
+        relationKey,
+        ParameterConstants.MENTOR_KEY,
+        mentorKey,
+        ParameterConstants.MENTEE_KEY,
+        menteeKey);
+  }
+
+  /**
+   * Finds a stored link (a MentorshipRequest or MentorMenteeRelation) by its key. Links written
+   * before link keys were derived from the pair of users (see MentorMenteeRelation.datastoreKeyFor)
+   * have allocated IDs, so when a link built from the pair of users is not stored under its derived
+   * key, the link is looked up by the keys of its users instead.
+   *
+   * @param entityType the kind of the link
+   * @param linkKey the datastore ID of the link
+   * @param userProperty the property holding the key of one of the users
+   * @param userKey the key of that user
+   * @param otherUserProperty the property holding the key of the other user
+   * @param otherUserKey the key of the other user
+   * @return the key of the stored link or null if there is none
+   */
+  private Key findLink(
+      String entityType,
+      long linkKey,
+      String userProperty,
+      long userKey,
+      String otherUserProperty,
+      long otherUserKey) {
+    if (linkKey != 0) {
+      Key key = KeyFactory.createKey(entityType, linkKey);
+      if (getEntity(key) != null) {
+        return key;
+      }
+    }
+    return isDerivedLinkKey(linkKey, userKey, otherUserKey)
+        ? findLegacyLink(entityType, userProperty, userKey, otherUserProperty, otherUserKey)
+        : null;
+  }
+
+  /** Checks if a link key was derived from the pair of users rather than read from the database. */
+  private static boolean isDerivedLinkKey(long linkKey, long userKey, long otherUserKey) {
+    return linkKey == MentorMenteeRelation.datastoreKeyFor(userKey, otherUserKey);
+  }
+
+  /** Finds a link with an allocated ID by the keys of its users with a keys only query. */
+  private Key findLegacyLink(
+      String entityType,
+      String userProperty,
+      long userKey,
+      String otherUserProperty,
+      long otherUserKey) {
+    List<Entity> links =
+        datastoreService
             .prepare(
-                new Query(ParameterConstants.ENTITY_TYPE_MENTOR_MENTEE_RELATION)
+                new Query(entityType)
+                    .setKeysOnly()
                     .setFilter(
                         Query.CompositeFilterOperator.and(
                             new Query.FilterPredicate(
-                                ParameterConstants.MENTOR_KEY,
-                                Query.FilterOperator.EQUAL,
-                                mentorKey),
+                                userProperty, Query.FilterOperator.EQUAL, userKey),
                             new Query.FilterPredicate(
-                                ParameterConstants.MENTEE_KEY,
-                                Query.FilterOperator.EQUAL,
-                                menteeKey))))
-            .asSingleEntity()
-        != null;
+                                otherUserProperty, Query.FilterOperator.EQUAL, otherUserKey))))
+            .asList(FetchOptions.Builder.withLimit(1));
+    return links.isEmpty() ? null : links.get(0).getKey();
   }
 
   public Collection<MentorMenteeRelation> getMentorMenteeRelations(UserAccount user) {
-    if (getUser(user.getDatastoreKey()) == null) {
+    if (!userExists(user.getDatastoreKey(), null)) {
       return new ArrayList<MentorMenteeRelation>();
     }
-    Query query =
-        new Query(ParameterConstants.ENTITY_TYPE_MENTOR_MENTEE_RELATION)
-            .setFilter(
-                Query.CompositeFilterOperator.or(
-                    new Query.FilterPredicate(
-                        ParameterConstants.MENTOR_KEY,
-                        Query.FilterOperator.EQUAL,
-                        user.getDatastoreKey()),
-                    new Query.FilterPredicate(
-                        ParameterConstants.MENTEE_KEY,
-                        Query.FilterOperator.EQUAL,
-                        user.getDatastoreKey())));
-    PreparedQuery results = datastoreService.prepare(query);
     Collection<MentorMenteeRelation> mentorMenteeRelations =
-        StreamSupport.stream(results.asIterable().spliterator(), false)
-            .map(MentorMenteeRelation::new)
-            .collect(Collectors.toList());
-    mentorMenteeRelations.forEach(
-        mentorMenteeRelation -> {
-          if (user.getUserType() == UserType.MENTOR) {
+        queryMentorMenteeRelations(user.getDatastoreKey(), user.getUserType());
+    populateMentorMenteeRelations(
+        user, mentorMenteeRelations, getUsers(getRelatedUserKeys(user, mentorMenteeRelations)));
+    return mentorMenteeRelations;
+  }
+
+  /** Gets the keys of the users on the other side of the passed in user's relations. */
+  static Set<Long> getRelatedUserKeys(
+      UserAccount user, Collection<MentorMenteeRelation> mentorMenteeRelations) {
+    if (user.getUserType() == UserType.MENTOR) {
+      return mentorMenteeRelations.stream()
+          .map(MentorMenteeRelation::getMenteeKey)
+          .collect(Collectors.toSet());
+    } else if (user.getUserType() == UserType.MENTEE) {
+      return mentorMenteeRelations.stream()
+          .map(MentorMenteeRelation::getMentorKey)
+          .collect(Collectors.toSet());
+    }
+    return new HashSet<>();
+  }
+
+  /**
+   * Fills in the Mentor and Mentee objects of the passed in user's relations. Relations with users
+   * that are no longer stored (e.g. deleted users waiting for completeUserDeletion) are dropped.
+   *
+   * @param user the user that is part of every relation
+   * @param mentorMenteeRelations the relations to fill in
+   * @param relatedUsers the users on the other side of the relations, keyed by datastore key
+   */
+  static void populateMentorMenteeRelations(
+      UserAccount user,
+      Collection<MentorMenteeRelation> mentorMenteeRelations,
+      Map<Long, UserAccount> relatedUsers) {
+    mentorMenteeRelations.removeIf(
+        relation ->
+            !relatedUsers.containsKey(
+                user.getUserType() == UserType.MENTOR
+                    ? relation.getMenteeKey()
+                    : relation.getMentorKey()));
+    if (user.getUserType() == UserType.MENTOR) {
+      mentorMenteeRelations.forEach(
+          mentorMenteeRelation -> {
+            UserAccount mentee = relatedUsers.get(mentorMenteeRelation.getMenteeKey());
             mentorMenteeRelation.setMentor((Mentor) user);
-            mentorMenteeRelation.setMentee(getMentee(mentorMenteeRelation.getMenteeKey()));
-          } else if (user.getUserType() == UserType.MENTEE) {
+            mentorMenteeRelation.setMentee(
+                mentee == null || mentee.getUserType() == UserType.MENTOR ? null : (Mentee) mentee);
+          });
+    } else if (user.getUserType() == UserType.MENTEE) {
+      mentorMenteeRelations.forEach(
+          mentorMenteeRelation -> {
+            UserAccount mentor = relatedUsers.get(mentorMenteeRelation.getMentorKey());
             mentorMenteeRelation.setMentee((Mentee) user);
-            mentorMenteeRelation.setMentor(getMentor(mentorMenteeRelation.getMentorKey()));
-          }
-        });
-    return mentorMenteeRelations;
+            mentorMenteeRelation.setMentor(
+                mentor == null || mentor.getUserType() == UserType.MENTEE ? null : (Mentor) mentor);
+          });
+    }
+  }
+
+  /**
+   * Queries for the MentorMenteeRelations that the passed in user is a part of on the passed in
+   * side. The returned relations do not have their Mentor and Mentee objects populated.
+   *
+   * @param userKey the datastore key of the user
+   * @param userType the side of the relations the user is on (null to query both sides)
+   */
+  private Collection<MentorMenteeRelation> queryMentorMenteeRelations(
+      long userKey, UserType userType) {
+    return MentorMenteeRelationQueries.run(datastoreService, userKey, userType);
   }
 
   public boolean deleteMentorMenteeRelation(MentorMenteeRelation relation) {
-    try {
-      Key relationKey =
-          KeyFactory.createKey(
-              ParameterConstants.ENTITY_TYPE_MENTOR_MENTEE_RELATION, relation.getDatastoreKey());
-      datastoreService.get(relationKey);
+    Key relationKey =
+        findRelation(relation.getDatastoreKey(), relation.getMentorKey(), relation.getMenteeKey());
+    if (relationKey != null) {
       datastoreService.delete(relationKey);
       return true;
-    } catch (Exception e) {
-      return false;
     }
+    return false;
   }
 
   public Map<String, List<BlobKey>> getBlobUploads(HttpServletRequest request) {
@@ -539,19 +1315,59 @@ public class DatastoreAccess implements DataAccess {
     if (blobKeyString == null) {
       return;
     }
+    if (taskQueue != null) {
+      taskQueue.enqueue(
+          BlobDeletionTask.NAME_PREFIX + blobKeyString, new BlobDeletionTask(blobKeyString));
+      return;
+    }
     BlobKey blobKey = new BlobKey(blobKeyString);
     blobstoreService.delete(blobKey);
   }
 
+  /** Runs completeUserDeletion for a user that deleteUser tombstoned. */
+  private static final class UserDeletionTask implements DeferredTask {
+    private static final long serialVersionUID = 1L;
+    private static final String NAME_PREFIX = "delete-user-";
+
+    private final long datastoreKey;
+
+    private UserDeletionTask(long datastoreKey) {
+      this.datastoreKey = datastoreKey;
+    }
+
+    public void run() {
+      new DatastoreAccess().completeUserDeletion(datastoreKey);
+    }
+  }
+
+  /** Deletes a blob that is no longer referenced by any user. */
+  private static final class BlobDeletionTask implements DeferredTask {
+    private static final long serialVersionUID = 1L;
+    private static final String NAME_PREFIX = "delete-blob-";
+
+    private final String blobKeyString;
+
+    private BlobDeletionTask(String blobKeyString) {
+      this.blobKeyString = blobKeyString;
+    }
+
+    public void run() {
+      BlobstoreServiceFactory.getBlobstoreService().delete(new BlobKey(blobKeyString));
+    }
+  }
+
   public static Builder newBuilder() {
     return new Builder();
   }
 
   public static class Builder {
-    private static UserService userService;
-    private static DatastoreService datastoreService;
-    private static BlobstoreService blobstoreService;
-    private static BlobInfoFactory blobInfoFactory;
+    private UserService userService;
+    private DatastoreService datastoreService;
+    private BlobstoreService blobstoreService;
+    private BlobInfoFactory blobInfoFactory;
+    private UserAccountCache userCache;
+    private MenteeStateBuffer menteeStateBuffer;
+    private TaskQueue taskQueue;
 
     public Builder userService(UserService userService) {
       this.userService = userService;
@@ -573,6 +1389,33 @@ public class DatastoreAccess implements DataAccess {
       return this;
     }
 
+    /**
+     * Sets the cache to read users through. DatastoreAccess objects made with the builder do not
+     * cache users unless one is set.
+     */
+    public Builder userCache(UserAccountCache userCache) {
+      this.userCache = userCache;
+      return this;
+    }
+
+    /**
+     * Sets the buffer that holds mentee browsing state until it is flushed. DatastoreAccess objects
+     * made with the builder write browsing state right away unless one is set.
+     */
+    public Builder menteeStateBuffer(MenteeStateBuffer menteeStateBuffer) {
+      this.menteeStateBuffer = menteeStateBuffer;
+      return this;
+    }
+
+    /**
+     * Sets the queue that runs heavy work in the background. DatastoreAccess objects made with the
+     * builder do that work before returning unless one is set.
+     */
+    public Builder taskQueue(TaskQueue taskQueue) {
+      this.taskQueue = taskQueue;
+      return this;
+    }
+
     public DatastoreAccess build() {
       return new DatastoreAccess(this);
     }
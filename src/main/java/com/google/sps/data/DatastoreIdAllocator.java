@@ -0,0 +1,148 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.KeyRange;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class hands out datastore IDs for new entities without a blocking allocateIds call per
+ * entity. IDs are reserved from the database in blocks of BLOCK_SIZE for each entity kind and
+ * handed out with an atomic counter. Once only LOW_WATERMARK IDs remain in a block, the next block
+ * is requested with an asynchronous call so that it has usually arrived by the time it is needed.
+ * IDs that are reserved but never used are simply skipped, which the datastore allows. Only one
+ * thread swaps in the next block; other threads that run out at the same time wait for it.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class DatastoreIdAllocator {
+  public static final int BLOCK_SIZE = 64;
+  public static final int LOW_WATERMARK = 16;
+
+  private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<>();
+
+  private DatastoreIdAllocator() {}
+
+  private static class Holder {
+    private static final DatastoreIdAllocator INSTANCE = new DatastoreIdAllocator();
+  }
+
+  public static DatastoreIdAllocator getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * Gets an unused datastore ID for a new entity of the passed in kind. This only blocks on the
+   * database when no reserved IDs are left and no block has been requested ahead of time.
+   *
+   * @param kind the entity kind to allocate an ID for
+   * @return an ID that has been reserved for the kind and not handed out before
+   */
+  public long nextId(String kind) {
+    return pools.computeIfAbsent(kind, Pool::new).nextId();
+  }
+
+  /** Drops every reserved block so that the next IDs are allocated from the current database. */
+  public void clear() {
+    pools.clear();
+  }
+
+  /** A contiguous range of reserved IDs. The counter may run past the end once it is used up. */
+  private static final class Block {
+    private static final Block EMPTY = new Block(1, 0);
+
+    private final AtomicLong next;
+    private final long end;
+
+    private Block(long start, long end) {
+      this.next = new AtomicLong(start);
+      this.end = end;
+    }
+
+    private Block(KeyRange keyRange) {
+      this(keyRange.getStart().getId(), keyRange.getEnd().getId());
+    }
+  }
+
+  /** The reserved IDs for a single entity kind. */
+  private static final class Pool {
+    private final String kind;
+    private final AtomicReference<Block> current = new AtomicReference<>(Block.EMPTY);
+    private final AtomicReference<Future<KeyRange>> prefetched = new AtomicReference<>();
+
+    private Pool(String kind) {
+      this.kind = kind;
+    }
+
+    private long nextId() {
+      while (true) {
+        Block block = current.get();
+        long id = block.next.getAndIncrement();
+        if (id <= block.end) {
+          if (block.end - id == LOW_WATERMARK) {
+            prefetch();
+          }
+          return id;
+        }
+        replaceUsedUpBlock(block);
+      }
+    }
+
+    /**
+     * Swaps in the next block if the used up block is still the current one. Only one thread takes
+     * the next block at a time; threads that ran out at the same time wait here and then retry on
+     * the block it put in place, so no reserved block is thrown away.
+     */
+    private synchronized void replaceUsedUpBlock(Block usedUp) {
+      if (current.get() == usedUp) {
+        current.set(takeNextBlock());
+      }
+    }
+
+    /** Requests the next block in the background unless a request is already outstanding. */
+    private void prefetch() {
+      if (prefetched.get() == null) {
+        Future<KeyRange> keyRange =
+            DatastoreServiceFactory.getAsyncDatastoreService().allocateIds(kind, BLOCK_SIZE);
+        prefetched.compareAndSet(null, keyRange);
+      }
+    }
+
+    /**
+     * Gets the block that was requested ahead of time, falling back to a blocking allocation if
+     * there is none or the request failed.
+     */
+    private Block takeNextBlock() {
+      Future<KeyRange> keyRange = prefetched.getAndSet(null);
+      if (keyRange != null) {
+        try {
+          return new Block(keyRange.get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          // the blocking allocation below reports the failure if the database is unavailable
+        }
+      }
+      return new Block(DatastoreServiceFactory.getDatastoreService().allocateIds(kind, BLOCK_SIZE));
+    }
+  }
+}
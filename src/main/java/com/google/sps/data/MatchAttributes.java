@@ -0,0 +1,186 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.util.ParameterConstants;
+import com.google.sps.util.ServletUtils;
+import java.util.Collection;
+
+/**
+ * This class packs the attributes of a user that are used for mentor matching into a single long so
+ * that similarity scores can be computed with a handful of bitwise operations instead of walking
+ * object graphs. Each attribute is stored as a fixed-width bit field (from least to most
+ * significant): gender, timezone, country, education level, first gen, low income, and a bitmask of
+ * topics. Mentors store their focus topics in the topic mask and mentees store their goal.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class MatchAttributes {
+  private static final int GENDER_SHIFT = 0;
+  private static final int TIMEZONE_SHIFT = GENDER_SHIFT + bitsFor(Gender.values().length);
+  private static final int COUNTRY_SHIFT = TIMEZONE_SHIFT + bitsFor(TimeZone.values().length);
+  private static final int EDUCATION_LEVEL_SHIFT = COUNTRY_SHIFT + bitsFor(Country.values().length);
+  private static final int FIRST_GEN_SHIFT =
+      EDUCATION_LEVEL_SHIFT + bitsFor(EducationLevel.values().length);
+  private static final int LOW_INCOME_SHIFT = FIRST_GEN_SHIFT + 1;
+  private static final int TOPIC_SHIFT = LOW_INCOME_SHIFT + 1;
+
+  private static final long GENDER_MASK = fieldMask(GENDER_SHIFT, TIMEZONE_SHIFT);
+  private static final long TIMEZONE_MASK = fieldMask(TIMEZONE_SHIFT, COUNTRY_SHIFT);
+  private static final long COUNTRY_MASK = fieldMask(COUNTRY_SHIFT, EDUCATION_LEVEL_SHIFT);
+  private static final long EDUCATION_LEVEL_MASK =
+      fieldMask(EDUCATION_LEVEL_SHIFT, FIRST_GEN_SHIFT);
+  private static final long FIRST_GEN_MASK = 1L << FIRST_GEN_SHIFT;
+  private static final long LOW_INCOME_MASK = 1L << LOW_INCOME_SHIFT;
+  private static final long TOPIC_MASK =
+      fieldMask(TOPIC_SHIFT, TOPIC_SHIFT + Topic.values().length);
+
+  static {
+    if (TOPIC_SHIFT + Topic.values().length > Long.SIZE) {
+      throw new IllegalStateException("Match attributes do not fit in a long");
+    }
+  }
+
+  private MatchAttributes() {}
+
+  /**
+   * Packs the matching attributes of a mentor.
+   *
+   * @param mentor the Mentor to pack
+   * @return the packed attributes, with the mentor's focus topics in the topic mask
+   */
+  public static long pack(Mentor mentor) {
+    long attributes = packUser(mentor);
+    for (Topic focus : mentor.getFocusList()) {
+      attributes |= topicBit(focus);
+    }
+    return attributes;
+  }
+
+  /**
+   * Packs the matching attributes of a mentee.
+   *
+   * @param mentee the Mentee to pack
+   * @return the packed attributes, with the mentee's goal in the topic mask
+   */
+  public static long pack(Mentee mentee) {
+    return packUser(mentee) | (mentee.getGoal() == null ? 0 : topicBit(mentee.getGoal()));
+  }
+
+  /**
+   * Packs the matching attributes of a mentor directly from its database entity without decoding
+   * the rest of the entity.
+   *
+   * @param entity the Mentor entity to pack
+   * @return the packed attributes, with the mentor's focus topics in the topic mask
+   */
+  public static long packMentorEntity(Entity entity) {
+    long attributes =
+        pack(
+            Gender.valueOf((String) entity.getProperty(ParameterConstants.GENDER)),
+            TimeZone.valueOf((String) entity.getProperty(ParameterConstants.TIMEZONE)),
+            Country.valueOf((String) entity.getProperty(ParameterConstants.COUNTRY)),
+            EducationLevel.valueOf((String) entity.getProperty(ParameterConstants.EDUCATION_LEVEL)),
+            (boolean) entity.getProperty(ParameterConstants.FIRST_GEN),
+            (boolean) entity.getProperty(ParameterConstants.LOW_INCOME));
+    Collection<Object> focusList =
+        (Collection<Object>) entity.getProperty(ParameterConstants.MENTOR_FOCUS_LIST);
+    if (focusList != null) {
+      for (Object focus : focusList) {
+        attributes |= topicBit(Topic.valueOf((String) focus));
+      }
+    }
+    return attributes;
+  }
+
+  /**
+   * Scores how well a mentor suits a mentee. This gives the same result as
+   * Mentee.similarityWithMentor.
+   *
+   * @param mentee the packed attributes of the mentee
+   * @param mentor the packed attributes of the mentor
+   * @return the similarity score
+   */
+  public static int scoreForMentee(long mentee, long mentor) {
+    long difference = mentee ^ mentor;
+    int result = 0;
+    if ((mentee & mentor & TOPIC_MASK) != 0) result += ServletUtils.SIMILARITY_SCORE_HIGH;
+    if ((mentor & EDUCATION_LEVEL_MASK) > (mentee & EDUCATION_LEVEL_MASK))
+      result += ServletUtils.SIMILARITY_SCORE_HIGH;
+    if ((difference & GENDER_MASK) == 0) result += ServletUtils.SIMILARITY_SCORE_HIGH;
+    if ((difference & TIMEZONE_MASK) == 0 || (difference & COUNTRY_MASK) == 0)
+      result += ServletUtils.SIMILARITY_SCORE_LOW;
+    if ((difference & FIRST_GEN_MASK) == 0) result += ServletUtils.SIMILARITY_SCORE_LOW;
+    return result;
+  }
+
+  /**
+   * Scores how similar two mentors are. This gives the same result as Mentor.similarity.
+   *
+   * @param mentor the packed attributes of the first mentor
+   * @param other the packed attributes of the second mentor
+   * @return the similarity score
+   */
+  public static int scoreBetweenMentors(long mentor, long other) {
+    long difference = mentor ^ other;
+    int result = 0;
+    if ((difference & TIMEZONE_MASK) == 0 || (difference & COUNTRY_MASK) == 0)
+      result += ServletUtils.SIMILARITY_SCORE_HIGH;
+    if ((difference & GENDER_MASK) == 0) result += ServletUtils.SIMILARITY_SCORE_HIGH;
+    if ((difference & FIRST_GEN_MASK) == 0) result += ServletUtils.SIMILARITY_SCORE_HIGH;
+    if ((difference & LOW_INCOME_MASK) == 0) result += ServletUtils.SIMILARITY_SCORE_LOW;
+    if ((difference & EDUCATION_LEVEL_MASK) == 0) result += ServletUtils.SIMILARITY_SCORE_LOW;
+    return result;
+  }
+
+  private static long packUser(UserAccount user) {
+    return pack(
+        user.getGender(),
+        user.getTimezone(),
+        user.getCountry(),
+        user.getEducationLevel(),
+        user.isFirstGen(),
+        user.isLowIncome());
+  }
+
+  private static long pack(
+      Gender gender,
+      TimeZone timezone,
+      Country country,
+      EducationLevel educationLevel,
+      boolean firstGen,
+      boolean lowIncome) {
+    return ((long) gender.ordinal() << GENDER_SHIFT)
+        | ((long) timezone.ordinal() << TIMEZONE_SHIFT)
+        | ((long) country.ordinal() << COUNTRY_SHIFT)
+        | ((long) educationLevel.ordinal() << EDUCATION_LEVEL_SHIFT)
+        | (firstGen ? FIRST_GEN_MASK : 0)
+        | (lowIncome ? LOW_INCOME_MASK : 0);
+  }
+
+  private static long topicBit(Topic topic) {
+    return 1L << (TOPIC_SHIFT + topic.ordinal());
+  }
+
+  private static int bitsFor(int valueCount) {
+    return Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(valueCount - 1));
+  }
+
+  private static long fieldMask(int fromShift, int toShift) {
+    return ((1L << (toShift - fromShift)) - 1) << fromShift;
+  }
+}
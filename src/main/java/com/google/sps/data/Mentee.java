@@ -16,13 +16,13 @@ package com.google.sps.data;
 
 import com.google.appengine.api.datastore.Entity;
 import com.google.sps.util.ParameterConstants;
-import com.google.sps.util.ServletUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
 
 /**
  * This class represents a Mentee user and their mentee-specific data. Other data is held within the
@@ -34,11 +34,38 @@ import java.util.stream.Collectors;
  * @version 1.0
  */
 public class Mentee extends UserAccount implements DatastoreEntity {
+  /**
+   * The properties that change while the mentee browses mentors. They can be written separately
+   * from the rest of the profile (see MenteeStateBuffer).
+   */
+  public static final Set<String> BROWSING_STATE_PROPERTIES =
+      Collections.unmodifiableSet(
+          new HashSet<>(
+              Arrays.asList(
+                  ParameterConstants.MENTEE_DISLIKED_MENTOR_KEYS,
+                  ParameterConstants.MENTEE_SERVED_MENTOR_KEYS,
+                  ParameterConstants.MENTEE_LAST_DISLIKED_MENTOR_KEY,
+                  ParameterConstants.MENTEE_LAST_REQUESTED_MENTOR_KEY,
+                  ParameterConstants.ENCODED_CURSOR)));
+
+  /**
+   * The browsing state properties that only steer recommendations, so losing their latest changes
+   * costs nothing worse than a mentor being served again. Only these are held in the
+   * MenteeStateBuffer; disliked mentors are always written right away.
+   */
+  public static final Set<String> BUFFERED_BROWSING_STATE_PROPERTIES =
+      Collections.unmodifiableSet(
+          new HashSet<>(
+              Arrays.asList(
+                  ParameterConstants.MENTEE_SERVED_MENTOR_KEYS,
+                  ParameterConstants.MENTEE_LAST_DISLIKED_MENTOR_KEY,
+                  ParameterConstants.MENTEE_LAST_REQUESTED_MENTOR_KEY,
+                  ParameterConstants.ENCODED_CURSOR)));
 
   private Topic goal;
   private MeetingFrequency desiredMeetingFrequency;
-  private Set<Long> dislikedMentorKeys;
-  private SortedSet<Long> servedMentorKeys;
+  private MentorKeySet dislikedMentorKeys;
+  private ServedMentorWindow servedMentors;
   private String encodedCursor;
   private Long lastRequestedMentorKey;
   private Long lastDislikedMentorKey;
@@ -49,9 +76,13 @@ public class Mentee extends UserAccount implements DatastoreEntity {
     super(builder);
     this.goal = builder.goal;
     this.desiredMeetingFrequency = builder.desiredMeetingFrequency;
-    this.dislikedMentorKeys = builder.dislikedMentorKeys;
+    this.dislikedMentorKeys = MentorKeySet.copyOf(builder.dislikedMentorKeys);
     this.desiredMentorType = builder.desiredMentorType;
-    this.servedMentorKeys = builder.servedMentorKeys;
+    if (builder.servedMentorKeys != null) {
+      long nowMillis = System.currentTimeMillis();
+      this.servedMentors = new ServedMentorWindow();
+      builder.servedMentorKeys.forEach(mentorKey -> servedMentors.add(mentorKey, nowMillis));
+    }
     this.lastRequestedMentorKey = builder.lastRequestedMentorKey;
     this.lastDislikedMentorKey = builder.lastDislikedMentorKey;
     this.encodedCursor = encodedCursor;
@@ -65,14 +96,15 @@ public class Mentee extends UserAccount implements DatastoreEntity {
         MeetingFrequency.valueOf(
             (String) entity.getProperty(ParameterConstants.MENTEE_DESIRED_MEETING_FREQUENCY));
     this.dislikedMentorKeys =
-        getDislikedSetFromProperty(
-            (Collection) entity.getProperty(ParameterConstants.MENTEE_DISLIKED_MENTOR_KEYS));
+        MentorKeySet.fromProperty(
+            entity.getProperty(ParameterConstants.MENTEE_DISLIKED_MENTOR_KEYS));
     this.desiredMentorType =
         MentorType.valueOf(
             (String) entity.getProperty(ParameterConstants.MENTEE_DESIRED_MENTOR_TYPE));
-    this.servedMentorKeys =
-        getServedSetFromProperty(
-            (Collection) entity.getProperty(ParameterConstants.MENTEE_SERVED_MENTOR_KEYS));
+    this.servedMentors =
+        ServedMentorWindow.fromProperty(
+            entity.getProperty(ParameterConstants.MENTEE_SERVED_MENTOR_KEYS),
+            System.currentTimeMillis());
     this.lastRequestedMentorKey =
         getLongFromProperty(
             entity.getProperty(ParameterConstants.MENTEE_LAST_REQUESTED_MENTOR_KEY));
@@ -88,13 +120,13 @@ public class Mentee extends UserAccount implements DatastoreEntity {
   protected void sanitizeValues() {
     super.sanitizeValues();
     if (this.dislikedMentorKeys == null) {
-      this.dislikedMentorKeys = new HashSet<>();
+      this.dislikedMentorKeys = new MentorKeySet();
     }
     if (this.encodedCursor == null) {
       this.encodedCursor = "";
     }
-    if (this.servedMentorKeys == null) {
-      this.servedMentorKeys = new TreeSet<>();
+    if (this.servedMentors == null) {
+      this.servedMentors = new ServedMentorWindow();
     }
     if (this.lastRequestedMentorKey == null) {
       this.lastRequestedMentorKey = new Long(0);
@@ -109,43 +141,21 @@ public class Mentee extends UserAccount implements DatastoreEntity {
     entity.setProperty(ParameterConstants.MENTEE_GOAL, goal.name());
     entity.setProperty(
         ParameterConstants.MENTEE_DESIRED_MEETING_FREQUENCY, desiredMeetingFrequency.name());
-    entity.setProperty(ParameterConstants.MENTEE_DISLIKED_MENTOR_KEYS, this.dislikedMentorKeys);
     entity.setProperty(ParameterConstants.MENTEE_DESIRED_MENTOR_TYPE, desiredMentorType.name());
-    entity.setProperty(ParameterConstants.MENTEE_SERVED_MENTOR_KEYS, this.servedMentorKeys);
-    entity.setProperty(
+    // the browsing state below changes on almost every page of recommendations and is never
+    // queried, so it is left out of the indexes to keep those writes cheap
+    entity.setUnindexedProperty(
+        ParameterConstants.MENTEE_DISLIKED_MENTOR_KEYS, this.dislikedMentorKeys.toProperty());
+    entity.setUnindexedProperty(
+        ParameterConstants.MENTEE_SERVED_MENTOR_KEYS, this.servedMentors.toProperty());
+    entity.setUnindexedProperty(
         ParameterConstants.MENTEE_LAST_DISLIKED_MENTOR_KEY, this.lastDislikedMentorKey);
-    entity.setProperty(
+    entity.setUnindexedProperty(
         ParameterConstants.MENTEE_LAST_REQUESTED_MENTOR_KEY, this.lastRequestedMentorKey);
-    entity.setProperty(ParameterConstants.ENCODED_CURSOR, this.encodedCursor);
+    entity.setUnindexedProperty(ParameterConstants.ENCODED_CURSOR, this.encodedCursor);
     return entity;
   }
 
-  /**
-   * converts the list retrieved from datastore to a list of usable long values
-   *
-   * @param dislikedMentorKeyList the list of objects from datastore
-   * @return the list of long values
-   */
-  private static Set<Long> getDislikedSetFromProperty(Collection<Object> dislikedMentorKeyList) {
-    return dislikedMentorKeyList == null
-        ? new HashSet<Long>()
-        : (Set<Long>)
-            dislikedMentorKeyList.stream().map(key -> (long) key).collect(Collectors.toSet());
-  }
-
-  /**
-   * @param servedMentorKeyList the list of served mentor key objects from datastore
-   * @return the sorted set of long values
-   */
-  private static SortedSet<Long> getServedSetFromProperty(Collection<Object> servedMentorKeyList) {
-    return servedMentorKeyList == null
-        ? new TreeSet<Long>()
-        : (SortedSet<Long>)
-            servedMentorKeyList.stream()
-                .map(key -> (long) key)
-                .collect(Collectors.toCollection(TreeSet::new));
-  }
-
   /**
    * Safe wrapper for getting long value from an entity
    *
@@ -165,6 +175,70 @@ public class Mentee extends UserAccount implements DatastoreEntity {
   private static String getStringFromProperty(Object stringProperty) {
     return stringProperty == null ? "" : (String) stringProperty;
   }
+
+  /**
+   * Merges a browsing state property that is being written into the value that was stored by
+   * another request in the meantime. Mentors that were disliked or served in either value are kept,
+   * and every other property takes the value being written. Once every property is merged,
+   * removeDislikedFromServedMentors must be applied to the entity.
+   *
+   * @param property the name of the browsing state property
+   * @param storedValue the value currently in the database (can be null)
+   * @param newValue the value being written
+   * @return the value to write
+   */
+  static Object mergeBrowsingState(String property, Object storedValue, Object newValue) {
+    if (storedValue == null || newValue == null) {
+      return newValue;
+    }
+    if (property.equals(ParameterConstants.MENTEE_DISLIKED_MENTOR_KEYS)) {
+      MentorKeySet dislikedMentorKeys = MentorKeySet.fromProperty(storedValue);
+      MentorKeySet.fromProperty(newValue).forEachKey(dislikedMentorKeys::add);
+      return dislikedMentorKeys.toProperty();
+    }
+    if (property.equals(ParameterConstants.MENTEE_SERVED_MENTOR_KEYS)) {
+      long nowMillis = System.currentTimeMillis();
+      return ServedMentorWindow.merge(
+              ServedMentorWindow.fromProperty(newValue, nowMillis),
+              ServedMentorWindow.fromProperty(storedValue, nowMillis))
+          .toProperty();
+    }
+    return newValue;
+  }
+
+  /**
+   * Removes the mentors that the mentee disliked from the served window in a user entity. Merging
+   * takes the union of two served windows, which would otherwise bring back a mentor that one of
+   * the writes removed from its window when the mentor was disliked.
+   *
+   * @param entity a mentee entity that browsing state was merged into
+   */
+  static void removeDislikedFromServedMentors(Entity entity) {
+    Object servedMentorsProperty = entity.getProperty(ParameterConstants.MENTEE_SERVED_MENTOR_KEYS);
+    MentorKeySet dislikedMentorKeys =
+        MentorKeySet.fromProperty(
+            entity.getProperty(ParameterConstants.MENTEE_DISLIKED_MENTOR_KEYS));
+    if (servedMentorsProperty == null || dislikedMentorKeys.isEmpty()) {
+      return;
+    }
+    long nowMillis = System.currentTimeMillis();
+    ServedMentorWindow servedMentors =
+        ServedMentorWindow.fromProperty(servedMentorsProperty, nowMillis);
+    List<Long> dislikedServedMentorKeys = new ArrayList<>();
+    servedMentors.forEachKey(
+        nowMillis,
+        mentorKey -> {
+          if (dislikedMentorKeys.contains(mentorKey)) {
+            dislikedServedMentorKeys.add(mentorKey);
+          }
+        });
+    if (!dislikedServedMentorKeys.isEmpty()) {
+      dislikedServedMentorKeys.forEach(servedMentors::remove);
+      entity.setUnindexedProperty(
+          ParameterConstants.MENTEE_SERVED_MENTOR_KEYS, servedMentors.toProperty());
+    }
+  }
+
   /**
    * adds a mentor's key to the list of keys for mentors that the mentee does not want to work with
    * updates lastDislikedMentorKey for recommendation ranking
@@ -173,9 +247,19 @@ public class Mentee extends UserAccount implements DatastoreEntity {
    * @return boolean of whether or not the mentor was added (false if already disliked)
    */
   public boolean dislikeMentor(Mentor mentor) {
-    lastDislikedMentorKey = mentor.getDatastoreKey();
-    servedMentorKeys.remove(mentor.getDatastoreKey());
-    return dislikedMentorKeys.add(mentor.getDatastoreKey());
+    lastDislikedMentorKey =
+        updated(
+            ParameterConstants.MENTEE_LAST_DISLIKED_MENTOR_KEY,
+            lastDislikedMentorKey,
+            mentor.getDatastoreKey());
+    if (servedMentors.remove(mentor.getDatastoreKey())) {
+      markDirty(ParameterConstants.MENTEE_SERVED_MENTOR_KEYS);
+    }
+    if (dislikedMentorKeys.add(mentor.getDatastoreKey())) {
+      markDirty(ParameterConstants.MENTEE_DISLIKED_MENTOR_KEYS);
+      return true;
+    }
+    return false;
   }
 
   /**
@@ -186,12 +270,34 @@ public class Mentee extends UserAccount implements DatastoreEntity {
    * @return boolean of whether or not the mentor was added
    */
   public boolean requestMentor(Mentor mentor) {
-    lastRequestedMentorKey = mentor.getDatastoreKey();
-    return servedMentorKeys.remove(mentor.getDatastoreKey());
+    lastRequestedMentorKey =
+        updated(
+            ParameterConstants.MENTEE_LAST_REQUESTED_MENTOR_KEY,
+            lastRequestedMentorKey,
+            mentor.getDatastoreKey());
+    if (servedMentors.remove(mentor.getDatastoreKey())) {
+      markDirty(ParameterConstants.MENTEE_SERVED_MENTOR_KEYS);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * records that a mentor was served to the mentee so that they are not recommended again until
+   * they fall out of the served window
+   *
+   * @param servedMentorKey the datastore key of the served mentor
+   * @return boolean of whether or not the mentor was not in the served window yet
+   */
+  public boolean saveServedMentorKey(long servedMentorKey) {
+    markDirty(ParameterConstants.MENTEE_SERVED_MENTOR_KEYS);
+    return servedMentors.add(servedMentorKey, System.currentTimeMillis());
   }
 
-  public boolean saveServedMentorKey(Long servedMentorKey) {
-    return servedMentorKeys.add(servedMentorKey);
+  /** empties the served window so that every mentor can be recommended again */
+  void clearServedMentors() {
+    markDirty(ParameterConstants.MENTEE_SERVED_MENTOR_KEYS);
+    servedMentors.clear();
   }
 
   @Override
@@ -199,18 +305,44 @@ public class Mentee extends UserAccount implements DatastoreEntity {
     super.copyProfileData(contentUser);
     if (contentUser instanceof Mentee) {
       Mentee contentMentee = (Mentee) contentUser;
-      this.goal = contentMentee.goal;
-      this.desiredMeetingFrequency = contentMentee.desiredMeetingFrequency;
-      this.desiredMentorType = contentMentee.desiredMentorType;
+      this.goal = updated(ParameterConstants.MENTEE_GOAL, this.goal, contentMentee.goal);
+      this.desiredMeetingFrequency =
+          updated(
+              ParameterConstants.MENTEE_DESIRED_MEETING_FREQUENCY,
+              this.desiredMeetingFrequency,
+              contentMentee.desiredMeetingFrequency);
+      this.desiredMentorType =
+          updated(
+              ParameterConstants.MENTEE_DESIRED_MENTOR_TYPE,
+              this.desiredMentorType,
+              contentMentee.desiredMentorType);
     }
   }
 
   protected void copyKeyData(Mentee oldMentee) {
-    this.dislikedMentorKeys = oldMentee.getDislikedMentorKeys();
-    this.servedMentorKeys = oldMentee.getServedMentorKeys();
-    this.encodedCursor = oldMentee.getEncodedCursor();
-    this.lastRequestedMentorKey = oldMentee.getLastRequestedMentorKey();
-    this.lastDislikedMentorKey = oldMentee.getLastDislikedMentorKey();
+    this.dislikedMentorKeys =
+        updated(
+            ParameterConstants.MENTEE_DISLIKED_MENTOR_KEYS,
+            this.dislikedMentorKeys,
+            MentorKeySet.copyOf(oldMentee.getDislikedMentorKeys()));
+    this.servedMentors =
+        updated(
+            ParameterConstants.MENTEE_SERVED_MENTOR_KEYS,
+            this.servedMentors,
+            oldMentee.getServedMentors());
+    this.encodedCursor =
+        updated(
+            ParameterConstants.ENCODED_CURSOR, this.encodedCursor, oldMentee.getEncodedCursor());
+    this.lastRequestedMentorKey =
+        updated(
+            ParameterConstants.MENTEE_LAST_REQUESTED_MENTOR_KEY,
+            this.lastRequestedMentorKey,
+            oldMentee.getLastRequestedMentorKey());
+    this.lastDislikedMentorKey =
+        updated(
+            ParameterConstants.MENTEE_LAST_DISLIKED_MENTOR_KEY,
+            this.lastDislikedMentorKey,
+            oldMentee.getLastDislikedMentorKey());
   }
 
   @Override
@@ -234,12 +366,29 @@ public class Mentee extends UserAccount implements DatastoreEntity {
     return desiredMeetingFrequency;
   }
 
-  public Set<Long> getDislikedMentorKeys() {
+  public MentorKeySet getDislikedMentorKeys() {
     return this.dislikedMentorKeys;
   }
 
-  public SortedSet<Long> getServedMentorKeys() {
-    return this.servedMentorKeys;
+  /**
+   * Gets the keys of the mentors that were recently served to the mentee. Changing the returned set
+   * does not change the mentee (see getServedMentors).
+   *
+   * @return a new set with the keys in the served window
+   */
+  public MentorKeySet getServedMentorKeys() {
+    return servedMentors.toKeySet(System.currentTimeMillis());
+  }
+
+  /**
+   * Gets the mentors that were recently served to the mentee. The returned window is a copy, so
+   * changes to the served mentors have to go through saveServedMentorKey, dislikeMentor or
+   * requestMentor to be saved with the mentee.
+   *
+   * @return a copy of the served window
+   */
+  public ServedMentorWindow getServedMentors() {
+    return servedMentors.copy();
   }
 
   public Long getLastRequestedMentorKey() {
@@ -255,28 +404,20 @@ public class Mentee extends UserAccount implements DatastoreEntity {
   }
 
   public boolean setEncodedCursor(String newCursor) {
-    encodedCursor = newCursor;
+    encodedCursor = updated(ParameterConstants.ENCODED_CURSOR, encodedCursor, newCursor);
     return (encodedCursor == newCursor);
   }
 
   public int similarityWithMentor(Mentor mentor) {
-    int result = 0;
-    if (mentor.getFocusList().contains(goal)) result += ServletUtils.SIMILARITY_SCORE_HIGH;
-    if (mentor.getEducationLevel().ordinal() > super.getEducationLevel().ordinal())
-      result += ServletUtils.SIMILARITY_SCORE_HIGH;
-    if (mentor.getGender() == super.getGender()) result += ServletUtils.SIMILARITY_SCORE_HIGH;
-    if (mentor.getTimezone() == super.getTimezone() || mentor.getCountry() == super.getCountry())
-      result += ServletUtils.SIMILARITY_SCORE_LOW;
-    if (mentor.isFirstGen() == super.isFirstGen()) result += ServletUtils.SIMILARITY_SCORE_LOW;
-    return result;
+    return MatchAttributes.scoreForMentee(MatchAttributes.pack(this), MatchAttributes.pack(mentor));
   }
 
   public static class Builder extends UserAccount.Builder<Builder> {
     private Topic goal;
     private MeetingFrequency desiredMeetingFrequency;
-    private Set<Long> dislikedMentorKeys;
+    private Collection<Long> dislikedMentorKeys;
     private MentorType desiredMentorType;
-    private SortedSet<Long> servedMentorKeys;
+    private Collection<Long> servedMentorKeys;
     private Long lastDislikedMentorKey;
     private Long lastRequestedMentorKey;
     public String encodedCursor;
@@ -295,7 +436,7 @@ public class Mentee extends UserAccount implements DatastoreEntity {
       return this;
     }
 
-    public Builder dislikedMentorKeys(Set<Long> dislikedMentorKeys) {
+    public Builder dislikedMentorKeys(Collection<Long> dislikedMentorKeys) {
       this.dislikedMentorKeys = dislikedMentorKeys;
       return this;
     }
@@ -305,7 +446,7 @@ public class Mentee extends UserAccount implements DatastoreEntity {
       return this;
     }
 
-    public Builder servedMentorKeys(SortedSet<Long> servedMentorKeys) {
+    public Builder servedMentorKeys(Collection<Long> servedMentorKeys) {
       this.servedMentorKeys = servedMentorKeys;
       return this;
     }
@@ -0,0 +1,322 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class holds the browsing state of mentees that only steers recommendations (see
+ * Mentee.BUFFERED_BROWSING_STATE_PROPERTIES) in memory so that browsing mentors does not need a
+ * datastore put for every page. Disliked mentors are not buffered and are written right away.
+ * Changes to the same mentee are coalesced, and pending changes are written in batched transactions
+ * once the oldest change has waited for the flush delay or too many mentees are pending.
+ *
+ * <p>Flushes are triggered by flushDue at the end of every request on the same instance, by flush
+ * when a user logs out, and by flushAll when the instance shuts down cleanly. flushDue writes at
+ * most one transaction's worth of mentees, so the request that happens to cross the deadline only
+ * pays for one batch. Reads must pass every user entity they load through applyTo so that pending
+ * changes are visible before they are flushed.
+ *
+ * <p>Buffered state is best effort: an instance that stops getting requests holds it until it is
+ * shut down, and it is lost if the instance is shut down without the filter being destroyed. That
+ * is acceptable only because the buffered properties can be lost without losing any decision of the
+ * mentee.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class MenteeStateBuffer {
+  public static final long DEFAULT_FLUSH_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(2);
+  public static final int DEFAULT_MAX_PENDING = 500;
+
+  private final DatastoreService datastoreService;
+  private final long flushDelayMillis;
+  private final int maxPending;
+  private final ConcurrentHashMap<Long, Map<String, Object>> pendingStates =
+      new ConcurrentHashMap<>();
+  private final AtomicLong flushAtMillis = new AtomicLong(Long.MAX_VALUE);
+
+  /**
+   * Creates a buffer.
+   *
+   * @param datastoreService the database to flush pending changes to
+   * @param flushDelayMillis how long a change may wait before flushDue writes it
+   * @param maxPending how many mentees may be pending before flushDue writes them all
+   */
+  public MenteeStateBuffer(
+      DatastoreService datastoreService, long flushDelayMillis, int maxPending) {
+    this.datastoreService = datastoreService;
+    this.flushDelayMillis = flushDelayMillis;
+    this.maxPending = maxPending;
+  }
+
+  private static class Holder {
+    private static final MenteeStateBuffer INSTANCE =
+        new MenteeStateBuffer(
+            DatastoreServiceFactory.getDatastoreService(),
+            DEFAULT_FLUSH_DELAY_MILLIS,
+            DEFAULT_MAX_PENDING);
+  }
+
+  /** Gets the buffer shared by every DatastoreAccess created with the default constructor. */
+  public static MenteeStateBuffer getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * Records the current browsing state of the passed in mentee to be written later. Newer state
+   * replaces older pending state of the same mentee.
+   *
+   * @param mentee the Mentee whose browsing state changed
+   */
+  public void buffer(Mentee mentee) {
+    Entity entity = mentee.convertToEntity();
+    Map<String, Object> state = new HashMap<>();
+    for (String property : Mentee.BUFFERED_BROWSING_STATE_PROPERTIES) {
+      state.put(property, copyValue(entity.getProperty(property)));
+    }
+    pendingStates.merge(mentee.getDatastoreKey(), state, MenteeStateBuffer::combine);
+    flushAtMillis.accumulateAndGet(System.currentTimeMillis() + flushDelayMillis, Math::min);
+  }
+
+  /**
+   * Overwrites the browsing state in the passed in user entity with the pending state of that
+   * mentee, if there is any.
+   *
+   * @param entity a user entity that was read from the database or a cache (can be null)
+   * @return the same entity
+   */
+  public Entity applyTo(Entity entity) {
+    if (entity != null) {
+      Map<String, Object> state = pendingStates.get(entity.getKey().getId());
+      if (state != null) {
+        setProperties(entity, state);
+      }
+    }
+    return entity;
+  }
+
+  /**
+   * Removes the pending state of a mentee that is about to be written in full. Browsing state that
+   * the writer did not change itself is copied into the entity being written so that it is not
+   * lost.
+   *
+   * @param entity the user entity about to be written
+   * @param changedProperties the properties that the writer changed itself
+   * @return the pending state that was removed (empty if there was none), to restore if the write
+   *     fails
+   */
+  public Map<String, Object> takeInto(Entity entity, Set<String> changedProperties) {
+    Map<String, Object> state = pendingStates.remove(entity.getKey().getId());
+    if (state == null) {
+      return Collections.emptyMap();
+    }
+    Map<String, Object> unchangedState = new HashMap<>(state);
+    unchangedState.keySet().removeAll(changedProperties);
+    setProperties(entity, unchangedState);
+    return state;
+  }
+
+  /**
+   * Puts back pending state that was taken or flushed but could not be written. State that was
+   * buffered in the meantime is newer and is merged on top of it.
+   *
+   * @param datastoreKey the unique identifier key of the mentee
+   * @param state the state to put back
+   */
+  public void restore(long datastoreKey, Map<String, Object> state) {
+    if (state.isEmpty()) {
+      return;
+    }
+    pendingStates.merge(
+        datastoreKey, state, (newerState, olderState) -> combine(olderState, newerState));
+    flushAtMillis.accumulateAndGet(System.currentTimeMillis() + flushDelayMillis, Math::min);
+  }
+
+  /**
+   * Drops the pending state of a user that was deleted.
+   *
+   * @param datastoreKey the unique identifier key of the user
+   */
+  public void discard(long datastoreKey) {
+    pendingStates.remove(datastoreKey);
+  }
+
+  /**
+   * Writes up to one transaction's worth of pending mentees if the oldest change has waited for the
+   * flush delay or too many mentees are pending. Otherwise this does nothing. Mentees that are left
+   * pending stay due, so the next call writes them.
+   *
+   * @return the number of mentees that were written
+   */
+  public int flushDue() {
+    if (System.currentTimeMillis() < flushAtMillis.get() && pendingStates.size() < maxPending) {
+      return 0;
+    }
+    flushAtMillis.set(Long.MAX_VALUE);
+    Map<Long, Map<String, Object>> states = new HashMap<>();
+    for (Long datastoreKey : pendingStates.keySet()) {
+      if (states.size() >= OptimisticUserWriter.MAX_ENTITY_GROUPS_PER_TRANSACTION) {
+        flushAtMillis.set(System.currentTimeMillis());
+        break;
+      }
+      Map<String, Object> state = pendingStates.remove(datastoreKey);
+      if (state != null) {
+        states.put(datastoreKey, state);
+      }
+    }
+    return write(states);
+  }
+
+  /**
+   * Writes the pending state of a single mentee, e.g. when they log out.
+   *
+   * @param datastoreKey the unique identifier key of the mentee
+   * @return the number of mentees that were written
+   */
+  public int flush(long datastoreKey) {
+    Map<String, Object> state = pendingStates.remove(datastoreKey);
+    if (state == null) {
+      return 0;
+    }
+    Map<Long, Map<String, Object>> states = new HashMap<>();
+    states.put(datastoreKey, state);
+    return write(states);
+  }
+
+  /**
+   * Writes everything that is pending in as few transactions as possible.
+   *
+   * @return the number of mentees that were written
+   */
+  public int flushAll() {
+    flushAtMillis.set(Long.MAX_VALUE);
+    Map<Long, Map<String, Object>> states = new HashMap<>();
+    for (Long datastoreKey : new ArrayList<>(pendingStates.keySet())) {
+      Map<String, Object> state = pendingStates.remove(datastoreKey);
+      if (state != null) {
+        states.put(datastoreKey, state);
+      }
+    }
+    return write(states);
+  }
+
+  /**
+   * Applies the browsing state of the passed in mentees to their stored entities with the
+   * OptimisticUserWriter, so a flush never overwrites a profile change that committed after it
+   * started. Mentees that were deleted in the meantime are skipped. If the write fails, the state
+   * is put back so that the next flush retries it.
+   */
+  private int write(Map<Long, Map<String, Object>> states) {
+    if (states.isEmpty()) {
+      return 0;
+    }
+    Map<Long, OptimisticUserWriter.Change> changes = new HashMap<>();
+    states.forEach((datastoreKey, state) -> changes.put(datastoreKey, new StateChange(state)));
+    try {
+      return OptimisticUserWriter.getInstance().write(datastoreService, changes).size();
+    } catch (RuntimeException e) {
+      states.forEach(this::restore);
+      throw e;
+    }
+  }
+
+  /** Applies pending browsing state to whichever version of a mentee is stored. */
+  private static final class StateChange implements OptimisticUserWriter.Change {
+    private final Map<String, Object> state;
+
+    private StateChange(Map<String, Object> state) {
+      this.state = state;
+    }
+
+    public long getBaseVersion() {
+      return ANY_VERSION;
+    }
+
+    public Entity applyTo(Entity storedEntity) {
+      setProperties(storedEntity, state);
+      return storedEntity;
+    }
+  }
+
+  /**
+   * Combines two states of the same mentee into a new map (see Mentee.mergeBrowsingState), so that
+   * mentors disliked or served by concurrent requests are all kept. Pending maps are never modified
+   * once they are in the buffer so that they can be read without locking.
+   */
+  private static Map<String, Object> combine(
+      Map<String, Object> olderState, Map<String, Object> newerState) {
+    Map<String, Object> state = new HashMap<>(olderState);
+    newerState.forEach(
+        (property, value) ->
+            state.put(property, Mentee.mergeBrowsingState(property, state.get(property), value)));
+    return state;
+  }
+
+  /** Merges browsing state into an entity that was read from the database. */
+  private static void setProperties(Entity entity, Map<String, Object> state) {
+    if (state.isEmpty()) {
+      return;
+    }
+    state.forEach(
+        (property, value) ->
+            entity.setUnindexedProperty(
+                property,
+                Mentee.mergeBrowsingState(
+                    property, entity.getProperty(property), copyValue(value))));
+    Mentee.removeDislikedFromServedMentors(entity);
+  }
+
+  /** Copies collection values so that pending state is never shared with a live object. */
+  private static Object copyValue(Object value) {
+    if (value instanceof Set) {
+      return value instanceof TreeSet
+          ? new TreeSet<>((Set<?>) value)
+          : new HashSet<>((Set<?>) value);
+    }
+    if (value instanceof Collection) {
+      return new ArrayList<>((Collection<?>) value);
+    }
+    return value;
+  }
+
+  /**
+   * Gets the number of mentees whose browsing state has not been written yet.
+   *
+   * @return the number of pending mentees
+   */
+  public int size() {
+    return pendingStates.size();
+  }
+
+  /** Drops everything that is pending without writing it. */
+  public void clear() {
+    pendingStates.clear();
+    flushAtMillis.set(Long.MAX_VALUE);
+  }
+}
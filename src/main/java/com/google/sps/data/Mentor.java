@@ -16,7 +16,6 @@ package com.google.sps.data;
 
 import com.google.appengine.api.datastore.Entity;
 import com.google.sps.util.ParameterConstants;
-import com.google.sps.util.ServletUtils;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.stream.Collectors;
@@ -92,9 +91,12 @@ public class Mentor extends UserAccount implements DatastoreEntity {
     super.copyProfileData(contentUser);
     if (contentUser instanceof Mentor) {
       Mentor contentMentor = (Mentor) contentUser;
-      this.visibility = contentMentor.visibility;
-      this.focusList = contentMentor.focusList;
-      this.mentorType = contentMentor.mentorType;
+      this.visibility =
+          updated(ParameterConstants.MENTOR_VISIBILITY, this.visibility, contentMentor.visibility);
+      this.focusList =
+          updated(ParameterConstants.MENTOR_FOCUS_LIST, this.focusList, contentMentor.focusList);
+      this.mentorType =
+          updated(ParameterConstants.MENTOR_TYPE, this.mentorType, contentMentor.mentorType);
     }
   }
 
@@ -119,15 +121,8 @@ public class Mentor extends UserAccount implements DatastoreEntity {
   }
 
   public int similarity(Mentor other) {
-    int result = 0;
-    if (other.getTimezone() == super.getTimezone() || other.getCountry() == super.getCountry())
-      result += ServletUtils.SIMILARITY_SCORE_HIGH;
-    if (other.getGender() == super.getGender()) result += ServletUtils.SIMILARITY_SCORE_HIGH;
-    if (other.isFirstGen() == super.isFirstGen()) result += ServletUtils.SIMILARITY_SCORE_HIGH;
-    if (other.isLowIncome() == super.isLowIncome()) result += ServletUtils.SIMILARITY_SCORE_LOW;
-    if (other.getEducationLevel().ordinal() == super.getEducationLevel().ordinal())
-      result += ServletUtils.SIMILARITY_SCORE_LOW;
-    return result;
+    return MatchAttributes.scoreBetweenMentors(
+        MatchAttributes.pack(this), MatchAttributes.pack(other));
   }
 
   public static class Builder extends UserAccount.Builder<Builder> {
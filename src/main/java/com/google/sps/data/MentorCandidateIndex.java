@@ -0,0 +1,245 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.sps.util.ParameterConstants;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class holds a process-local index of every visible mentor, partitioned by MentorType. Each
+ * mentor is stored as a compact Candidate record holding only the attributes used for matching so
+ * that recommendations can be computed without querying and decoding full mentor entities on every
+ * request. A partition is loaded with a single query the first time it is needed and reloaded once
+ * it is older than REFRESH_INTERVAL_MILLIS so that writes made by other instances are picked up.
+ * Writes made through DatastoreAccess are applied to the index immediately.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class MentorCandidateIndex {
+  public static final long REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  private final Map<MentorType, Partition> partitions;
+
+  private MentorCandidateIndex() {
+    partitions = new EnumMap<>(MentorType.class);
+    for (MentorType mentorType : MentorType.values()) {
+      partitions.put(mentorType, new Partition(mentorType));
+    }
+  }
+
+  private static class Holder {
+    private static final MentorCandidateIndex INSTANCE = new MentorCandidateIndex();
+  }
+
+  public static MentorCandidateIndex getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * Gets the visible mentors of the passed in type, loading the partition from the database first
+   * if it has not been loaded yet or has gone stale.
+   *
+   * @param mentorType the type of mentor to look for
+   * @param datastoreService the datastore to load the partition from if needed
+   * @return a read-only view from datastore key to Candidate, ordered by key
+   */
+  public NavigableMap<Long, Candidate> getCandidates(
+      MentorType mentorType, DatastoreService datastoreService) {
+    Partition partition = partitions.get(mentorType);
+    partition.ensureLoaded(datastoreService);
+    return Collections.unmodifiableNavigableMap(partition.candidates);
+  }
+
+  /**
+   * Brings the index up to date with a user entity that was just written to the database. Visible
+   * mentors are placed in the partition for their type and every other user is removed.
+   *
+   * @param entity the UserAccount entity that was written
+   */
+  public void update(Entity entity) {
+    long datastoreKey = entity.getKey().getId();
+    boolean isVisibleMentor =
+        UserType.MENTOR.name().equals(entity.getProperty(ParameterConstants.USER_TYPE))
+            && Boolean.TRUE.equals(entity.getProperty(ParameterConstants.MENTOR_VISIBILITY));
+    for (Partition partition : partitions.values()) {
+      if (isVisibleMentor
+          && partition
+              .mentorType
+              .name()
+              .equals(entity.getProperty(ParameterConstants.MENTOR_TYPE))) {
+        partition.put(entity);
+      } else {
+        partition.remove(datastoreKey);
+      }
+    }
+  }
+
+  /**
+   * Removes a user that was just deleted from the database from the index.
+   *
+   * @param datastoreKey the unique identifier key of the deleted user
+   */
+  public void remove(long datastoreKey) {
+    for (Partition partition : partitions.values()) {
+      partition.remove(datastoreKey);
+    }
+  }
+
+  /** Drops every loaded partition so that each one is reloaded from the database on next use. */
+  public void clear() {
+    for (Partition partition : partitions.values()) {
+      partition.unload();
+    }
+  }
+
+  /**
+   * This class holds the visible mentors of a single MentorType. Loads and writes are serialized on
+   * the partition while reads go straight to the concurrent map. Every candidate is given a small
+   * ordinal that is unique within the partition so that sets of candidates can be kept as bitmaps.
+   * Ordinals are only reused after the partition is reloaded.
+   */
+  private static class Partition {
+    private final MentorType mentorType;
+    private volatile ConcurrentSkipListMap<Long, Candidate> candidates;
+    private volatile long loadedAtMillis;
+    private int nextOrdinal;
+
+    private Partition(MentorType mentorType) {
+      this.mentorType = mentorType;
+      this.candidates = new ConcurrentSkipListMap<>();
+    }
+
+    private void ensureLoaded(DatastoreService datastoreService) {
+      if (isFresh()) {
+        return;
+      }
+      synchronized (this) {
+        if (isFresh()) {
+          return;
+        }
+        Query query =
+            new Query(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT)
+                .setFilter(
+                    Query.CompositeFilterOperator.and(
+                        new Query.FilterPredicate(
+                            ParameterConstants.USER_TYPE,
+                            Query.FilterOperator.EQUAL,
+                            UserType.MENTOR.name()),
+                        new Query.FilterPredicate(
+                            ParameterConstants.MENTOR_TYPE,
+                            Query.FilterOperator.EQUAL,
+                            mentorType.name()),
+                        new Query.FilterPredicate(
+                            ParameterConstants.MENTOR_VISIBILITY,
+                            Query.FilterOperator.EQUAL,
+                            true)));
+        ConcurrentSkipListMap<Long, Candidate> loadedCandidates = new ConcurrentSkipListMap<>();
+        int loadedOrdinals = 0;
+        for (Entity entity :
+            datastoreService.prepare(query).asIterable(FetchOptions.Builder.withDefaults())) {
+          loadedCandidates.put(entity.getKey().getId(), new Candidate(entity, loadedOrdinals++));
+        }
+        candidates = loadedCandidates;
+        nextOrdinal = loadedOrdinals;
+        loadedAtMillis = System.currentTimeMillis();
+      }
+    }
+
+    private boolean isFresh() {
+      long loadedAt = loadedAtMillis;
+      return loadedAt != 0 && System.currentTimeMillis() - loadedAt < REFRESH_INTERVAL_MILLIS;
+    }
+
+    private synchronized void put(Entity entity) {
+      if (loadedAtMillis != 0) {
+        Candidate existingCandidate = candidates.get(entity.getKey().getId());
+        int ordinal = existingCandidate != null ? existingCandidate.ordinal : nextOrdinal++;
+        candidates.put(entity.getKey().getId(), new Candidate(entity, ordinal));
+      }
+    }
+
+    private synchronized void remove(long datastoreKey) {
+      candidates.remove(datastoreKey);
+    }
+
+    private synchronized void unload() {
+      candidates = new ConcurrentSkipListMap<>();
+      loadedAtMillis = 0;
+      nextOrdinal = 0;
+    }
+  }
+
+  /**
+   * This class is a compact, immutable record of a mentor in the index. The attributes used to rank
+   * recommendations are packed into a single long by MatchAttributes.
+   */
+  public static final class Candidate {
+    private final long datastoreKey;
+    private final int ordinal;
+    private final MentorType mentorType;
+    private final long attributes;
+
+    private Candidate(Entity entity, int ordinal) {
+      this(
+          entity.getKey().getId(),
+          ordinal,
+          MentorType.valueOf((String) entity.getProperty(ParameterConstants.MENTOR_TYPE)),
+          MatchAttributes.packMentorEntity(entity));
+    }
+
+    Candidate(long datastoreKey, int ordinal, MentorType mentorType, long attributes) {
+      this.datastoreKey = datastoreKey;
+      this.ordinal = ordinal;
+      this.mentorType = mentorType;
+      this.attributes = attributes;
+    }
+
+    public long getDatastoreKey() {
+      return datastoreKey;
+    }
+
+    /**
+     * Gets the position of this candidate within its partition, for use as a bitmap index.
+     *
+     * @return the ordinal of this candidate
+     */
+    public int getOrdinal() {
+      return ordinal;
+    }
+
+    public MentorType getMentorType() {
+      return mentorType;
+    }
+
+    /**
+     * Gets the matching attributes of this mentor as packed by MatchAttributes.
+     *
+     * @return the packed attributes
+     */
+    public long getAttributes() {
+      return attributes;
+    }
+  }
+}
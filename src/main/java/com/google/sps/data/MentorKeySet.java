@@ -0,0 +1,320 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.ShortBlob;
+import java.io.ByteArrayOutputStream;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.LongConsumer;
+
+/**
+ * This class is a set of mentor datastore keys that is kept as a sorted array of primitive longs,
+ * so that looking up, adding, and iterating over keys does not box them. It is stored in the
+ * database as a single unindexed Blob: a format version byte and the number of keys, followed by
+ * the difference between each key and the one before it, all as varints. Since the keys are sorted,
+ * the differences are small and most keys take a few bytes instead of a full indexed list entry.
+ *
+ * <p>Entities written before this format store the keys as a list of longs. fromProperty reads
+ * both, and the next write of the mentee stores the keys in the new format.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class MentorKeySet extends AbstractSet<Long> {
+  private static final byte FORMAT_VERSION = 1;
+  private static final int INITIAL_CAPACITY = 8;
+  private static final long[] EMPTY_KEYS = new long[0];
+
+  private long[] keys;
+  private int size;
+  private int modificationCount;
+
+  /** Creates an empty set. */
+  public MentorKeySet() {
+    this.keys = EMPTY_KEYS;
+  }
+
+  private MentorKeySet(long[] sortedKeys, int size) {
+    this.keys = sortedKeys;
+    this.size = size;
+  }
+
+  /**
+   * Creates a set holding the passed in keys.
+   *
+   * @param mentorKeys the keys to copy (can be null)
+   * @return a new set with the passed in keys
+   */
+  public static MentorKeySet copyOf(Collection<Long> mentorKeys) {
+    if (mentorKeys == null) {
+      return new MentorKeySet();
+    }
+    if (mentorKeys instanceof MentorKeySet) {
+      MentorKeySet other = (MentorKeySet) mentorKeys;
+      return new MentorKeySet(Arrays.copyOf(other.keys, other.size), other.size);
+    }
+    long[] sortedKeys = new long[mentorKeys.size()];
+    int count = 0;
+    for (Long mentorKey : mentorKeys) {
+      sortedKeys[count++] = mentorKey;
+    }
+    return fromUnsortedKeys(sortedKeys, count);
+  }
+
+  /**
+   * Reads a set from an entity property. The property can be in the encoded format or in the old
+   * format of a list of keys.
+   *
+   * @param property the value of the entity property (can be null)
+   * @return the set stored in the property
+   */
+  public static MentorKeySet fromProperty(Object property) {
+    if (property == null) {
+      return new MentorKeySet();
+    }
+    if (property instanceof Blob) {
+      return decode(((Blob) property).getBytes());
+    }
+    if (property instanceof ShortBlob) {
+      return decode(((ShortBlob) property).getBytes());
+    }
+    Collection<?> legacyKeys = (Collection<?>) property;
+    long[] sortedKeys = new long[legacyKeys.size()];
+    int count = 0;
+    for (Object mentorKey : legacyKeys) {
+      sortedKeys[count++] = ((Number) mentorKey).longValue();
+    }
+    return fromUnsortedKeys(sortedKeys, count);
+  }
+
+  private static MentorKeySet fromUnsortedKeys(long[] keys, int count) {
+    Arrays.sort(keys, 0, count);
+    int distinct = 0;
+    for (int i = 0; i < count; i++) {
+      if (distinct == 0 || keys[distinct - 1] != keys[i]) {
+        keys[distinct++] = keys[i];
+      }
+    }
+    return new MentorKeySet(keys, distinct);
+  }
+
+  /**
+   * Encodes the set into the value to store in an entity property.
+   *
+   * @return the encoded set
+   */
+  public Blob toProperty() {
+    return new Blob(encode());
+  }
+
+  /**
+   * Encodes the set as a format version byte, the number of keys, and the differences between
+   * consecutive keys, all as unsigned varints.
+   *
+   * @return the encoded bytes
+   */
+  byte[] encode() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(2 + 2 * size);
+    bytes.write(FORMAT_VERSION);
+    writeVarint(bytes, size);
+    long previousKey = 0;
+    for (int i = 0; i < size; i++) {
+      // the differences wrap around for negative keys, which decode restores
+      writeVarint(bytes, keys[i] - previousKey);
+      previousKey = keys[i];
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decodes a set that was encoded by encode.
+   *
+   * @param bytes the encoded bytes
+   * @return the decoded set
+   * @throws IllegalArgumentException if the bytes are not in a known format
+   */
+  static MentorKeySet decode(byte[] bytes) {
+    if (bytes.length == 0 || bytes[0] != FORMAT_VERSION) {
+      throw new IllegalArgumentException("Unknown mentor key set format");
+    }
+    int[] position = {1};
+    int count = (int) readVarint(bytes, position);
+    long[] sortedKeys = new long[count];
+    long previousKey = 0;
+    for (int i = 0; i < count; i++) {
+      previousKey += readVarint(bytes, position);
+      sortedKeys[i] = previousKey;
+    }
+    return new MentorKeySet(sortedKeys, count);
+  }
+
+  private static void writeVarint(ByteArrayOutputStream bytes, long value) {
+    while ((value & ~0x7FL) != 0) {
+      bytes.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    bytes.write((int) value);
+  }
+
+  private static long readVarint(byte[] bytes, int[] position) {
+    long value = 0;
+    for (int shift = 0; shift < Long.SIZE; shift += 7) {
+      if (position[0] >= bytes.length) {
+        throw new IllegalArgumentException("Truncated mentor key set");
+      }
+      byte nextByte = bytes[position[0]++];
+      value |= (long) (nextByte & 0x7F) << shift;
+      if ((nextByte & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed mentor key set");
+  }
+
+  /**
+   * Checks if the set holds the passed in key.
+   *
+   * @param mentorKey the datastore key to look for
+   * @return true if the key is in the set
+   */
+  public boolean contains(long mentorKey) {
+    return Arrays.binarySearch(keys, 0, size, mentorKey) >= 0;
+  }
+
+  /**
+   * Adds the passed in key to the set.
+   *
+   * @param mentorKey the datastore key to add
+   * @return true if the key was not in the set yet
+   */
+  public boolean add(long mentorKey) {
+    int index = Arrays.binarySearch(keys, 0, size, mentorKey);
+    if (index >= 0) {
+      return false;
+    }
+    int insertionPoint = -index - 1;
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, Math.max(INITIAL_CAPACITY, 2 * size));
+    }
+    System.arraycopy(keys, insertionPoint, keys, insertionPoint + 1, size - insertionPoint);
+    keys[insertionPoint] = mentorKey;
+    size++;
+    modificationCount++;
+    return true;
+  }
+
+  /**
+   * Removes the passed in key from the set.
+   *
+   * @param mentorKey the datastore key to remove
+   * @return true if the key was in the set
+   */
+  public boolean remove(long mentorKey) {
+    int index = Arrays.binarySearch(keys, 0, size, mentorKey);
+    if (index < 0) {
+      return false;
+    }
+    removeAt(index);
+    return true;
+  }
+
+  private void removeAt(int index) {
+    System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+    size--;
+    modificationCount++;
+  }
+
+  /**
+   * Passes every key in the set to the passed in consumer in ascending order without boxing them.
+   *
+   * @param consumer the consumer to call for each key
+   */
+  public void forEachKey(LongConsumer consumer) {
+    for (int i = 0; i < size; i++) {
+      consumer.accept(keys[i]);
+    }
+  }
+
+  @Override
+  public boolean contains(Object mentorKey) {
+    return mentorKey instanceof Long && contains(((Long) mentorKey).longValue());
+  }
+
+  @Override
+  public boolean add(Long mentorKey) {
+    return add(mentorKey.longValue());
+  }
+
+  @Override
+  public boolean remove(Object mentorKey) {
+    return mentorKey instanceof Long && remove(((Long) mentorKey).longValue());
+  }
+
+  @Override
+  public void clear() {
+    size = 0;
+    modificationCount++;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Iterator<Long> iterator() {
+    return new Iterator<Long>() {
+      private int nextIndex;
+      private int expectedModificationCount = modificationCount;
+      private boolean canRemove;
+
+      @Override
+      public boolean hasNext() {
+        return nextIndex < size;
+      }
+
+      @Override
+      public Long next() {
+        if (expectedModificationCount != modificationCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (nextIndex >= size) {
+          throw new NoSuchElementException();
+        }
+        canRemove = true;
+        return keys[nextIndex++];
+      }
+
+      @Override
+      public void remove() {
+        if (!canRemove) {
+          throw new IllegalStateException();
+        }
+        if (expectedModificationCount != modificationCount) {
+          throw new ConcurrentModificationException();
+        }
+        removeAt(--nextIndex);
+        expectedModificationCount = modificationCount;
+        canRemove = false;
+      }
+    };
+  }
+}
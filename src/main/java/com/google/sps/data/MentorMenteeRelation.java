@@ -14,7 +14,6 @@
 
 package com.google.sps.data;
 
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
@@ -43,13 +42,36 @@ public class MentorMenteeRelation implements DatastoreEntity {
   }
 
   public MentorMenteeRelation(long mentorKey, long menteeKey) {
-    this(
-        DatastoreServiceFactory.getDatastoreService()
-            .allocateIds(ParameterConstants.ENTITY_TYPE_MENTOR_MENTEE_RELATION, 1)
-            .getStart()
-            .getId(),
-        mentorKey,
-        menteeKey);
+    this(datastoreKeyFor(mentorKey, menteeKey), mentorKey, menteeKey);
+  }
+
+  /**
+   * Derives the datastore ID for the link between a mentor and a mentee. MentorMenteeRelations and
+   * MentorshipRequests between the same two users use this ID, so checking whether they are linked
+   * is a single key lookup and writing the same link twice overwrites the first write instead of
+   * creating a duplicate. Links written before IDs were derived have allocated IDs and are found by
+   * a query when the derived ID is not stored. The ID does not depend on the order of the two keys.
+   * The keys are mixed into a positive 63 bit value, so distinct pairs only share an ID with
+   * negligible probability.
+   *
+   * @param userKey the datastore key of one of the users
+   * @param otherUserKey the datastore key of the other user
+   * @return the datastore ID for the link between the two users (always positive)
+   */
+  public static long datastoreKeyFor(long userKey, long otherUserKey) {
+    long id = mix(mix(Math.min(userKey, otherUserKey)) ^ Math.max(userKey, otherUserKey));
+    id &= Long.MAX_VALUE;
+    return id == 0 ? 1 : id;
+  }
+
+  /** Scrambles the bits of a long with the MurmurHash3 finalizer. */
+  private static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
   }
 
   public MentorMenteeRelation(Entity entity) {
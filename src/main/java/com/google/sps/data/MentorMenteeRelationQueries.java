@@ -0,0 +1,124 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.BaseDatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.sps.util.ParameterConstants;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class plans and runs the queries for the MentorMenteeRelations that a user is a part of.
+ * Rather than one OR query over both the mentor and mentee key properties, it plans one query on a
+ * single property for each side of the relation that is needed. A user's type already says which
+ * side they are on, so reads only need one query. When both sides are needed (e.g. to clean up
+ * after a user that may have switched types), every query is started before any results are read so
+ * that they run at the same time, and their results are merged as they stream in.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+final class MentorMenteeRelationQueries {
+
+  private MentorMenteeRelationQueries() {}
+
+  /**
+   * Plans the queries for the relations of a user.
+   *
+   * @param userKey the datastore key of the user
+   * @param userType the side of the relations the user is on (null to query both sides)
+   * @return one single-property query for each side that is needed
+   */
+  static List<Query> plan(long userKey, UserType userType) {
+    List<Query> queries = new ArrayList<>();
+    if (userType != UserType.MENTEE) {
+      queries.add(sideQuery(ParameterConstants.MENTOR_KEY, userKey));
+    }
+    if (userType != UserType.MENTOR) {
+      queries.add(sideQuery(ParameterConstants.MENTEE_KEY, userKey));
+    }
+    return queries;
+  }
+
+  private static Query sideQuery(String userKeyProperty, long userKey) {
+    return new Query(ParameterConstants.ENTITY_TYPE_MENTOR_MENTEE_RELATION)
+        .setFilter(new Query.FilterPredicate(userKeyProperty, Query.FilterOperator.EQUAL, userKey));
+  }
+
+  /**
+   * Starts running the passed in queries. Each query is sent before any results are waited on, so
+   * the queries run concurrently.
+   *
+   * @param datastoreService the database to query (sync or async)
+   * @param queries the queries from plan
+   * @return an iterator over the results of each query
+   */
+  static List<Iterator<Entity>> start(BaseDatastoreService datastoreService, List<Query> queries) {
+    List<Iterator<Entity>> results = new ArrayList<>();
+    for (Query query : queries) {
+      results.add(datastoreService.prepare(query).asIterator(FetchOptions.Builder.withDefaults()));
+    }
+    return results;
+  }
+
+  /**
+   * Merges the results of started queries by taking one entity from each in turn, so that no query
+   * has to finish before the others are read. Relations returned by more than one query are only
+   * included once.
+   *
+   * @param results the iterators from start
+   * @return the relations, without their Mentor and Mentee objects populated
+   */
+  static List<MentorMenteeRelation> merge(List<Iterator<Entity>> results) {
+    if (results.size() == 1) {
+      List<MentorMenteeRelation> relations = new ArrayList<>();
+      results.get(0).forEachRemaining(entity -> relations.add(new MentorMenteeRelation(entity)));
+      return relations;
+    }
+    Map<Key, MentorMenteeRelation> relations = new LinkedHashMap<>();
+    boolean readAny = true;
+    while (readAny) {
+      readAny = false;
+      for (Iterator<Entity> result : results) {
+        if (result.hasNext()) {
+          Entity entity = result.next();
+          relations.putIfAbsent(entity.getKey(), new MentorMenteeRelation(entity));
+          readAny = true;
+        }
+      }
+    }
+    return new ArrayList<>(relations.values());
+  }
+
+  /**
+   * Plans, runs, and merges the queries for the relations of a user.
+   *
+   * @param datastoreService the database to query
+   * @param userKey the datastore key of the user
+   * @param userType the side of the relations the user is on (null to query both sides)
+   * @return the relations, without their Mentor and Mentee objects populated
+   */
+  static List<MentorMenteeRelation> run(
+      BaseDatastoreService datastoreService, long userKey, UserType userType) {
+    return merge(start(datastoreService, plan(userKey, userType)));
+  }
+}
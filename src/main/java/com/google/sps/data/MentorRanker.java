@@ -0,0 +1,175 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.function.Predicate;
+
+/**
+ * This class ranks mentor candidates for a single mentee. Every candidate is scored exactly once
+ * from its packed MatchAttributes and only the best candidates are kept in a bounded min-heap, so
+ * ranking n candidates for a page of k mentors takes O(n log k) time and O(k) space. The score of a
+ * mentor is its similarity with the mentee, plus its similarity with the mentor the mentee last
+ * requested, minus its similarity with the mentor the mentee last disliked.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class MentorRanker {
+  private final long menteeAttributes;
+  private final boolean hasLastRequested;
+  private final long lastRequestedAttributes;
+  private final boolean hasLastDisliked;
+  private final long lastDislikedAttributes;
+
+  private MentorRanker(Builder builder) {
+    this.menteeAttributes = builder.menteeAttributes;
+    this.hasLastRequested = builder.hasLastRequested;
+    this.lastRequestedAttributes = builder.lastRequestedAttributes;
+    this.hasLastDisliked = builder.hasLastDisliked;
+    this.lastDislikedAttributes = builder.lastDislikedAttributes;
+  }
+
+  /**
+   * Scores a single mentor for the mentee this ranker was built for.
+   *
+   * @param mentorAttributes the packed attributes of the mentor
+   * @return the score of the mentor (higher is better)
+   */
+  public int score(long mentorAttributes) {
+    int result = MatchAttributes.scoreForMentee(menteeAttributes, mentorAttributes);
+    if (hasLastRequested) {
+      result += MatchAttributes.scoreBetweenMentors(mentorAttributes, lastRequestedAttributes);
+    }
+    if (hasLastDisliked) {
+      result -= MatchAttributes.scoreBetweenMentors(mentorAttributes, lastDislikedAttributes);
+    }
+    return result;
+  }
+
+  /**
+   * Selects the highest scoring candidates. Candidates with equal scores are ordered by key.
+   *
+   * @param candidates the candidates to rank
+   * @param include a filter deciding which candidates may be selected
+   * @param limit the maximum number of candidates to select
+   * @return the datastore keys of the selected candidates, best first
+   */
+  public long[] selectTop(
+      Iterable<MentorCandidateIndex.Candidate> candidates,
+      Predicate<MentorCandidateIndex.Candidate> include,
+      int limit) {
+    int[] heapScores = new int[limit];
+    long[] heapKeys = new long[limit];
+    int size = 0;
+    for (MentorCandidateIndex.Candidate candidate : candidates) {
+      if (!include.test(candidate)) {
+        continue;
+      }
+      long key = candidate.getDatastoreKey();
+      int score = score(candidate.getAttributes());
+      if (size < limit) {
+        heapScores[size] = score;
+        heapKeys[size] = key;
+        siftUp(heapScores, heapKeys, size++);
+      } else if (limit > 0 && isWorse(heapScores[0], heapKeys[0], score, key)) {
+        heapScores[0] = score;
+        heapKeys[0] = key;
+        siftDown(heapScores, heapKeys, size);
+      }
+    }
+    long[] selected = new long[size];
+    for (int i = size - 1; i >= 0; i--) {
+      selected[i] = heapKeys[0];
+      heapScores[0] = heapScores[i];
+      heapKeys[0] = heapKeys[i];
+      siftDown(heapScores, heapKeys, i);
+    }
+    return selected;
+  }
+
+  private static boolean isWorse(int score, long key, int otherScore, long otherKey) {
+    return score < otherScore || (score == otherScore && key > otherKey);
+  }
+
+  private static void siftUp(int[] scores, long[] keys, int index) {
+    while (index > 0) {
+      int parent = (index - 1) / 2;
+      if (!isWorse(scores[index], keys[index], scores[parent], keys[parent])) {
+        return;
+      }
+      swap(scores, keys, index, parent);
+      index = parent;
+    }
+  }
+
+  private static void siftDown(int[] scores, long[] keys, int size) {
+    int index = 0;
+    while (true) {
+      int worst = index;
+      for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+        if (isWorse(scores[child], keys[child], scores[worst], keys[worst])) {
+          worst = child;
+        }
+      }
+      if (worst == index) {
+        return;
+      }
+      swap(scores, keys, index, worst);
+      index = worst;
+    }
+  }
+
+  private static void swap(int[] scores, long[] keys, int i, int j) {
+    int score = scores[i];
+    scores[i] = scores[j];
+    scores[j] = score;
+    long key = keys[i];
+    keys[i] = keys[j];
+    keys[j] = key;
+  }
+
+  public static class Builder {
+    private long menteeAttributes;
+    private boolean hasLastRequested;
+    private long lastRequestedAttributes;
+    private boolean hasLastDisliked;
+    private long lastDislikedAttributes;
+
+    public static Builder newBuilder() {
+      return new Builder();
+    }
+
+    public Builder mentee(long menteeAttributes) {
+      this.menteeAttributes = menteeAttributes;
+      return this;
+    }
+
+    public Builder lastRequested(long lastRequestedAttributes) {
+      this.hasLastRequested = true;
+      this.lastRequestedAttributes = lastRequestedAttributes;
+      return this;
+    }
+
+    public Builder lastDisliked(long lastDislikedAttributes) {
+      this.hasLastDisliked = true;
+      this.lastDislikedAttributes = lastDislikedAttributes;
+      return this;
+    }
+
+    public MentorRanker build() {
+      return new MentorRanker(this);
+    }
+  }
+}
@@ -14,7 +14,6 @@
 
 package com.google.sps.data;
 
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
@@ -43,13 +42,7 @@ public class MentorshipRequest implements DatastoreEntity {
   }
 
   public MentorshipRequest(long toUserKey, long fromUserKey) {
-    this(
-        DatastoreServiceFactory.getDatastoreService()
-            .allocateIds(ParameterConstants.ENTITY_TYPE_MENTORSHIP_REQUEST, 1)
-            .getStart()
-            .getId(),
-        toUserKey,
-        fromUserKey);
+    this(MentorMenteeRelation.datastoreKeyFor(toUserKey, fromUserKey), toUserKey, fromUserKey);
   }
 
   public MentorshipRequest(Entity entity) {
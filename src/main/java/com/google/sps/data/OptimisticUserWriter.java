@@ -0,0 +1,208 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.sps.util.ParameterConstants;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class writes UserAccount entities with optimistic concurrency. Every stored user has a
+ * version that goes up by one with each write. A write reads the stored users and writes them back
+ * in the same datastore transaction, so if another write to one of them commits first, the
+ * transaction fails and is run again on top of what is stored now, up to a bounded number of
+ * attempts. Each change is handed the stored entity so that it can merge itself into a newer
+ * version instead of overwriting it.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class OptimisticUserWriter {
+  public static final int DEFAULT_MAX_ATTEMPTS = 3;
+  /** The most entity groups that a single cross-group transaction may write. */
+  static final int MAX_ENTITY_GROUPS_PER_TRANSACTION = 25;
+
+  private final int maxAttempts;
+  private final AtomicLong staleWriteCount = new AtomicLong();
+  private final AtomicLong conflictCount = new AtomicLong();
+  private final AtomicLong failureCount = new AtomicLong();
+
+  /**
+   * Creates a writer.
+   *
+   * @param maxAttempts how many times a transaction is run before the write is given up on
+   */
+  public OptimisticUserWriter(int maxAttempts) {
+    this.maxAttempts = maxAttempts;
+  }
+
+  private static class Holder {
+    private static final OptimisticUserWriter INSTANCE =
+        new OptimisticUserWriter(DEFAULT_MAX_ATTEMPTS);
+  }
+
+  /** Gets the writer shared by DatastoreAccess and the MenteeStateBuffer. */
+  public static OptimisticUserWriter getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /** A change to a stored user that can be applied on top of whichever version is stored. */
+  interface Change {
+    /** The base version of changes that do not depend on the version they were made against. */
+    long ANY_VERSION = -1;
+
+    /**
+     * Gets the version of the user that the change was made against.
+     *
+     * @return the version or ANY_VERSION
+     */
+    long getBaseVersion();
+
+    /**
+     * Builds the entity to write from the stored one. This may be called once per attempt.
+     *
+     * @param storedEntity the entity that is currently stored (may be modified and returned)
+     * @return the entity to write
+     */
+    Entity applyTo(Entity storedEntity);
+
+    /**
+     * Gets other entities to write in the same transaction, each in its own entity group.
+     *
+     * @return the other entities to write (can be empty, never null)
+     */
+    default List<Entity> getOtherEntities() {
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Writes a change to a single user.
+   *
+   * @param datastoreService the database to write to
+   * @param datastoreKey the unique identifier key of the user
+   * @param change the change to write
+   * @return the entity that was written with its new version, or null if the user is not stored
+   * @throws ConcurrentModificationException if every attempt collided with another write
+   */
+  public Entity write(DatastoreService datastoreService, long datastoreKey, Change change) {
+    return write(datastoreService, Collections.singletonMap(datastoreKey, change))
+        .get(datastoreKey);
+  }
+
+  /**
+   * Writes changes to many users, in as few transactions as the datastore allows. Users that are
+   * not stored are skipped.
+   *
+   * @param datastoreService the database to write to
+   * @param changes the changes to write keyed by the unique identifier key of each user
+   * @return the entities that were written with their new versions, keyed by datastore key
+   * @throws ConcurrentModificationException if every attempt of a transaction collided with another
+   *     write (the transactions before it stay written)
+   */
+  public Map<Long, Entity> write(
+      DatastoreService datastoreService, Map<Long, ? extends Change> changes) {
+    Map<Long, Entity> writtenEntities = new HashMap<>();
+    List<Long> batch = new ArrayList<>();
+    int batchEntityGroups = 0;
+    for (Map.Entry<Long, ? extends Change> change : changes.entrySet()) {
+      int entityGroups = 1 + change.getValue().getOtherEntities().size();
+      if (batchEntityGroups + entityGroups > MAX_ENTITY_GROUPS_PER_TRANSACTION) {
+        writtenEntities.putAll(writeBatch(datastoreService, batch, changes));
+        batch.clear();
+        batchEntityGroups = 0;
+      }
+      batch.add(change.getKey());
+      batchEntityGroups += entityGroups;
+    }
+    writtenEntities.putAll(writeBatch(datastoreService, batch, changes));
+    return writtenEntities;
+  }
+
+  /** Writes the changes to the passed in users in one transaction, retrying it on collisions. */
+  private Map<Long, Entity> writeBatch(
+      DatastoreService datastoreService, List<Long> batch, Map<Long, ? extends Change> changes) {
+    if (batch.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    List<Key> keys = new ArrayList<>();
+    batch.forEach(
+        datastoreKey ->
+            keys.add(
+                KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, datastoreKey)));
+    for (int attempt = 1; ; attempt++) {
+      Transaction transaction =
+          datastoreService.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        Map<Long, Entity> writtenEntities = new HashMap<>();
+        List<Entity> entities = new ArrayList<>();
+        for (Entity storedEntity : datastoreService.get(transaction, keys).values()) {
+          Change change = changes.get(storedEntity.getKey().getId());
+          long storedVersion = UserAccount.versionOf(storedEntity);
+          if (change.getBaseVersion() != Change.ANY_VERSION
+              && change.getBaseVersion() != storedVersion) {
+            staleWriteCount.incrementAndGet();
+          }
+          Entity entity = change.applyTo(storedEntity);
+          entity.setUnindexedProperty(ParameterConstants.VERSION, storedVersion + 1);
+          writtenEntities.put(storedEntity.getKey().getId(), entity);
+          entities.add(entity);
+          entities.addAll(change.getOtherEntities());
+        }
+        if (!entities.isEmpty()) {
+          datastoreService.put(transaction, entities);
+        }
+        transaction.commit();
+        return writtenEntities;
+      } catch (ConcurrentModificationException e) {
+        conflictCount.incrementAndGet();
+        if (attempt >= maxAttempts) {
+          failureCount.incrementAndGet();
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /** Gets how many writes were made against an older version than the one stored. */
+  public long getStaleWriteCount() {
+    return staleWriteCount.get();
+  }
+
+  /** Gets how many transactions collided with another write and had to be run again or dropped. */
+  public long getConflictCount() {
+    return conflictCount.get();
+  }
+
+  /** Gets how many writes were given up on because every attempt collided. */
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+}
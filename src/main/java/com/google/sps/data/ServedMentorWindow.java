@@ -0,0 +1,348 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Blob;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * This class keeps track of the mentors that were recently served to a mentee. It is a ring buffer
+ * of mentor keys in the order they were served, along with when each was served. Only the most
+ * recent mentors within a time horizon are kept: serving a mentor when the window is full pushes
+ * out the oldest one, and mentors served longer ago than the horizon expire. This keeps the window
+ * (and the entity it is stored in) a fixed size for mentees who browse for a long time, and lets
+ * mentors that were served a long time ago be recommended again.
+ *
+ * <p>The window is stored as a single unindexed Blob: a format version byte and the number of
+ * entries, followed by each entry from oldest to newest as the zigzag varint difference from the
+ * previous key and the varint number of seconds since the previous entry was served. fromProperty
+ * also reads the formats that served keys were stored in before (a MentorKeySet or a list of keys).
+ * Those keys carry no time, so they are treated as served when they are read.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class ServedMentorWindow {
+  public static final int DEFAULT_CAPACITY = 200;
+  public static final long DEFAULT_HORIZON_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  private static final byte FORMAT_VERSION = 2;
+
+  private final int capacity;
+  private final long horizonSeconds;
+  private final long[] keys;
+  private final long[] servedAtSeconds;
+  private int head;
+  private int size;
+
+  /** Creates an empty window with the default capacity and horizon. */
+  public ServedMentorWindow() {
+    this(DEFAULT_CAPACITY, DEFAULT_HORIZON_MILLIS);
+  }
+
+  /**
+   * Creates an empty window.
+   *
+   * @param capacity the most mentors the window holds
+   * @param horizonMillis how long a served mentor stays in the window
+   */
+  public ServedMentorWindow(int capacity, long horizonMillis) {
+    this.capacity = capacity;
+    this.horizonSeconds = TimeUnit.MILLISECONDS.toSeconds(horizonMillis);
+    this.keys = new long[capacity];
+    this.servedAtSeconds = new long[capacity];
+  }
+
+  /**
+   * Reads a window from an entity property with the default capacity and horizon.
+   *
+   * @param property the value of the entity property (can be null)
+   * @param nowMillis the current time, used as the served time of keys stored without one
+   * @return the window stored in the property
+   */
+  public static ServedMentorWindow fromProperty(Object property, long nowMillis) {
+    ServedMentorWindow window = new ServedMentorWindow();
+    if (property == null) {
+      return window;
+    }
+    byte[] bytes = property instanceof Blob ? ((Blob) property).getBytes() : null;
+    if (bytes != null && bytes.length > 0 && bytes[0] == FORMAT_VERSION) {
+      window.decode(bytes);
+    } else {
+      MentorKeySet.fromProperty(property).forEachKey(mentorKey -> window.add(mentorKey, nowMillis));
+    }
+    return window;
+  }
+
+  /**
+   * Creates a copy of this window.
+   *
+   * @return a new window with the same entries, capacity and horizon
+   */
+  public ServedMentorWindow copy() {
+    ServedMentorWindow copy =
+        new ServedMentorWindow(capacity, TimeUnit.SECONDS.toMillis(horizonSeconds));
+    for (int i = 0; i < size; i++) {
+      copy.append(keyAt(i), servedAtAt(i));
+    }
+    return copy;
+  }
+
+  /**
+   * Creates a window holding the entries of two windows, e.g. when two requests served mentors to
+   * the same mentee at the same time. A mentor in both windows keeps its latest served time, and
+   * only the newest entries that fit are kept.
+   *
+   * @param first a window (its capacity and horizon are used for the result)
+   * @param second another window
+   * @return a new window with the entries of both windows
+   */
+  public static ServedMentorWindow merge(ServedMentorWindow first, ServedMentorWindow second) {
+    Map<Long, Long> servedAtByKey = new HashMap<>();
+    for (ServedMentorWindow window : Arrays.asList(first, second)) {
+      for (int i = 0; i < window.size; i++) {
+        servedAtByKey.merge(window.keyAt(i), window.servedAtAt(i), Math::max);
+      }
+    }
+    List<Map.Entry<Long, Long>> entries = new ArrayList<>(servedAtByKey.entrySet());
+    entries.sort(Map.Entry.comparingByValue());
+    ServedMentorWindow merged =
+        new ServedMentorWindow(first.capacity, TimeUnit.SECONDS.toMillis(first.horizonSeconds));
+    entries
+        .subList(Math.max(0, entries.size() - merged.capacity), entries.size())
+        .forEach(entry -> merged.append(entry.getKey(), entry.getValue()));
+    return merged;
+  }
+
+  /**
+   * Records that the passed in mentor was served. A mentor that is already in the window moves to
+   * the newest position, and the oldest mentor is pushed out if the window is full.
+   *
+   * @param mentorKey the datastore key of the served mentor
+   * @param nowMillis the current time
+   * @return true if the mentor was not in the window yet
+   */
+  public boolean add(long mentorKey, long nowMillis) {
+    long nowSeconds = TimeUnit.MILLISECONDS.toSeconds(nowMillis);
+    expire(nowSeconds);
+    boolean added = !removeKey(mentorKey);
+    if (size == capacity) {
+      removeOldest();
+    }
+    append(mentorKey, nowSeconds);
+    return added;
+  }
+
+  /**
+   * Removes the passed in mentor from the window.
+   *
+   * @param mentorKey the datastore key of the mentor
+   * @return true if the mentor was in the window
+   */
+  public boolean remove(long mentorKey) {
+    return removeKey(mentorKey);
+  }
+
+  /**
+   * Checks if the passed in mentor was served within the horizon.
+   *
+   * @param mentorKey the datastore key of the mentor
+   * @param nowMillis the current time
+   * @return true if the mentor is in the window
+   */
+  public boolean contains(long mentorKey, long nowMillis) {
+    expire(TimeUnit.MILLISECONDS.toSeconds(nowMillis));
+    return indexOf(mentorKey) >= 0;
+  }
+
+  /**
+   * Passes the key of every mentor served within the horizon to the passed in consumer, from oldest
+   * to newest.
+   *
+   * @param nowMillis the current time
+   * @param consumer the consumer to call for each key
+   */
+  public void forEachKey(long nowMillis, LongConsumer consumer) {
+    expire(TimeUnit.MILLISECONDS.toSeconds(nowMillis));
+    for (int i = 0; i < size; i++) {
+      consumer.accept(keyAt(i));
+    }
+  }
+
+  /**
+   * Gets the keys of the mentors served within the horizon as a set.
+   *
+   * @param nowMillis the current time
+   * @return a new set with the keys in the window
+   */
+  public MentorKeySet toKeySet(long nowMillis) {
+    MentorKeySet mentorKeys = new MentorKeySet();
+    forEachKey(nowMillis, mentorKeys::add);
+    return mentorKeys;
+  }
+
+  /** Removes every mentor from the window. */
+  public void clear() {
+    head = 0;
+    size = 0;
+  }
+
+  /**
+   * Gets the number of mentors in the window, including any that have expired but were not dropped
+   * yet.
+   *
+   * @return the number of entries in the window
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Encodes the window into the value to store in an entity property.
+   *
+   * @return the encoded window
+   */
+  public Blob toProperty() {
+    return new Blob(encode());
+  }
+
+  byte[] encode() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(2 + 4 * size);
+    bytes.write(FORMAT_VERSION);
+    writeVarint(bytes, size);
+    long previousKey = 0;
+    long previousSeconds = 0;
+    for (int i = 0; i < size; i++) {
+      long keyDifference = keyAt(i) - previousKey;
+      writeVarint(bytes, (keyDifference << 1) ^ (keyDifference >> 63));
+      writeVarint(bytes, servedAtAt(i) - previousSeconds);
+      previousKey = keyAt(i);
+      previousSeconds = servedAtAt(i);
+    }
+    return bytes.toByteArray();
+  }
+
+  private void decode(byte[] bytes) {
+    int[] position = {1};
+    int count = (int) readVarint(bytes, position);
+    long previousKey = 0;
+    long previousSeconds = 0;
+    for (int i = 0; i < count; i++) {
+      long zigzagDifference = readVarint(bytes, position);
+      previousKey += (zigzagDifference >>> 1) ^ -(zigzagDifference & 1);
+      previousSeconds += readVarint(bytes, position);
+      if (size == capacity) {
+        removeOldest();
+      }
+      append(previousKey, previousSeconds);
+    }
+  }
+
+  private static void writeVarint(ByteArrayOutputStream bytes, long value) {
+    while ((value & ~0x7FL) != 0) {
+      bytes.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    bytes.write((int) value);
+  }
+
+  private static long readVarint(byte[] bytes, int[] position) {
+    long value = 0;
+    for (int shift = 0; shift < Long.SIZE; shift += 7) {
+      if (position[0] >= bytes.length) {
+        throw new IllegalArgumentException("Truncated served mentor window");
+      }
+      byte nextByte = bytes[position[0]++];
+      value |= (long) (nextByte & 0x7F) << shift;
+      if ((nextByte & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed served mentor window");
+  }
+
+  /** Drops the entries that were served longer ago than the horizon. They are always the oldest. */
+  private void expire(long nowSeconds) {
+    while (size > 0 && nowSeconds - servedAtAt(0) > horizonSeconds) {
+      removeOldest();
+    }
+  }
+
+  private int slot(int index) {
+    return (head + index) % capacity;
+  }
+
+  private long keyAt(int index) {
+    return keys[slot(index)];
+  }
+
+  private long servedAtAt(int index) {
+    return servedAtSeconds[slot(index)];
+  }
+
+  private void append(long mentorKey, long nowSeconds) {
+    keys[slot(size)] = mentorKey;
+    servedAtSeconds[slot(size)] = nowSeconds;
+    size++;
+  }
+
+  private void removeOldest() {
+    head = slot(1);
+    size--;
+  }
+
+  private int indexOf(long mentorKey) {
+    for (int i = 0; i < size; i++) {
+      if (keyAt(i) == mentorKey) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean removeKey(long mentorKey) {
+    int index = indexOf(mentorKey);
+    if (index < 0) {
+      return false;
+    }
+    for (int i = index; i < size - 1; i++) {
+      keys[slot(i)] = keyAt(i + 1);
+      servedAtSeconds[slot(i)] = servedAtAt(i + 1);
+    }
+    size--;
+    return true;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof ServedMentorWindow)) {
+      return false;
+    }
+    ServedMentorWindow otherWindow = (ServedMentorWindow) other;
+    return Arrays.equals(encode(), otherWindow.encode());
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(encode());
+  }
+}
@@ -14,19 +14,20 @@
 
 package com.google.sps.data;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.KeyRange;
 import com.google.sps.util.ParameterConstants;
 import java.time.LocalDate;
 import java.time.Period;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -61,6 +62,9 @@ public abstract class UserAccount implements DatastoreEntity {
   private String profilePicBlobKey;
   private UserType userType;
   private boolean isFakeUser;
+  private long version;
+  private boolean persisted;
+  private final Set<String> dirtyProperties = new HashSet<>();
 
   public UserAccount(
       String userID,
@@ -128,9 +132,8 @@ public abstract class UserAccount implements DatastoreEntity {
     if (builder.keyInitialized) {
       this.datastoreKey = builder.datastoreKey;
     } else {
-      DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-      KeyRange keyRange = datastore.allocateIds(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, 1);
-      this.datastoreKey = keyRange.getStart().getId();
+      this.datastoreKey =
+          DatastoreIdAllocator.getInstance().nextId(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT);
     }
   }
 
@@ -159,6 +162,7 @@ public abstract class UserAccount implements DatastoreEntity {
     this.profilePicBlobKey = (String) entity.getProperty(ParameterConstants.PROFILE_PIC_BLOB_KEY);
     this.userType = UserType.valueOf((String) entity.getProperty(ParameterConstants.USER_TYPE));
     this.isFakeUser = (boolean) entity.getProperty(ParameterConstants.IS_FAKE_USER);
+    this.version = versionOf(entity);
   }
 
   public static UserAccount fromEntity(Entity entity) {
@@ -170,6 +174,21 @@ public abstract class UserAccount implements DatastoreEntity {
             : new Mentor(entity);
   }
 
+  /**
+   * Converts an entity that was just read from the database. Unlike fromEntity, the returned user
+   * starts out clean, so writing it back unchanged is skipped.
+   *
+   * @param entity the entity read from the database (can be null)
+   * @return the Mentee or Mentor for the entity or null if the entity is null
+   */
+  static UserAccount fromStoredEntity(Entity entity) {
+    UserAccount user = fromEntity(entity);
+    if (user != null) {
+      user.markClean();
+    }
+    return user;
+  }
+
   /** This method ensures that all class fields are properly initialized. If they aren't, fix it. */
   protected void sanitizeValues() {
     if (this.ethnicityList == null) {
@@ -180,9 +199,8 @@ public abstract class UserAccount implements DatastoreEntity {
 
   public Entity convertToEntity() {
     if (!this.keyInitialized && this.datastoreKey == 0) {
-      DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-      KeyRange keyRange = datastore.allocateIds(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, 1);
-      this.datastoreKey = keyRange.getStart().getId();
+      this.datastoreKey =
+          DatastoreIdAllocator.getInstance().nextId(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT);
     }
     Key key = KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, this.datastoreKey);
     Entity entity = new Entity(key);
@@ -207,6 +225,7 @@ public abstract class UserAccount implements DatastoreEntity {
     entity.setProperty(ParameterConstants.PROFILE_PIC_BLOB_KEY, this.profilePicBlobKey);
     entity.setProperty(ParameterConstants.USER_TYPE, this.userType.name());
     entity.setProperty(ParameterConstants.IS_FAKE_USER, this.isFakeUser);
+    entity.setUnindexedProperty(ParameterConstants.VERSION, this.version);
     return entity;
   }
 
@@ -232,27 +251,138 @@ public abstract class UserAccount implements DatastoreEntity {
    * @param contentUser the UserAccount from which to copy data into this UserAccount
    */
   public void copyProfileData(UserAccount contentUser) {
-    this.userID = contentUser.userID;
-    this.email = contentUser.email;
-    this.name = contentUser.name;
-    this.dateOfBirth = contentUser.dateOfBirth;
-    this.country = contentUser.country;
-    this.language = contentUser.language;
-    this.timezone = contentUser.timezone;
-    this.ethnicityList = contentUser.ethnicityList;
-    this.ethnicityOther = contentUser.ethnicityOther;
-    this.gender = contentUser.gender;
-    this.genderOther = contentUser.genderOther;
-    this.firstGen = contentUser.firstGen;
-    this.lowIncome = contentUser.lowIncome;
-    this.educationLevel = contentUser.educationLevel;
-    this.educationLevelOther = contentUser.educationLevelOther;
-    this.description = contentUser.description;
+    this.userID = updated(ParameterConstants.USER_ID, this.userID, contentUser.userID);
+    this.email = updated(ParameterConstants.EMAIL, this.email, contentUser.email);
+    this.name = updated(ParameterConstants.NAME, this.name, contentUser.name);
+    this.dateOfBirth =
+        updated(ParameterConstants.DATE_OF_BIRTH, this.dateOfBirth, contentUser.dateOfBirth);
+    this.country = updated(ParameterConstants.COUNTRY, this.country, contentUser.country);
+    this.language = updated(ParameterConstants.LANGUAGE, this.language, contentUser.language);
+    this.timezone = updated(ParameterConstants.TIMEZONE, this.timezone, contentUser.timezone);
+    this.ethnicityList =
+        updated(ParameterConstants.ETHNICITY, this.ethnicityList, contentUser.ethnicityList);
+    this.ethnicityOther =
+        updated(
+            ParameterConstants.ETHNICITY_OTHER, this.ethnicityOther, contentUser.ethnicityOther);
+    this.gender = updated(ParameterConstants.GENDER, this.gender, contentUser.gender);
+    this.genderOther =
+        updated(ParameterConstants.GENDER_OTHER, this.genderOther, contentUser.genderOther);
+    this.firstGen = updated(ParameterConstants.FIRST_GEN, this.firstGen, contentUser.firstGen);
+    this.lowIncome = updated(ParameterConstants.LOW_INCOME, this.lowIncome, contentUser.lowIncome);
+    this.educationLevel =
+        updated(
+            ParameterConstants.EDUCATION_LEVEL, this.educationLevel, contentUser.educationLevel);
+    this.educationLevelOther =
+        updated(
+            ParameterConstants.EDUCATION_LEVEL_OTHER,
+            this.educationLevelOther,
+            contentUser.educationLevelOther);
+    this.description =
+        updated(ParameterConstants.DESCRIPTION, this.description, contentUser.description);
     if (contentUser.profilePicBlobKey != null && contentUser.profilePicBlobKey != "") {
-      this.profilePicBlobKey = contentUser.profilePicBlobKey;
+      this.profilePicBlobKey =
+          updated(
+              ParameterConstants.PROFILE_PIC_BLOB_KEY,
+              this.profilePicBlobKey,
+              contentUser.profilePicBlobKey);
     }
-    this.userType = contentUser.userType;
-    this.isFakeUser = contentUser.isFakeUser;
+    this.userType = updated(ParameterConstants.USER_TYPE, this.userType, contentUser.userType);
+    this.isFakeUser =
+        updated(ParameterConstants.IS_FAKE_USER, this.isFakeUser, contentUser.isFakeUser);
+  }
+
+  /**
+   * Records that the passed in property was changed if its new value differs from the current one.
+   *
+   * @param property the name of the entity property backing the field
+   * @param currentValue the value the field currently holds
+   * @param newValue the value the field is about to be set to
+   * @return the new value to assign to the field
+   */
+  protected <V> V updated(String property, V currentValue, V newValue) {
+    if (!Objects.equals(currentValue, newValue)) {
+      markDirty(property);
+    }
+    return newValue;
+  }
+
+  /**
+   * Records that the passed in property has changed since this user was last read from or written
+   * to the database.
+   *
+   * @param property the name of the entity property that changed
+   */
+  protected void markDirty(String property) {
+    dirtyProperties.add(property);
+  }
+
+  /**
+   * Checks if this user has changes that are not in the database yet. Users that were never read
+   * from or written to the database are always dirty.
+   *
+   * @return true if the user needs to be written to the database
+   */
+  public boolean isDirty() {
+    return !persisted || !dirtyProperties.isEmpty();
+  }
+
+  /**
+   * Checks if the passed in property must be written to the database.
+   *
+   * @param property the name of the entity property to check
+   * @return true if the property changed or the user was never written
+   */
+  public boolean isDirty(String property) {
+    return !persisted || dirtyProperties.contains(property);
+  }
+
+  /**
+   * Gets the names of the entity properties that changed since this user was last read from or
+   * written to the database.
+   *
+   * @return an unmodifiable view of the changed property names
+   */
+  public Set<String> getDirtyProperties() {
+    return Collections.unmodifiableSet(dirtyProperties);
+  }
+
+  /**
+   * Checks if this user has been read from or written to the database, i.e. whether it is known to
+   * be stored there.
+   */
+  boolean isPersisted() {
+    return persisted;
+  }
+
+  /**
+   * Gets the version of this user that was last read from or written to the database. Every write
+   * of a user increases the stored version by one (see OptimisticUserWriter).
+   *
+   * @return the version or 0 if the user was never stored
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  void setVersion(long version) {
+    this.version = version;
+  }
+
+  /**
+   * Gets the version stored in a user entity.
+   *
+   * @param entity the UserAccount entity
+   * @return the version or 0 for users stored before versions were added
+   */
+  static long versionOf(Entity entity) {
+    Object version = entity.getProperty(ParameterConstants.VERSION);
+    return version == null ? 0 : (long) version;
+  }
+
+  /** Records that this user's current state matches what is stored in the database. */
+  void markClean() {
+    persisted = true;
+    dirtyProperties.clear();
   }
 
   public boolean looselyEquals(UserAccount other) {
@@ -296,7 +426,7 @@ public abstract class UserAccount implements DatastoreEntity {
   }
 
   public void setName(String name) {
-    this.name = name;
+    this.name = updated(ParameterConstants.NAME, this.name, name);
   }
 
   public Date getDateOfBirth() {
@@ -382,27 +512,27 @@ public abstract class UserAccount implements DatastoreEntity {
   }
 
   public abstract static class Builder<T extends Builder<T>> {
-    private static long datastoreKey;
-    private static boolean keyInitialized = false;
-    private static String userID;
-    private static String email;
-    private static String name;
-    private static Date dateOfBirth;
-    private static Country country;
-    private static Language language;
-    private static TimeZone timezone;
-    private static Collection<Ethnicity> ethnicityList;
-    private static String ethnicityOther;
-    private static Gender gender;
-    private static String genderOther;
-    private static boolean firstGen;
-    private static boolean lowIncome;
-    private static EducationLevel educationLevel;
-    private static String educationLevelOther;
-    private static String description;
-    private static String profilePicBlobKey;
-    private static UserType userType;
-    private static boolean isFakeUser;
+    private long datastoreKey;
+    private boolean keyInitialized = false;
+    private String userID;
+    private String email;
+    private String name;
+    private Date dateOfBirth;
+    private Country country;
+    private Language language;
+    private TimeZone timezone;
+    private Collection<Ethnicity> ethnicityList;
+    private String ethnicityOther;
+    private Gender gender;
+    private String genderOther;
+    private boolean firstGen;
+    private boolean lowIncome;
+    private EducationLevel educationLevel;
+    private String educationLevelOther;
+    private String description;
+    private String profilePicBlobKey;
+    private UserType userType;
+    private boolean isFakeUser;
 
     protected Builder() {}
 
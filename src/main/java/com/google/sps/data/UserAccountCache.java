@@ -0,0 +1,420 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * This class caches UserAccount entities in front of the database, keyed by datastore key, along
+ * with the mapping from each userID to its datastore key. It has two tiers. The in-process tier is
+ * an LRU map that is bounded by the estimated size of its entries in bytes, and its entries expire
+ * after a short time so that writes made on other instances are picked up. The optional memcache
+ * tier is shared by every instance and is invalidated along with the in-process tier on every
+ * write, so it can hold entries for longer.
+ *
+ * <p>Invalidating a user replaces their memcache entry with a marker holding the version of the
+ * user that was just written (see UserAccount.getVersion). Entities are only cached in memcache
+ * over a marker or an entity with an older version, with compare-and-set, so an entity that another
+ * instance read before the write can never be cached after it.
+ *
+ * <p>Callers read getVersion before reading a user from the database and pass it back when caching
+ * the result. If the cache was invalidated in between, the result may already be out of date and is
+ * not cached.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class UserAccountCache {
+  public static final long DEFAULT_MAX_WEIGHT_BYTES = 16L * 1024 * 1024;
+  public static final long DEFAULT_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  public static final int MEMCACHE_EXPIRATION_SECONDS = (int) TimeUnit.MINUTES.toSeconds(10);
+  public static final String MEMCACHE_NAMESPACE = "UserAccountCache";
+  /** The version to invalidate a deleted user with, so that no entity of theirs is cached again. */
+  public static final long DELETED_USER_VERSION = Long.MAX_VALUE;
+
+  private static final long ENTRY_OVERHEAD_BYTES = 64;
+  private static final long PROPERTY_OVERHEAD_BYTES = 32;
+  private static final long VALUE_BYTES = 16;
+  private static final int INVALIDATION_NO_RE_ADD_MILLIS = 1000;
+  private static final int MAX_MEMCACHE_CAS_ATTEMPTS = 3;
+  private static final String MEMCACHE_KEY_PREFIX = "UserAccount:";
+  private static final String MEMCACHE_USER_ID_PREFIX = "UserID:";
+
+  private final long maxWeightBytes;
+  private final long ttlMillis;
+  private final MemcacheService memcacheService;
+  private final LinkedHashMap<Object, LocalEntry> localEntries =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private long localWeightBytes;
+  private final AtomicLong version = new AtomicLong();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong memcacheHitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxWeightBytes the most bytes (as estimated) the in-process tier may hold
+   * @param ttlMillis how long an entry may be served from the in-process tier
+   * @param memcacheService the shared memcache tier (null to only cache in-process)
+   */
+  public UserAccountCache(long maxWeightBytes, long ttlMillis, MemcacheService memcacheService) {
+    this.maxWeightBytes = maxWeightBytes;
+    this.ttlMillis = ttlMillis;
+    this.memcacheService = memcacheService;
+    if (memcacheService != null) {
+      memcacheService.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
+    }
+  }
+
+  private static class Holder {
+    private static final UserAccountCache INSTANCE =
+        new UserAccountCache(
+            DEFAULT_MAX_WEIGHT_BYTES,
+            DEFAULT_TTL_MILLIS,
+            MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE));
+  }
+
+  /**
+   * Gets the cache shared by every DatastoreAccess created with the default constructor. It caches
+   * in-process and in memcache.
+   */
+  public static UserAccountCache getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /** An entry in the in-process tier, either a user Entity or a datastore key for a userID. */
+  private static final class LocalEntry {
+    private final Object value;
+    private final long weightBytes;
+    private final long expiresAtMillis;
+
+    private LocalEntry(Object value, long weightBytes, long expiresAtMillis) {
+      this.value = value;
+      this.weightBytes = weightBytes;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+
+  /**
+   * Gets the current version of the cache. It changes every time an entry is invalidated.
+   *
+   * @return the version to pass to put and putDatastoreKey
+   */
+  public long getVersion() {
+    return version.get();
+  }
+
+  /**
+   * Gets a copy of the cached entity of the user with the passed in datastore key.
+   *
+   * @param datastoreKey the unique identifier key of the user
+   * @return a copy of the cached entity or null if it is not cached
+   */
+  public Entity get(long datastoreKey) {
+    return getAll(Collections.singletonList(datastoreKey)).get(datastoreKey);
+  }
+
+  /**
+   * Gets copies of the cached entities of the users with the passed in datastore keys. The keys
+   * missing from the in-process tier are read from the memcache tier in a single batch.
+   *
+   * @param datastoreKeys the unique identifier keys of the users
+   * @return a map from each cached key to a copy of its entity (keys not cached are omitted)
+   */
+  public Map<Long, Entity> getAll(Collection<Long> datastoreKeys) {
+    long readVersion = version.get();
+    Map<Long, Entity> entities = new HashMap<>();
+    List<String> memcacheKeys = new ArrayList<>();
+    for (long datastoreKey : datastoreKeys) {
+      Entity entity = (Entity) getLocal(datastoreKey);
+      if (entity != null) {
+        entities.put(datastoreKey, entity.clone());
+        hitCount.incrementAndGet();
+      } else {
+        memcacheKeys.add(MEMCACHE_KEY_PREFIX + datastoreKey);
+      }
+    }
+    if (memcacheService != null && !memcacheKeys.isEmpty()) {
+      for (Object value : memcacheService.getAll(memcacheKeys).values()) {
+        if (!(value instanceof Entity)) {
+          // an invalidation marker
+          continue;
+        }
+        Entity entity = (Entity) value;
+        putLocal(entity.getKey().getId(), entity.clone(), estimateSize(entity), readVersion);
+        entities.put(entity.getKey().getId(), entity);
+        hitCount.incrementAndGet();
+        memcacheHitCount.incrementAndGet();
+      }
+    }
+    missCount.addAndGet(datastoreKeys.size() - entities.size());
+    return entities;
+  }
+
+  /**
+   * Caches a user entity that was just read from the database.
+   *
+   * @param entity the UserAccount entity to cache
+   * @param readVersion the version of the cache from before the entity was read
+   */
+  public void put(Entity entity, long readVersion) {
+    Entity copy = entity.clone();
+    if (putLocal(copy.getKey().getId(), copy, estimateSize(copy), readVersion)
+        && memcacheService != null) {
+      putMemcacheEntity(MEMCACHE_KEY_PREFIX + copy.getKey().getId(), copy);
+    }
+  }
+
+  /**
+   * Caches an entity in memcache unless the entry there is a marker for a newer version of the user
+   * or an entity that is at least as new. Losing a race to another write only skips caching.
+   */
+  private void putMemcacheEntity(String memcacheKey, Entity entity) {
+    long userVersion = UserAccount.versionOf(entity);
+    MemcacheService.IdentifiableValue current = memcacheService.getIdentifiable(memcacheKey);
+    if (current == null) {
+      memcacheService.put(
+          memcacheKey, entity, expiration(), MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    } else if (current.getValue() instanceof Entity
+        ? UserAccount.versionOf((Entity) current.getValue()) < userVersion
+        : current.getValue() instanceof Long && (Long) current.getValue() <= userVersion) {
+      memcacheService.putIfUntouched(memcacheKey, current, entity, expiration());
+    }
+  }
+
+  /**
+   * Replaces the memcache entry of a user with a marker for the passed in version. A marker for a
+   * newer version is never lowered, since the writes may be invalidated out of order.
+   */
+  private void putInvalidationMarker(String memcacheKey, long userVersion) {
+    for (int attempt = 0; attempt < MAX_MEMCACHE_CAS_ATTEMPTS; attempt++) {
+      MemcacheService.IdentifiableValue current = memcacheService.getIdentifiable(memcacheKey);
+      if (current == null) {
+        if (memcacheService.put(
+            memcacheKey,
+            userVersion,
+            expiration(),
+            MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+          return;
+        }
+      } else if (current.getValue() instanceof Long && (Long) current.getValue() >= userVersion) {
+        return;
+      } else if (memcacheService.putIfUntouched(memcacheKey, current, userVersion, expiration())) {
+        return;
+      }
+    }
+    memcacheService.put(memcacheKey, userVersion, expiration());
+  }
+
+  private static Expiration expiration() {
+    return Expiration.byDeltaSeconds(MEMCACHE_EXPIRATION_SECONDS);
+  }
+
+  /**
+   * Gets the cached datastore key of the user with the passed in userID.
+   *
+   * @param userID the user ID from the authentication API
+   * @return the datastore key or null if it is not cached
+   */
+  public Long getDatastoreKey(String userID) {
+    long readVersion = version.get();
+    Long datastoreKey = (Long) getLocal(userID);
+    if (datastoreKey == null && memcacheService != null) {
+      datastoreKey = (Long) memcacheService.get(MEMCACHE_USER_ID_PREFIX + userID);
+      if (datastoreKey != null) {
+        putLocal(userID, datastoreKey, estimateSize(userID), readVersion);
+        memcacheHitCount.incrementAndGet();
+      }
+    }
+    if (datastoreKey == null) {
+      missCount.incrementAndGet();
+    } else {
+      hitCount.incrementAndGet();
+    }
+    return datastoreKey;
+  }
+
+  /**
+   * Caches the datastore key of the user with the passed in userID.
+   *
+   * @param userID the user ID from the authentication API
+   * @param datastoreKey the unique identifier key of the user
+   * @param readVersion the version of the cache from before the key was read
+   */
+  public void putDatastoreKey(String userID, long datastoreKey, long readVersion) {
+    if (putLocal(userID, datastoreKey, estimateSize(userID), readVersion)
+        && memcacheService != null) {
+      memcacheService.put(
+          MEMCACHE_USER_ID_PREFIX + userID,
+          datastoreKey,
+          expiration(),
+          MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    }
+  }
+
+  /**
+   * Drops a user from both tiers. This must be called whenever the user is written or deleted.
+   *
+   * @param datastoreKey the unique identifier key of the user
+   * @param userID the user ID of the user (can be null)
+   * @param userVersion the version of the user that was written (DELETED_USER_VERSION if the user
+   *     was deleted)
+   */
+  public void invalidate(long datastoreKey, String userID, long userVersion) {
+    synchronized (this) {
+      version.incrementAndGet();
+      removeLocal(datastoreKey);
+      if (userID != null) {
+        removeLocal(userID);
+      }
+    }
+    if (memcacheService != null) {
+      putInvalidationMarker(MEMCACHE_KEY_PREFIX + datastoreKey, userVersion);
+      if (userID != null) {
+        // userID mappings are checked against the user they lead to, so a stale one is harmless
+        memcacheService.delete(MEMCACHE_USER_ID_PREFIX + userID, INVALIDATION_NO_RE_ADD_MILLIS);
+      }
+    }
+  }
+
+  /** Drops every entry from the in-process tier. The memcache tier is left as it is. */
+  public synchronized void clear() {
+    version.incrementAndGet();
+    localEntries.clear();
+    localWeightBytes = 0;
+  }
+
+  /** Gets the number of lookups that were answered by either tier. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Gets the number of lookups that were answered by the memcache tier. */
+  public long getMemcacheHitCount() {
+    return memcacheHitCount.get();
+  }
+
+  /** Gets the number of lookups that neither tier could answer. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** Gets the number of entries dropped from the in-process tier to stay within its size. */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /** Gets the estimated size in bytes of everything in the in-process tier. */
+  public synchronized long getWeightBytes() {
+    return localWeightBytes;
+  }
+
+  private synchronized Object getLocal(Object key) {
+    LocalEntry entry = localEntries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.expiresAtMillis <= System.currentTimeMillis()) {
+      removeLocal(key);
+      return null;
+    }
+    return entry.value;
+  }
+
+  private synchronized boolean putLocal(
+      Object key, Object value, long weightBytes, long readVersion) {
+    if (readVersion != version.get()) {
+      return false;
+    }
+    putLocal(key, value, weightBytes);
+    return true;
+  }
+
+  private synchronized void putLocal(Object key, Object value, long weightBytes) {
+    if (weightBytes > maxWeightBytes) {
+      return;
+    }
+    removeLocal(key);
+    localEntries.put(
+        key, new LocalEntry(value, weightBytes, System.currentTimeMillis() + ttlMillis));
+    localWeightBytes += weightBytes;
+    Iterator<LocalEntry> eldestEntries = localEntries.values().iterator();
+    while (localWeightBytes > maxWeightBytes) {
+      localWeightBytes -= eldestEntries.next().weightBytes;
+      eldestEntries.remove();
+      evictionCount.incrementAndGet();
+    }
+  }
+
+  private synchronized void removeLocal(Object key) {
+    LocalEntry entry = localEntries.remove(key);
+    if (entry != null) {
+      localWeightBytes -= entry.weightBytes;
+    }
+  }
+
+  /** Estimates the number of bytes the passed in entity takes up on the heap. */
+  static long estimateSize(Entity entity) {
+    long size = ENTRY_OVERHEAD_BYTES;
+    for (Map.Entry<String, Object> property : entity.getProperties().entrySet()) {
+      size += PROPERTY_OVERHEAD_BYTES + 2L * property.getKey().length();
+      size += estimateValueSize(property.getValue());
+    }
+    return size;
+  }
+
+  private static long estimateSize(String userID) {
+    return ENTRY_OVERHEAD_BYTES + 2L * userID.length() + VALUE_BYTES;
+  }
+
+  private static long estimateValueSize(Object value) {
+    if (value instanceof String) {
+      return 2L * ((String) value).length();
+    }
+    if (value instanceof Text) {
+      return 2L * ((Text) value).getValue().length();
+    }
+    if (value instanceof Blob) {
+      return ((Blob) value).getBytes().length;
+    }
+    if (value instanceof Collection) {
+      long size = PROPERTY_OVERHEAD_BYTES;
+      for (Object element : (Collection<?>) value) {
+        size += VALUE_BYTES + estimateValueSize(element);
+      }
+      return size;
+    }
+    return VALUE_BYTES;
+  }
+}
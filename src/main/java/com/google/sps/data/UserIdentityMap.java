@@ -0,0 +1,170 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * This class keeps track of every UserAccount loaded from the database during a single request so
+ * that each user is read at most once per request. The map is bound to the current thread between
+ * calls to begin and end. While no map is bound, DatastoreAccess reads straight from the database.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class UserIdentityMap {
+  private static final ThreadLocal<UserIdentityMap> CURRENT = new ThreadLocal<>();
+
+  private final Map<Long, UserAccount> usersByKey = new HashMap<>();
+  private final Map<String, Long> keysByUserID = new HashMap<>();
+  private final Set<Long> missingKeys = new HashSet<>();
+  private final Set<String> missingUserIDs = new HashSet<>();
+
+  private UserIdentityMap() {}
+
+  /**
+   * Binds a new, empty identity map to the current thread. Any map that was already bound is
+   * replaced.
+   *
+   * @return the newly bound identity map
+   */
+  public static UserIdentityMap begin() {
+    UserIdentityMap identityMap = new UserIdentityMap();
+    CURRENT.set(identityMap);
+    return identityMap;
+  }
+
+  /** Unbinds the identity map from the current thread and drops everything it was holding. */
+  public static void end() {
+    CURRENT.remove();
+  }
+
+  /**
+   * Gets the identity map bound to the current thread.
+   *
+   * @return the current identity map or null if no request scope is active
+   */
+  public static UserIdentityMap current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Checks if the outcome of a lookup by datastore key is already known for this request.
+   *
+   * @param datastoreKey the unique identifier key of the user
+   * @return true if the user was loaded or found to be missing earlier in this request
+   */
+  public boolean containsKey(long datastoreKey) {
+    return usersByKey.containsKey(datastoreKey) || missingKeys.contains(datastoreKey);
+  }
+
+  /**
+   * Checks if the outcome of a lookup by userID is already known for this request.
+   *
+   * @param userID the user ID from the authentication API
+   * @return true if the user was loaded or found to be missing earlier in this request
+   */
+  public boolean containsUserID(String userID) {
+    return keysByUserID.containsKey(userID) || missingUserIDs.contains(userID);
+  }
+
+  /**
+   * Gets the user previously loaded with the passed in datastore key.
+   *
+   * @param datastoreKey the unique identifier key of the user
+   * @return the loaded UserAccount or null if it is missing or has not been loaded
+   */
+  public UserAccount get(long datastoreKey) {
+    return usersByKey.get(datastoreKey);
+  }
+
+  /**
+   * Gets the user previously loaded with the passed in userID.
+   *
+   * @param userID the user ID from the authentication API
+   * @return the loaded UserAccount or null if it is missing or has not been loaded
+   */
+  public UserAccount getByUserID(String userID) {
+    Long datastoreKey = keysByUserID.get(userID);
+    return datastoreKey == null ? null : usersByKey.get(datastoreKey);
+  }
+
+  /**
+   * Records a user that was loaded from or written to the database. Later lookups by either its
+   * datastore key or its userID will return this exact instance.
+   *
+   * @param user the UserAccount to record (ignored if null)
+   */
+  public void put(UserAccount user) {
+    if (user == null) {
+      return;
+    }
+    UserAccount previousUser = usersByKey.put(user.getDatastoreKey(), user);
+    if (previousUser != null && !Objects.equals(previousUser.getUserID(), user.getUserID())) {
+      keysByUserID.remove(previousUser.getUserID());
+    }
+    missingKeys.remove(user.getDatastoreKey());
+    keysByUserID.put(user.getUserID(), user.getDatastoreKey());
+    missingUserIDs.remove(user.getUserID());
+  }
+
+  /**
+   * Records that no user exists with the passed in datastore key.
+   *
+   * @param datastoreKey the unique identifier key that was not found
+   */
+  public void putMissing(long datastoreKey) {
+    UserAccount previousUser = usersByKey.remove(datastoreKey);
+    if (previousUser != null) {
+      keysByUserID.remove(previousUser.getUserID());
+    }
+    missingKeys.add(datastoreKey);
+  }
+
+  /**
+   * Records that no user exists with the passed in userID.
+   *
+   * @param userID the user ID that was not found
+   */
+  public void putMissingUserID(String userID) {
+    Long datastoreKey = keysByUserID.remove(userID);
+    if (datastoreKey != null) {
+      usersByKey.remove(datastoreKey);
+    }
+    missingUserIDs.add(userID);
+  }
+
+  /**
+   * Forgets everything known about the passed in user so the next lookup goes to the database.
+   *
+   * @param user the UserAccount to forget
+   */
+  public void evict(UserAccount user) {
+    UserAccount previousUser = usersByKey.remove(user.getDatastoreKey());
+    if (previousUser != null) {
+      keysByUserID.remove(previousUser.getUserID());
+    }
+    missingKeys.remove(user.getDatastoreKey());
+    Long datastoreKey = keysByUserID.remove(user.getUserID());
+    if (datastoreKey != null) {
+      usersByKey.remove(datastoreKey);
+    }
+    missingUserIDs.remove(user.getUserID());
+  }
+}
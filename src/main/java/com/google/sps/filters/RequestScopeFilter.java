@@ -0,0 +1,77 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.filters;
+
+import com.google.sps.data.MenteeStateBuffer;
+import com.google.sps.data.UserIdentityMap;
+import com.google.sps.util.ErrorMessages;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+
+/**
+ * This filter wraps every request in its own UserIdentityMap so that each UserAccount is read from
+ * the database at most once while the request is being handled. After each request, it also writes
+ * the buffered mentee browsing state once it is due, and it writes everything that is still
+ * buffered when the filter is destroyed (which App Engine does not guarantee before an instance
+ * shuts down, see MenteeStateBuffer).
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+@WebFilter(urlPatterns = "/*")
+public class RequestScopeFilter implements Filter {
+  private static final Logger LOG = Logger.getLogger(RequestScopeFilter.class.getName());
+
+  @Override
+  public void init(FilterConfig filterConfig) {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    UserIdentityMap.begin();
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      UserIdentityMap.end();
+      flushMenteeStates(false);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    flushMenteeStates(true);
+  }
+
+  /** Writes buffered mentee browsing state without failing the request if the write fails. */
+  private static void flushMenteeStates(boolean flushAll) {
+    try {
+      if (flushAll) {
+        MenteeStateBuffer.getInstance().flushAll();
+      } else {
+        MenteeStateBuffer.getInstance().flushDue();
+      }
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, ErrorMessages.MENTEE_STATE_FLUSH_FAILED, e);
+    }
+  }
+}
@@ -14,23 +14,14 @@
 
 package com.google.sps.servlets;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.Resources;
 import com.google.sps.data.DatastoreAccess;
-import com.google.sps.util.ErrorMessages;
+import com.google.sps.templates.CompiledTemplate;
+import com.google.sps.templates.TemplateRegistry;
 import com.google.sps.util.ResourceConstants;
 import com.google.sps.util.ServletUtils;
 import com.google.sps.util.URLPatterns;
-import com.hubspot.jinjava.Jinjava;
-import com.hubspot.jinjava.JinjavaConfig;
-import com.hubspot.jinjava.loader.FileLocator;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.URISyntaxException;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.logging.Logger;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -46,33 +37,11 @@ import javax.servlet.http.HttpServletResponse;
  */
 @WebServlet(urlPatterns = URLPatterns.AUTHORS)
 public class AuthorsServlet extends HttpServlet {
-  private static final Logger LOG = Logger.getLogger(AuthorsServlet.class.getName());
-
-  private String staticResponse;
-  private Jinjava jinjava;
+  private CompiledTemplate staticResponse;
 
   @Override
   public void init() {
-    JinjavaConfig config = new JinjavaConfig();
-    jinjava = new Jinjava(config);
-    try {
-      jinjava.setResourceLocator(
-          new FileLocator(
-              new File(this.getClass().getResource(ResourceConstants.TEMPLATES).toURI())));
-    } catch (URISyntaxException | FileNotFoundException e) {
-      LOG.severe(ErrorMessages.TEMPLATES_DIRECTORY_NOT_FOUND);
-    }
-
-    Map<String, Object> context = new HashMap<>();
-
-    try {
-      String template =
-          Resources.toString(
-              this.getClass().getResource(ResourceConstants.TEMPLATE_AUTHORS), Charsets.UTF_8);
-      staticResponse = jinjava.render(template, context);
-    } catch (IOException e) {
-      LOG.severe(ErrorMessages.templateFileNotFound(ResourceConstants.TEMPLATE_AUTHORS));
-    }
+    staticResponse = TemplateRegistry.getInstance().getTemplate(ResourceConstants.TEMPLATE_AUTHORS);
   }
 
   @Override
@@ -87,8 +56,6 @@ public class AuthorsServlet extends HttpServlet {
     Map<String, Object> context =
         new DatastoreAccess().getDefaultRenderingContext(URLPatterns.AUTHORS);
 
-    String rendered = jinjava.render(staticResponse, context);
-
-    response.getWriter().println(rendered);
+    staticResponse.renderTo(response, context);
   }
 }
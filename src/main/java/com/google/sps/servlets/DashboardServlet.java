@@ -14,28 +14,22 @@
 
 package com.google.sps.servlets;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.Resources;
+import com.google.sps.data.AsyncDataAccess;
+import com.google.sps.data.AsyncDatastoreAccess;
 import com.google.sps.data.DataAccess;
 import com.google.sps.data.DatastoreAccess;
 import com.google.sps.data.MentorMenteeRelation;
 import com.google.sps.data.UserAccount;
+import com.google.sps.templates.CompiledTemplate;
+import com.google.sps.templates.TemplateRegistry;
 import com.google.sps.util.ContextFields;
-import com.google.sps.util.ErrorMessages;
 import com.google.sps.util.ResourceConstants;
 import com.google.sps.util.ServletUtils;
 import com.google.sps.util.URLPatterns;
-import com.hubspot.jinjava.Jinjava;
-import com.hubspot.jinjava.JinjavaConfig;
-import com.hubspot.jinjava.loader.FileLocator;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.URISyntaxException;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.logging.Logger;
+import java.util.concurrent.CompletableFuture;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -52,46 +46,19 @@ import javax.servlet.http.HttpServletResponse;
  */
 @WebServlet(urlPatterns = URLPatterns.DASHBOARD)
 public class DashboardServlet extends HttpServlet {
-  private static final Logger LOG = Logger.getLogger(DashboardServlet.class.getName());
-
   private DataAccess dataAccess;
-  private Jinjava jinjava;
-  private String dashboardMentorTemplate;
-  private String dashboardMenteeTemplate;
+  private AsyncDataAccess asyncDataAccess;
+  private CompiledTemplate dashboardMentorTemplate;
+  private CompiledTemplate dashboardMenteeTemplate;
 
   @Override
   public void init() {
     dataAccess = new DatastoreAccess();
-    JinjavaConfig config = new JinjavaConfig();
-    jinjava = new Jinjava(config);
-    try {
-      jinjava.setResourceLocator(
-          new FileLocator(
-              new File(this.getClass().getResource(ResourceConstants.TEMPLATES).toURI())));
-    } catch (URISyntaxException | FileNotFoundException e) {
-      LOG.severe(ErrorMessages.TEMPLATES_DIRECTORY_NOT_FOUND);
-    }
-
-    Map<String, Object> context = new HashMap<>();
-
-    try {
-      String template =
-          Resources.toString(
-              this.getClass().getResource(ResourceConstants.TEMPLATE_MENTOR_DASHBOARD),
-              Charsets.UTF_8);
-      dashboardMentorTemplate = jinjava.render(template, context);
-    } catch (IOException e) {
-      LOG.severe(ErrorMessages.templateFileNotFound(ResourceConstants.TEMPLATE_MENTOR_DASHBOARD));
-    }
-    try {
-      String template =
-          Resources.toString(
-              this.getClass().getResource(ResourceConstants.TEMPLATE_MENTEE_DASHBOARD),
-              Charsets.UTF_8);
-      dashboardMenteeTemplate = jinjava.render(template, context);
-    } catch (IOException e) {
-      LOG.severe(ErrorMessages.templateFileNotFound(ResourceConstants.TEMPLATE_MENTOR_DASHBOARD));
-    }
+    asyncDataAccess = new AsyncDatastoreAccess();
+    dashboardMentorTemplate =
+        TemplateRegistry.getInstance().getTemplate(ResourceConstants.TEMPLATE_MENTOR_DASHBOARD);
+    dashboardMenteeTemplate =
+        TemplateRegistry.getInstance().getTemplate(ResourceConstants.TEMPLATE_MENTEE_DASHBOARD);
   }
 
   @Override
@@ -109,18 +76,17 @@ public class DashboardServlet extends HttpServlet {
       return;
     }
 
-    Collection<MentorMenteeRelation> connectedUsers =
-        dataAccess.getMentorMenteeRelations(currentUser);
-    context.put(ContextFields.MENTOR_MENTEE_RELATIONS, connectedUsers);
+    // the relation queries run at the same time as the check that the user still exists
+    CompletableFuture<Collection<MentorMenteeRelation>> connectedUsers =
+        asyncDataAccess.getMentorMenteeRelationsAsync(currentUser);
+    context.put(ContextFields.MENTOR_MENTEE_RELATIONS, connectedUsers.join());
 
-    String template =
+    CompiledTemplate template =
         (boolean) context.get(ContextFields.IS_MENTOR)
             ? dashboardMentorTemplate
             : dashboardMenteeTemplate;
 
-    String renderedTemplate = jinjava.render(template, context);
-
     response.setContentType(ServletUtils.CONTENT_HTML);
-    response.getWriter().println(renderedTemplate);
+    template.renderTo(response, context);
   }
 }
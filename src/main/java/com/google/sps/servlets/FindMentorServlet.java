@@ -15,30 +15,21 @@
 package com.google.sps.servlets;
 
 import com.google.appengine.api.users.User;
-import com.google.common.base.Charsets;
-import com.google.common.io.Resources;
 import com.google.sps.data.DataAccess;
 import com.google.sps.data.DatastoreAccess;
 import com.google.sps.data.Mentee;
 import com.google.sps.data.Mentor;
 import com.google.sps.data.MentorshipRequest;
 import com.google.sps.data.UserAccount;
+import com.google.sps.templates.CompiledTemplate;
+import com.google.sps.templates.TemplateRegistry;
 import com.google.sps.util.ContextFields;
-import com.google.sps.util.ErrorMessages;
 import com.google.sps.util.ParameterConstants;
 import com.google.sps.util.ResourceConstants;
 import com.google.sps.util.ServletUtils;
 import com.google.sps.util.URLPatterns;
-import com.hubspot.jinjava.Jinjava;
-import com.hubspot.jinjava.JinjavaConfig;
-import com.hubspot.jinjava.loader.FileLocator;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.URISyntaxException;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.logging.Logger;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -56,13 +47,10 @@ import javax.servlet.http.HttpServletResponse;
  */
 @WebServlet(urlPatterns = URLPatterns.FIND_MENTOR)
 public class FindMentorServlet extends HttpServlet {
-  private static final Logger LOG = Logger.getLogger(FindMentorServlet.class.getName());
-
   private static final String SEND = "sendRequest";
   private static final String DISLIKE = "dislikeMentor";
 
-  private Jinjava jinjava;
-  private String findMentorTemplate;
+  private CompiledTemplate findMentorTemplate;
 
   private DataAccess dataAccess;
 
@@ -70,26 +58,8 @@ public class FindMentorServlet extends HttpServlet {
   public void init() {
     dataAccess = new DatastoreAccess();
 
-    JinjavaConfig config = new JinjavaConfig();
-    jinjava = new Jinjava(config);
-    try {
-      jinjava.setResourceLocator(
-          new FileLocator(
-              new File(this.getClass().getResource(ResourceConstants.TEMPLATES).toURI())));
-    } catch (URISyntaxException | FileNotFoundException e) {
-      LOG.severe(ErrorMessages.TEMPLATES_DIRECTORY_NOT_FOUND);
-    }
-
-    Map<String, Object> context = new HashMap<>();
-
-    try {
-      String template =
-          Resources.toString(
-              this.getClass().getResource(ResourceConstants.TEMPLATE_FIND_MENTOR), Charsets.UTF_8);
-      findMentorTemplate = jinjava.render(template, context);
-    } catch (IOException e) {
-      LOG.severe(ErrorMessages.templateFileNotFound(ResourceConstants.TEMPLATE_FIND_MENTOR));
-    }
+    findMentorTemplate =
+        TemplateRegistry.getInstance().getTemplate(ResourceConstants.TEMPLATE_FIND_MENTOR);
   }
 
   @Override
@@ -106,9 +76,8 @@ public class FindMentorServlet extends HttpServlet {
       response.sendRedirect(URLPatterns.LANDING);
       return;
     }
-    String renderedTemplate = jinjava.render(findMentorTemplate, context);
     response.setContentType(ServletUtils.CONTENT_HTML);
-    response.getWriter().println(renderedTemplate);
+    findMentorTemplate.renderTo(response, context);
   }
 
   @Override
@@ -16,6 +16,8 @@ package com.google.sps.servlets;
 
 import com.google.sps.data.DataAccess;
 import com.google.sps.data.DatastoreAccess;
+import com.google.sps.data.MenteeStateBuffer;
+import com.google.sps.data.UserAccount;
 import com.google.sps.util.ParameterConstants;
 import com.google.sps.util.ServletUtils;
 import com.google.sps.util.URLPatterns;
@@ -48,6 +50,10 @@ public class LogoutServlet extends HttpServlet {
     String redirURL =
         ServletUtils.getParameter(request, ParameterConstants.REDIR, URLPatterns.LANDING);
     if (dataAccess.getCurrentUser() != null) {
+      UserAccount user = dataAccess.getUser(dataAccess.getCurrentUser().getUserId());
+      if (user != null) {
+        MenteeStateBuffer.getInstance().flush(user.getDatastoreKey());
+      }
       ServletUtils.eraseCookie(response, ServletUtils.DEV_SERVER_AUTH_COOKIE);
       ServletUtils.eraseCookie(response, ServletUtils.HTTP_AUTH_COOKIE);
       ServletUtils.eraseCookie(response, ServletUtils.HTTPS_AUTH_COOKIE);
@@ -15,28 +15,23 @@
 package com.google.sps.servlets;
 
 import com.google.appengine.api.users.User;
-import com.google.common.base.Charsets;
-import com.google.common.io.Resources;
+import com.google.sps.data.AsyncDataAccess;
+import com.google.sps.data.AsyncDatastoreAccess;
 import com.google.sps.data.DataAccess;
 import com.google.sps.data.DatastoreAccess;
 import com.google.sps.data.Mentor;
 import com.google.sps.data.MentorshipRequest;
+import com.google.sps.templates.CompiledTemplate;
+import com.google.sps.templates.TemplateRegistry;
 import com.google.sps.util.ContextFields;
-import com.google.sps.util.ErrorMessages;
 import com.google.sps.util.ParameterConstants;
 import com.google.sps.util.ResourceConstants;
 import com.google.sps.util.ServletUtils;
 import com.google.sps.util.URLPatterns;
-import com.hubspot.jinjava.Jinjava;
-import com.hubspot.jinjava.JinjavaConfig;
-import com.hubspot.jinjava.loader.FileLocator;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.URISyntaxException;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.Map;
-import java.util.logging.Logger;
+import java.util.concurrent.CompletableFuture;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -55,40 +50,19 @@ import javax.servlet.http.HttpServletResponse;
  */
 @WebServlet(urlPatterns = URLPatterns.MENTORSHIP_REQUESTS)
 public class MentorshipRequestsServlet extends HttpServlet {
-  private static final Logger LOG = Logger.getLogger(MentorshipRequestsServlet.class.getName());
-
   private static final String ACCEPT = "accept";
   private static final String DENY = "deny";
 
   private DataAccess dataAccess;
-  private Jinjava jinjava;
-  private String mentorshipRequestTemplate;
+  private AsyncDataAccess asyncDataAccess;
+  private CompiledTemplate mentorshipRequestTemplate;
 
   @Override
   public void init() {
     dataAccess = new DatastoreAccess();
-    JinjavaConfig config = new JinjavaConfig();
-    jinjava = new Jinjava(config);
-    try {
-      jinjava.setResourceLocator(
-          new FileLocator(
-              new File(this.getClass().getResource(ResourceConstants.TEMPLATES).toURI())));
-    } catch (URISyntaxException | FileNotFoundException e) {
-      LOG.severe(ErrorMessages.TEMPLATES_DIRECTORY_NOT_FOUND);
-    }
-
-    Map<String, Object> context = new HashMap<>();
-
-    try {
-      String template =
-          Resources.toString(
-              this.getClass().getResource(ResourceConstants.TEMPLATE_MENTORSHIP_REQUESTS),
-              Charsets.UTF_8);
-      mentorshipRequestTemplate = jinjava.render(template, context);
-    } catch (IOException e) {
-      LOG.severe(
-          ErrorMessages.templateFileNotFound(ResourceConstants.TEMPLATE_MENTORSHIP_REQUESTS));
-    }
+    asyncDataAccess = new AsyncDatastoreAccess();
+    mentorshipRequestTemplate =
+        TemplateRegistry.getInstance().getTemplate(ResourceConstants.TEMPLATE_MENTORSHIP_REQUESTS);
   }
 
   @Override
@@ -105,11 +79,12 @@ public class MentorshipRequestsServlet extends HttpServlet {
       Mentor mentor = dataAccess.getMentor(user.getUserId());
       if (mentor != null) {
         response.setContentType(ServletUtils.CONTENT_HTML);
+        CompletableFuture<Collection<MentorshipRequest>> incomingRequests =
+            asyncDataAccess.getIncomingRequestsAsync(mentor);
         Map<String, Object> context =
             dataAccess.getDefaultRenderingContext(URLPatterns.MENTORSHIP_REQUESTS);
-        context.put(ContextFields.MENTORSHIP_REQUESTS, dataAccess.getIncomingRequests(mentor));
-        String renderTemplate = jinjava.render(mentorshipRequestTemplate, context);
-        response.getWriter().println(renderTemplate);
+        context.put(ContextFields.MENTORSHIP_REQUESTS, incomingRequests.join());
+        mentorshipRequestTemplate.renderTo(response, context);
         return;
       }
     }
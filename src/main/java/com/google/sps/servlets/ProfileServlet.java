@@ -15,27 +15,18 @@
 package com.google.sps.servlets;
 
 import com.google.appengine.api.users.User;
-import com.google.common.base.Charsets;
-import com.google.common.io.Resources;
 import com.google.sps.data.DataAccess;
 import com.google.sps.data.DatastoreAccess;
 import com.google.sps.data.UserAccount;
+import com.google.sps.templates.CompiledTemplate;
+import com.google.sps.templates.TemplateRegistry;
 import com.google.sps.util.ContextFields;
-import com.google.sps.util.ErrorMessages;
 import com.google.sps.util.ParameterConstants;
 import com.google.sps.util.ResourceConstants;
 import com.google.sps.util.ServletUtils;
 import com.google.sps.util.URLPatterns;
-import com.hubspot.jinjava.Jinjava;
-import com.hubspot.jinjava.JinjavaConfig;
-import com.hubspot.jinjava.loader.FileLocator;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.URISyntaxException;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.logging.Logger;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -53,36 +44,15 @@ import javax.servlet.http.HttpServletResponse;
  */
 @WebServlet(urlPatterns = URLPatterns.PROFILE)
 public final class ProfileServlet extends HttpServlet {
-  private static final Logger LOG = Logger.getLogger(ProfileServlet.class.getName());
-
-  private String profileTemplate;
-  private Jinjava jinjava;
+  private CompiledTemplate profileTemplate;
   private DataAccess dataAccess;
 
   @Override
   public void init() {
     dataAccess = new DatastoreAccess();
 
-    JinjavaConfig config = new JinjavaConfig();
-    jinjava = new Jinjava(config);
-    try {
-      jinjava.setResourceLocator(
-          new FileLocator(
-              new File(this.getClass().getResource(ResourceConstants.TEMPLATES).toURI())));
-    } catch (URISyntaxException | FileNotFoundException e) {
-      LOG.severe(ErrorMessages.TEMPLATES_DIRECTORY_NOT_FOUND);
-    }
-
-    Map<String, Object> context = new HashMap<>();
-
-    try {
-      String template =
-          Resources.toString(
-              this.getClass().getResource(ResourceConstants.TEMPLATE_PROFILE), Charsets.UTF_8);
-      profileTemplate = jinjava.render(template, context);
-    } catch (IOException e) {
-      LOG.severe(ErrorMessages.templateFileNotFound(ResourceConstants.TEMPLATE_PROFILE));
-    }
+    profileTemplate =
+        TemplateRegistry.getInstance().getTemplate(ResourceConstants.TEMPLATE_PROFILE);
   }
 
   @Override
@@ -110,9 +80,8 @@ public final class ProfileServlet extends HttpServlet {
     Map<String, Object> context = dataAccess.getDefaultRenderingContext(URLPatterns.PROFILE);
     context.put(ContextFields.PROFILE_USER, requestedUserAccount);
 
-    String renderedTemplate = jinjava.render(profileTemplate, context);
     response.setContentType(ServletUtils.CONTENT_HTML);
-    response.getWriter().println(renderedTemplate);
+    profileTemplate.renderTo(response, context);
   }
 
   @Override
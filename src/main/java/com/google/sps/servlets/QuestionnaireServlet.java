@@ -21,8 +21,6 @@ import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
-import com.google.common.base.Charsets;
-import com.google.common.io.Resources;
 import com.google.gson.Gson;
 import com.google.sps.data.Country;
 import com.google.sps.data.DataAccess;
@@ -39,20 +37,16 @@ import com.google.sps.data.TimeZone;
 import com.google.sps.data.Topic;
 import com.google.sps.data.UserAccount;
 import com.google.sps.data.UserType;
+import com.google.sps.templates.CompiledTemplate;
+import com.google.sps.templates.TemplateRegistry;
 import com.google.sps.util.ContextFields;
 import com.google.sps.util.ErrorMessages;
 import com.google.sps.util.ParameterConstants;
 import com.google.sps.util.ResourceConstants;
 import com.google.sps.util.ServletUtils;
 import com.google.sps.util.URLPatterns;
-import com.hubspot.jinjava.Jinjava;
-import com.hubspot.jinjava.JinjavaConfig;
-import com.hubspot.jinjava.loader.FileLocator;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -85,8 +79,7 @@ public class QuestionnaireServlet extends HttpServlet {
   private static final String MENTOR = "mentor";
   private static final String MENTEE = "mentee";
 
-  private String questionnaireTemplate;
-  private Jinjava jinjava;
+  private CompiledTemplate questionnaireTemplate;
   private DataAccess dataAccess;
 
   public QuestionnaireServlet() {
@@ -107,27 +100,11 @@ public class QuestionnaireServlet extends HttpServlet {
 
   @Override
   public void init() {
-    JinjavaConfig config = new JinjavaConfig();
-    jinjava = new Jinjava(config);
-    try {
-      jinjava.setResourceLocator(
-          new FileLocator(
-              new File(this.getClass().getResource(ResourceConstants.TEMPLATES).toURI())));
-    } catch (URISyntaxException | FileNotFoundException e) {
-      LOG.severe(ErrorMessages.TEMPLATES_DIRECTORY_NOT_FOUND);
-    }
-
     Map<String, Object> context = selectionListsForFrontEnd();
 
-    try {
-      String template =
-          Resources.toString(
-              this.getClass().getResource(ResourceConstants.TEMPLATE_QUESTIONNAIRE),
-              Charsets.UTF_8);
-      questionnaireTemplate = jinjava.render(template, context);
-    } catch (IOException e) {
-      LOG.severe(ErrorMessages.templateFileNotFound(ResourceConstants.TEMPLATE_QUESTIONNAIRE));
-    }
+    questionnaireTemplate =
+        TemplateRegistry.getInstance()
+            .getTemplate(ResourceConstants.TEMPLATE_QUESTIONNAIRE, context);
   }
 
   @Override
@@ -157,8 +134,7 @@ public class QuestionnaireServlet extends HttpServlet {
       context.put(ContextFields.QUESTIONNAIRE_SUBMIT_URL, uploadUrl);
       context.put("ethnicities", EnumSet.complementOf(EnumSet.of(Ethnicity.UNSPECIFIED)));
       context.put("topics", Topic.valuesSorted());
-      String renderTemplate = jinjava.render(questionnaireTemplate, context);
-      response.getWriter().println(renderTemplate);
+      questionnaireTemplate.renderTo(response, context);
     } else {
       LOG.warning(ErrorMessages.INVALID_PARAMATERS);
       response.sendRedirect(URLPatterns.LANDING);
@@ -180,7 +156,8 @@ public class QuestionnaireServlet extends HttpServlet {
     } else {
       String oldProfilePicKey = oldUser.getProfilePicBlobKey();
       oldUser.copyProfileData(user);
-      if (oldUser.getProfilePicBlobKey() != null && !oldUser.getProfilePicBlobKey().equals(oldProfilePicKey)) {
+      if (oldUser.getProfilePicBlobKey() != null
+          && !oldUser.getProfilePicBlobKey().equals(oldProfilePicKey)) {
         dataAccess.deleteBlob(oldProfilePicKey);
       }
       infoAdded = dataAccess.updateUser(oldUser);
@@ -1,6 +1,7 @@
 package com.google.sps.servlets;
 
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.taskqueue.DeferredTask;
 import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
 import com.google.gson.Gson;
@@ -14,6 +15,7 @@ import com.google.sps.data.Mentee;
 import com.google.sps.data.Mentor;
 import com.google.sps.data.UserAccount;
 import com.google.sps.data.UserType;
+import com.google.sps.tasks.TaskQueue;
 import com.google.sps.util.DummyDataConstants;
 import com.google.sps.util.ErrorMessages;
 import com.google.sps.util.ParameterConstants;
@@ -22,7 +24,11 @@ import com.google.sps.util.ServletUtils;
 import com.google.sps.util.URLPatterns;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -31,8 +37,10 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * Seeds the database with based on a large input dataset in JSON format. Upon calling HTTP GET,
- * this servlet attempts to seed the database and returns a JSON object representing the operations
- * success.
+ * this servlet queues the next users that have not been seeded yet to be written in batches on the
+ * task queue and returns a JSON object representing whether anything was queued. Each task only
+ * holds the range of users it writes and builds their entities when it runs, so tasks stay small
+ * however large the users are.
  *
  * @author sylviaziyuz
  * @author guptamudit
@@ -43,28 +51,31 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet(URLPatterns.SEED_DB)
 public class SeedDatabaseServlet extends HttpServlet {
   private static final int FAKE_USER_COUNT = 10000;
+  private static final int SEED_USERS_PER_REQUEST = 1000;
+  private static final int SEED_BATCH_SIZE = 100;
 
-  private DatastoreAccess dataAccess;
-  private Gson gson;
-  private Collection<UserAccount> users;
-  // private
-  private int seeded = 0;
+  private TaskQueue taskQueue;
+  private String seedRunID;
+  private final AtomicInteger seeded = new AtomicInteger();
 
-  @Override
-  public void init() {
-    dataAccess = new DatastoreAccess();
-    gson = new GsonBuilder().setDateFormat("MMM dd, yyyy, HH:mm:ss a").create();
-    users = new ArrayList<>(FAKE_USER_COUNT);
+  /** Loads the seed users once per instance, for the servlet and for the tasks that it queues. */
+  private static class UsersHolder {
+    private static final List<UserAccount> USERS = loadUsers();
+  }
+
+  private static List<UserAccount> loadUsers() {
+    Gson gson = new GsonBuilder().setDateFormat("MMM dd, yyyy, HH:mm:ss a").create();
+    List<UserAccount> users = new ArrayList<>(FAKE_USER_COUNT);
 
-    JsonParser jsonParser = new JsonParser();
     String jsonData = "";
     try {
       jsonData =
           Resources.toString(
-              this.getClass().getResource(ResourceConstants.DUMMY_DATA_USERS), Charsets.UTF_8);
+              SeedDatabaseServlet.class.getResource(ResourceConstants.DUMMY_DATA_USERS),
+              Charsets.UTF_8);
     } catch (IOException e) {
       System.err.println(ErrorMessages.SEEDING_FAILED);
-      return;
+      return Collections.emptyList();
     }
 
     JsonObject jsonObject = new JsonParser().parse(jsonData).getAsJsonObject();
@@ -78,26 +89,62 @@ public class SeedDatabaseServlet extends HttpServlet {
         users.add(gson.fromJson(user, Mentee.class));
       }
     }
+    return users;
+  }
+
+  @Override
+  public void init() {
+    taskQueue = TaskQueue.getInstance();
+    // task names are refused for days after they are used, so every servlet instance names its own
+    seedRunID = Long.toString(System.currentTimeMillis());
   }
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Collection<Entity> entities;
     boolean success = false;
-    if (seeded < users.size()) {
-      entities =
-          users.stream()
-              .skip(seeded)
-              .limit(1000)
-              .map(UserAccount::convertToEntity)
-              .collect(Collectors.toList());
-      success = dataAccess.seed_db(entities);
-      if (success) {
-        seeded += 1000;
+    int alreadySeeded = seeded.get();
+    int seedUntil = Math.min(alreadySeeded + SEED_USERS_PER_REQUEST, UsersHolder.USERS.size());
+    if (alreadySeeded < seedUntil && seeded.compareAndSet(alreadySeeded, seedUntil)) {
+      Map<String, SeedTask> tasks = new LinkedHashMap<>();
+      for (int start = alreadySeeded; start < seedUntil; start += SEED_BATCH_SIZE) {
+        tasks.put(
+            SeedTask.NAME_PREFIX + seedRunID + "-" + start,
+            new SeedTask(start, Math.min(start + SEED_BATCH_SIZE, seedUntil)));
+      }
+      try {
+        taskQueue.enqueueAll(tasks);
+      } catch (RuntimeException e) {
+        seeded.set(alreadySeeded);
+        throw e;
       }
+      success = true;
     }
 
     response.setContentType(ServletUtils.CONTENT_JSON);
     response.getWriter().println("{\"seeded\":\n" + success + "}");
   }
+
+  /** Writes one range of the seed users to the database. */
+  private static final class SeedTask implements DeferredTask {
+    private static final long serialVersionUID = 2L;
+    private static final String NAME_PREFIX = "seed-db-";
+
+    private final int start;
+    private final int end;
+
+    private SeedTask(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    public void run() {
+      List<Entity> entities =
+          UsersHolder.USERS.subList(start, end).stream()
+              .map(UserAccount::convertToEntity)
+              .collect(Collectors.toList());
+      if (!new DatastoreAccess().seed_db(entities)) {
+        throw new IllegalStateException(ErrorMessages.SEEDING_FAILED);
+      }
+    }
+  }
 }
@@ -0,0 +1,92 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.tasks;
+
+import com.google.appengine.api.taskqueue.DeferredTask;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueConstants;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class runs tasks on an App Engine push queue. Each task is serialized into the payload of a
+ * queue task, so tasks must only hold serializable state. Batches are added with as few calls to
+ * the queue as it allows.
+ *
+ * <p>Every queue task is named after its task, and the queue refuses a name that it has already
+ * seen, so the same task is never queued twice by any instance. The queue keeps refusing a name for
+ * days after its task ran, so task names must be unique to the work they do.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class AppEngineTaskRunner implements TaskRunner {
+  private final Queue queue;
+
+  /**
+   * Creates a runner.
+   *
+   * @param queue the push queue to add tasks to
+   */
+  public AppEngineTaskRunner(Queue queue) {
+    this.queue = queue;
+  }
+
+  public int submit(Map<String, ? extends DeferredTask> tasks, long delayMillis) {
+    List<TaskOptions> options = new ArrayList<>();
+    tasks.forEach(
+        (name, task) ->
+            options.add(
+                TaskOptions.Builder.withPayload(task)
+                    .taskName(toTaskName(name))
+                    .countdownMillis(delayMillis)));
+    int added = 0;
+    int batchSize = QueueConstants.maxTasksPerAdd();
+    for (int i = 0; i < options.size(); i += batchSize) {
+      List<TaskOptions> batch = options.subList(i, Math.min(i + batchSize, options.size()));
+      try {
+        queue.add(batch);
+        added += batch.size();
+      } catch (TaskAlreadyExistsException e) {
+        // the rest of the batch is still added
+        added += batch.size() - e.getTaskNames().size();
+      }
+    }
+    return added;
+  }
+
+  public boolean deduplicatesNames() {
+    return true;
+  }
+
+  /**
+   * Converts a task name to a queue task name, which may only hold letters, digits, '-' and '_'.
+   * Every other character is escaped so that different names never map to the same task name.
+   */
+  static String toTaskName(String name) {
+    StringBuilder taskName = new StringBuilder();
+    for (char c : name.toCharArray()) {
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-') {
+        taskName.append(c);
+      } else {
+        taskName.append('_').append(Integer.toHexString(c)).append('_');
+      }
+    }
+    return taskName.toString();
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.tasks;
+
+import com.google.appengine.api.taskqueue.DeferredTask;
+import com.google.apphosting.api.ApiProxy;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs tasks on a fixed number of daemon threads in the current process, so no more than
+ * that many tasks ever run at once. The API environment of the thread that submitted a task is
+ * installed while the task runs so that it can make datastore calls.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class LocalTaskRunner implements TaskRunner {
+  private final ScheduledThreadPoolExecutor executor;
+  private final AtomicInteger unfinishedTasks = new AtomicInteger();
+
+  /**
+   * Creates a runner.
+   *
+   * @param maxConcurrentTasks how many tasks may run at the same time
+   */
+  public LocalTaskRunner(int maxConcurrentTasks) {
+    executor =
+        new ScheduledThreadPoolExecutor(
+            maxConcurrentTasks,
+            task -> {
+              Thread thread = new Thread(task, LocalTaskRunner.class.getSimpleName());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  public int submit(Map<String, ? extends DeferredTask> tasks, long delayMillis) {
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    for (DeferredTask task : tasks.values()) {
+      unfinishedTasks.incrementAndGet();
+      executor.schedule(
+          () -> {
+            ApiProxy.setEnvironmentForCurrentThread(environment);
+            try {
+              task.run();
+            } finally {
+              ApiProxy.clearEnvironmentForCurrentThread();
+              unfinishedTasks.decrementAndGet();
+            }
+          },
+          delayMillis,
+          TimeUnit.MILLISECONDS);
+    }
+    return tasks.size();
+  }
+
+  /**
+   * Waits for every task that has been submitted so far to finish, including retries that are
+   * submitted while waiting.
+   *
+   * @param timeoutMillis the longest time to wait
+   * @return true if the runner became idle before the timeout
+   */
+  public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (unfinishedTasks.get() > 0) {
+      if (System.currentTimeMillis() >= deadline) {
+        return false;
+      }
+      Thread.sleep(10);
+    }
+    return true;
+  }
+}
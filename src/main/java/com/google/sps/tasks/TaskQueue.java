@@ -0,0 +1,197 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.tasks;
+
+import com.google.appengine.api.taskqueue.DeferredTask;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.utils.SystemProperty;
+import com.google.sps.util.ErrorMessages;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class defers heavy work (e.g. cleaning up after a deleted user) out of user facing requests.
+ * Every task has a name, and a task is not queued again while another task with the same name is
+ * still pending. Runners that deduplicate names themselves (see TaskRunner.deduplicatesNames) are
+ * trusted to do so across instances; for every other runner, the names pending on this instance are
+ * tracked here. Tasks that throw are retried with exponential backoff until they run out of
+ * attempts, at which point the failure is logged and the task is dropped.
+ *
+ * <p>Tasks are run by a pluggable TaskRunner: the App Engine task queue in production and an
+ * in-process thread pool everywhere else. Tasks may be serialized and run on another instance, so
+ * they must only hold serializable state and should look up what they need when they run.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class TaskQueue {
+  private static final Logger LOG = Logger.getLogger(TaskQueue.class.getName());
+  public static final int DEFAULT_MAX_ATTEMPTS = 5;
+  public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(1);
+  public static final int DEFAULT_MAX_CONCURRENT_TASKS = 4;
+
+  private final TaskRunner runner;
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final Set<String> pendingNames = ConcurrentHashMap.newKeySet();
+  private final AtomicLong completedCount = new AtomicLong();
+  private final AtomicLong retryCount = new AtomicLong();
+  private final AtomicLong failureCount = new AtomicLong();
+
+  /**
+   * Creates a queue.
+   *
+   * @param runner the runner that runs the queued tasks
+   * @param maxAttempts how many times a task is run before it is given up on
+   * @param initialBackoffMillis how long to wait before the first retry (doubled for each retry)
+   */
+  public TaskQueue(TaskRunner runner, int maxAttempts, long initialBackoffMillis) {
+    this.runner = runner;
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffMillis = initialBackoffMillis;
+  }
+
+  private static class Holder {
+    private static final TaskQueue INSTANCE =
+        new TaskQueue(
+            SystemProperty.environment.value() == SystemProperty.Environment.Value.Production
+                ? new AppEngineTaskRunner(QueueFactory.getDefaultQueue())
+                : new LocalTaskRunner(DEFAULT_MAX_CONCURRENT_TASKS),
+            DEFAULT_MAX_ATTEMPTS,
+            DEFAULT_INITIAL_BACKOFF_MILLIS);
+  }
+
+  /** Gets the queue shared by every DatastoreAccess created with the default constructor. */
+  public static TaskQueue getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * Queues a task to run in the background.
+   *
+   * @param name the name of the task (e.g. what it works on)
+   * @param task the task to run
+   * @return true if the task was queued, false if a task with the same name is already pending
+   */
+  public boolean enqueue(String name, DeferredTask task) {
+    return enqueueAll(Collections.singletonMap(name, task)) == 1;
+  }
+
+  /**
+   * Queues a batch of tasks to run in the background. The tasks are handed to the runner together.
+   *
+   * @param tasks the tasks to run, keyed by name
+   * @return how many of the tasks were queued (tasks with the name of a pending task are skipped)
+   */
+  public int enqueueAll(Map<String, ? extends DeferredTask> tasks) {
+    Map<String, Attempt> attempts = new LinkedHashMap<>();
+    tasks.forEach(
+        (name, task) -> {
+          if (runner.deduplicatesNames() || pendingNames.add(name)) {
+            attempts.put(name, new Attempt(this, name, task, 1));
+          }
+        });
+    if (attempts.isEmpty()) {
+      return 0;
+    }
+    try {
+      return runner.submit(attempts, 0);
+    } catch (RuntimeException e) {
+      pendingNames.removeAll(attempts.keySet());
+      throw e;
+    }
+  }
+
+  /** Runs an attempt at a task and schedules the next attempt if it fails. */
+  private void run(Attempt attempt) {
+    try {
+      attempt.task.run();
+      pendingNames.remove(attempt.name);
+      completedCount.incrementAndGet();
+    } catch (RuntimeException e) {
+      if (attempt.number < maxAttempts) {
+        retryCount.incrementAndGet();
+        // retries get names of their own since runners may refuse a name that was already used
+        runner.submit(
+            Collections.singletonMap(
+                attempt.name + "-attempt-" + (attempt.number + 1),
+                new Attempt(this, attempt.name, attempt.task, attempt.number + 1)),
+            initialBackoffMillis << (attempt.number - 1));
+      } else {
+        pendingNames.remove(attempt.name);
+        failureCount.incrementAndGet();
+        LOG.log(Level.WARNING, ErrorMessages.backgroundTaskFailed(attempt.name), e);
+      }
+    }
+  }
+
+  /**
+   * Checks if a task with the passed in name is queued or running. Only tasks queued on this
+   * instance through a runner that does not deduplicate names are tracked.
+   *
+   * @param name the name of the task
+   * @return true if the task has not finished or given up yet
+   */
+  public boolean isPending(String name) {
+    return pendingNames.contains(name);
+  }
+
+  public int getPendingCount() {
+    return pendingNames.size();
+  }
+
+  public long getCompletedCount() {
+    return completedCount.get();
+  }
+
+  public long getRetryCount() {
+    return retryCount.get();
+  }
+
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  /**
+   * One attempt at running a named task. When an attempt was serialized and runs on another
+   * instance, it is run through that instance's shared queue.
+   */
+  private static final class Attempt implements DeferredTask {
+    private static final long serialVersionUID = 1L;
+
+    private final transient TaskQueue queue;
+    private final String name;
+    private final DeferredTask task;
+    private final int number;
+
+    private Attempt(TaskQueue queue, String name, DeferredTask task, int number) {
+      this.queue = queue;
+      this.name = name;
+      this.task = task;
+      this.number = number;
+    }
+
+    public void run() {
+      (queue != null ? queue : getInstance()).run(this);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.tasks;
+
+import com.google.appengine.api.taskqueue.DeferredTask;
+import java.util.Map;
+
+/**
+ * This interface is the part of the TaskQueue that actually runs tasks. The App Engine task queue
+ * runs them in production, and an in-process thread pool stands in for it everywhere else.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public interface TaskRunner {
+
+  /**
+   * Hands a batch of named tasks over to be run in the background. Tasks may run in any order and
+   * at the same time as each other.
+   *
+   * @param tasks the tasks to run, keyed by name
+   * @param delayMillis how long to wait before running the tasks
+   * @return how many of the tasks were added (see deduplicatesNames)
+   */
+  int submit(Map<String, ? extends DeferredTask> tasks, long delayMillis);
+
+  /**
+   * Checks if the runner skips tasks whose name was already used, across every instance. When it
+   * does not, the TaskQueue skips tasks whose name is still pending on the current instance.
+   *
+   * @return true if the runner deduplicates task names itself
+   */
+  default boolean deduplicatesNames() {
+    return false;
+  }
+}
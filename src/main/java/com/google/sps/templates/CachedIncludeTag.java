@@ -0,0 +1,96 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.templates;
+
+import com.google.common.collect.ImmutableMap;
+import com.hubspot.jinjava.interpret.IncludeTagCycleException;
+import com.hubspot.jinjava.interpret.InterpretException;
+import com.hubspot.jinjava.interpret.JinjavaInterpreter;
+import com.hubspot.jinjava.interpret.TemplateError;
+import com.hubspot.jinjava.interpret.TemplateSyntaxException;
+import com.hubspot.jinjava.interpret.errorcategory.BasicTemplateErrorCategory;
+import com.hubspot.jinjava.lib.tag.IncludeTag;
+import com.hubspot.jinjava.tree.TagNode;
+import com.hubspot.jinjava.util.HelperStringTokenizer;
+import java.io.IOException;
+
+/**
+ * This tag replaces the default Jinjava include tag. It behaves the same way, except that the
+ * included file is parsed once by the TemplateRegistry instead of on every render.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+class CachedIncludeTag extends IncludeTag {
+  private static final long serialVersionUID = 1L;
+
+  private final transient TemplateRegistry registry;
+
+  CachedIncludeTag(TemplateRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public String interpret(TagNode tagNode, JinjavaInterpreter interpreter) {
+    HelperStringTokenizer helper = new HelperStringTokenizer(tagNode.getHelpers());
+    if (!helper.hasNext()) {
+      throw new TemplateSyntaxException(
+          tagNode.getMaster().getImage(),
+          "Tag 'include' expects template path",
+          tagNode.getLineNumber(),
+          tagNode.getStartPosition());
+    }
+
+    String templateFile =
+        interpreter.resolveResourceLocation(
+            interpreter.resolveString(
+                helper.next().trim(), tagNode.getLineNumber(), tagNode.getStartPosition()));
+
+    try {
+      interpreter
+          .getContext()
+          .getIncludePathStack()
+          .push(templateFile, tagNode.getLineNumber(), tagNode.getStartPosition());
+    } catch (IncludeTagCycleException e) {
+      interpreter.addError(
+          new TemplateError(
+              TemplateError.ErrorType.WARNING,
+              TemplateError.ErrorReason.EXCEPTION,
+              TemplateError.ErrorItem.TAG,
+              "Include cycle detected for path: '" + templateFile + "'",
+              null,
+              tagNode.getLineNumber(),
+              tagNode.getStartPosition(),
+              e,
+              BasicTemplateErrorCategory.INCLUDE_CYCLE_DETECTED,
+              ImmutableMap.of("path", templateFile)));
+      return "";
+    }
+
+    try {
+      interpreter
+          .getContext()
+          .getCurrentPathStack()
+          .push(templateFile, interpreter.getLineNumber(), interpreter.getPosition());
+      return interpreter.render(registry.getIncludedTemplate(templateFile, interpreter));
+    } catch (IOException e) {
+      throw new InterpretException(
+          e.getMessage(), e, tagNode.getLineNumber(), tagNode.getStartPosition());
+    } finally {
+      interpreter.getContext().getIncludePathStack().pop();
+      interpreter.getContext().getCurrentPathStack().pop();
+    }
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.templates;
+
+import com.hubspot.jinjava.interpret.FatalTemplateErrorsException;
+import com.hubspot.jinjava.tree.Node;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * This class represents a page template whose static parts have already been rendered and whose
+ * remaining markup has been parsed into a node tree. Rendering a CompiledTemplate only evaluates
+ * the request-specific parts of the page.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class CompiledTemplate {
+  private final TemplateRegistry registry;
+  private final String source;
+  private final Node root;
+
+  CompiledTemplate(TemplateRegistry registry, String source, Node root) {
+    this.registry = registry;
+    this.source = source;
+    this.root = root;
+  }
+
+  /**
+   * Renders this template with the passed in request context.
+   *
+   * @param context the rendering context for the current request
+   * @return the rendered page
+   */
+  public String render(Map<String, ?> context) {
+    StringWriter writer = new StringWriter();
+    try {
+      renderTo(writer, context);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return writer.toString();
+  }
+
+  /**
+   * Renders this template with the passed in request context directly to a writer. The page is
+   * written in chunks as it is rendered instead of being built up as a single string first. If
+   * rendering fails with a fatal template error, the nodes before the failing one have already been
+   * written.
+   *
+   * @param writer the writer to send the rendered page to
+   * @param context the rendering context for the current request
+   */
+  public void renderTo(Writer writer, Map<String, ?> context) throws IOException {
+    registry.render(this, context, writer);
+  }
+
+  /**
+   * Renders this template with the passed in request context directly to a servlet response. If
+   * rendering fails with a fatal template error while the response is still uncommitted, the part
+   * of the page that is held in the response buffer is discarded so no partial page is sent.
+   *
+   * @param response the response to send the rendered page to
+   * @param context the rendering context for the current request
+   */
+  public void renderTo(HttpServletResponse response, Map<String, ?> context) throws IOException {
+    try {
+      renderTo(response.getWriter(), context);
+    } catch (FatalTemplateErrorsException e) {
+      if (!response.isCommitted()) {
+        response.resetBuffer();
+      }
+      throw e;
+    }
+  }
+
+  String getSource() {
+    return source;
+  }
+
+  Node getRoot() {
+    return root;
+  }
+}
@@ -0,0 +1,191 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.templates;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.google.sps.util.ErrorMessages;
+import com.google.sps.util.ResourceConstants;
+import com.hubspot.jinjava.Jinjava;
+import com.hubspot.jinjava.JinjavaConfig;
+import com.hubspot.jinjava.interpret.Context;
+import com.hubspot.jinjava.interpret.FatalTemplateErrorsException;
+import com.hubspot.jinjava.interpret.JinjavaInterpreter;
+import com.hubspot.jinjava.interpret.TemplateError;
+import com.hubspot.jinjava.loader.FileLocator;
+import com.hubspot.jinjava.tree.Node;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * This class holds the single Jinjava engine shared by every servlet. Each page template under
+ * /templates is compiled once: its static parts (extends and blocks) are rendered with a static
+ * context and the result is parsed into a node tree that is reused for every request. Templates
+ * pulled in with the include tag are also parsed once and shared between all pages.
+ *
+ * <p>Compiled trees are safe to render from many threads at once. Jinjava records what each render
+ * resolved in every context up to the root, so each thread renders against its own root context
+ * instead of the engine's shared global context.
+ *
+ * @author guptamudit
+ * @version 1.0
+ */
+public final class TemplateRegistry {
+  private static final Logger LOG = Logger.getLogger(TemplateRegistry.class.getName());
+
+  private final Jinjava jinjava;
+  private final Map<String, CompiledTemplate> compiledTemplates = new ConcurrentHashMap<>();
+  private final Map<String, Node> includedTemplates = new ConcurrentHashMap<>();
+  private final ThreadLocal<Context> renderRootContexts =
+      ThreadLocal.withInitial(this::newRenderRootContext);
+
+  private TemplateRegistry() {
+    jinjava = new Jinjava(new JinjavaConfig());
+    try {
+      jinjava.setResourceLocator(
+          new FileLocator(
+              new File(TemplateRegistry.class.getResource(ResourceConstants.TEMPLATES).toURI())));
+    } catch (URISyntaxException | FileNotFoundException e) {
+      LOG.severe(ErrorMessages.TEMPLATES_DIRECTORY_NOT_FOUND);
+    }
+    jinjava.getGlobalContext().registerTag(new CachedIncludeTag(this));
+  }
+
+  private Context newRenderRootContext() {
+    Context rootContext = new Context(null, null, jinjava.getGlobalConfig().getDisabled());
+    rootContext.registerTag(new CachedIncludeTag(this));
+    return rootContext;
+  }
+
+  private static class Holder {
+    private static final TemplateRegistry INSTANCE = new TemplateRegistry();
+  }
+
+  /**
+   * Gets the application-wide template registry.
+   *
+   * @return the shared TemplateRegistry
+   */
+  public static TemplateRegistry getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * Gets the compiled version of a page template that needs no static context.
+   *
+   * @param templatePath the resource path of the template (see ResourceConstants)
+   * @return the compiled template or null if the template file could not be loaded
+   */
+  public CompiledTemplate getTemplate(String templatePath) {
+    return getTemplate(templatePath, Collections.emptyMap());
+  }
+
+  /**
+   * Gets the compiled version of a page template. The template is compiled the first time it is
+   * requested, so the static context must be the same for every caller of a given template.
+   *
+   * @param templatePath the resource path of the template (see ResourceConstants)
+   * @param staticContext the context used to render the static parts of the template
+   * @return the compiled template or null if the template file could not be loaded
+   */
+  public CompiledTemplate getTemplate(String templatePath, Map<String, Object> staticContext) {
+    return compiledTemplates.computeIfAbsent(templatePath, path -> compile(path, staticContext));
+  }
+
+  private CompiledTemplate compile(String templatePath, Map<String, Object> staticContext) {
+    URL templateUrl = TemplateRegistry.class.getResource(templatePath);
+    if (templateUrl == null) {
+      LOG.severe(ErrorMessages.templateFileNotFound(templatePath));
+      return null;
+    }
+    try {
+      String template = Resources.toString(templateUrl, Charsets.UTF_8);
+      synchronized (jinjava) {
+        String source = jinjava.render(template, staticContext);
+        return new CompiledTemplate(this, source, jinjava.newInterpreter().parse(source));
+      }
+    } catch (IOException e) {
+      LOG.severe(ErrorMessages.templateFileNotFound(templatePath));
+      return null;
+    }
+  }
+
+  /**
+   * Gets the parsed node tree of a template that is pulled in with the include tag. Each included
+   * file is read and parsed only once.
+   */
+  Node getIncludedTemplate(String templateFile, JinjavaInterpreter interpreter) throws IOException {
+    Node includedTemplate = includedTemplates.get(templateFile);
+    if (includedTemplate == null) {
+      includedTemplate = interpreter.parse(interpreter.getResource(templateFile));
+      includedTemplates.putIfAbsent(templateFile, includedTemplate);
+    }
+    return includedTemplate;
+  }
+
+  /**
+   * Renders a compiled node tree with the passed in context, writing the output of each top-level
+   * node as soon as it is rendered. This mirrors Jinjava.render but skips parsing and never holds
+   * the whole page in memory. A node's output is only written once it rendered without fatal
+   * errors, so the page stops at the node that failed (see CompiledTemplate.renderTo for discarding
+   * what was written before it). Compiled trees have no extends or block tags left in them, so
+   * there are no extend parents or block stubs to resolve.
+   */
+  void render(CompiledTemplate template, Map<String, ?> context, Writer writer) throws IOException {
+    Context rootContext = renderRootContexts.get();
+    JinjavaInterpreter interpreter =
+        new JinjavaInterpreter(
+            jinjava,
+            new Context(rootContext, context, jinjava.getGlobalConfig().getDisabled()),
+            jinjava.getGlobalConfig());
+    JinjavaInterpreter.pushCurrent(interpreter);
+    try {
+      int checkedErrors = 0;
+      for (Node node : template.getRoot().getChildren()) {
+        String output;
+        interpreter.getContext().pushRenderStack(node.getMaster().getImage());
+        try {
+          output = node.render(interpreter).getValue();
+        } finally {
+          interpreter.getContext().popRenderStack();
+        }
+        List<TemplateError> errors = interpreter.getErrors();
+        for (; checkedErrors < errors.size(); checkedErrors++) {
+          if (errors.get(checkedErrors).getSeverity() == TemplateError.ErrorType.FATAL) {
+            throw new FatalTemplateErrorsException(
+                template.getSource(),
+                errors.stream()
+                    .filter(error -> error.getSeverity() == TemplateError.ErrorType.FATAL)
+                    .collect(Collectors.toList()));
+          }
+        }
+        writer.write(output);
+      }
+    } finally {
+      rootContext.reset();
+      JinjavaInterpreter.popCurrent();
+    }
+  }
+}
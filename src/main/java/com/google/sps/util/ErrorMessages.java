@@ -32,6 +32,10 @@ public final class ErrorMessages {
   public static final String BAD_REDIRECT = "Invalid encoded redirection pathname: ";
   public static final String SEEDING_FAILED = "Failed to load fake data";
   public static final String BAD_DATE_PARSE = "Invalid date format";
+  public static final String MENTEE_STATE_FLUSH_FAILED = "Failed to write buffered mentee state";
+  public static final String USER_DELETION_CLEANUP_FAILED =
+      "Failed to clean up after a deleted user";
+  public static final String BACKGROUND_TASK_FAILED = "Background task ran out of attempts: ";
 
   public static String templateFileNotFound(String templateURL) {
     return TEMPLATE_FILE_NOT_FOUND + templateURL;
@@ -40,4 +44,8 @@ public final class ErrorMessages {
   public static String badRedirect(String encodedURL) {
     return BAD_REDIRECT + encodedURL;
   }
+
+  public static String backgroundTaskFailed(String taskName) {
+    return BACKGROUND_TASK_FAILED + taskName;
+  }
 }
@@ -46,6 +46,7 @@ public final class ParameterConstants {
   public static final String PROFILE_PIC_BLOB_KEY = "profilePicBlobKey";
   public static final String USER_TYPE = "userType";
   public static final String IS_FAKE_USER = "isFakeUser";
+  public static final String VERSION = "version";
   public static final String MENTEE_GOAL = "goal";
   public static final String MENTEE_DESIRED_MEETING_FREQUENCY = "desiredMeetingFrequency";
   public static final String MENTEE_DESIRED_MENTOR_TYPE = "desiredMentorType";
@@ -58,6 +59,11 @@ public final class ParameterConstants {
   public static final String MENTOR_FOCUS_LIST = "focusList";
   public static final String MENTOR_TYPE = "mentorType";
 
+  public static final String ENTITY_TYPE_USER_ID_LOOKUP = "UserIDLookup";
+  public static final String USER_KEY = "userKey";
+
+  public static final String ENTITY_TYPE_DELETED_USER = "DeletedUser";
+
   public static final String ENTITY_TYPE_MENTORSHIP_REQUEST = "MentorshipRequest";
   public static final String TO_USER_KEY = "toUserKey";
   public static final String FROM_USER_KEY = "fromUserKey";
@@ -0,0 +1,182 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.util.RandomObjects;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * This test class uses JUnit to test that the AsyncDatastoreAccess reads return the same results as
+ * the matching synchronous DatastoreAccess reads.
+ *
+ * @param JUnit4.class makes the tests run under the JUnit 4 framework
+ * @author guptamudit
+ * @version 1.0
+ */
+@RunWith(JUnit4.class)
+public final class AsyncDatastoreAccessTest {
+  private static final int MENTEE_COUNT = 4;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+  private DatastoreAccess dataAccess;
+  private AsyncDatastoreAccess asyncDataAccess;
+  private Mentor mentor;
+  private List<Mentee> mentees;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    dataAccess = DatastoreAccess.newBuilder().build();
+    asyncDataAccess = AsyncDatastoreAccess.newBuilder().build();
+    mentor = RandomObjects.randomMentor();
+    Assert.assertTrue(dataAccess.createUser(mentor));
+    mentees = new ArrayList<>();
+    for (int i = 0; i < MENTEE_COUNT; i++) {
+      Mentee mentee = RandomObjects.randomMentee();
+      Assert.assertTrue(dataAccess.createUser(mentee));
+      mentees.add(mentee);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    MentorCandidateIndex.getInstance().clear();
+    DatastoreIdAllocator.getInstance().clear();
+    helper.tearDown();
+  }
+
+  @Test
+  public void getUserAsyncTest() {
+    Assert.assertTrue(
+        mentor.looselyEquals(asyncDataAccess.getUserAsync(mentor.getUserID()).join()));
+    Assert.assertTrue(
+        mentor.looselyEquals(asyncDataAccess.getUserAsync(mentor.getDatastoreKey()).join()));
+    Assert.assertNull(asyncDataAccess.getUserAsync("nobody").join());
+    Assert.assertNull(asyncDataAccess.getUserAsync(mentor.getDatastoreKey() + 1000).join());
+  }
+
+  @Test
+  public void resultsAreCompletedOnTheJoiningThreadTest() {
+    CompletableFuture<UserAccount> user = asyncDataAccess.getUserAsync(mentor.getDatastoreKey());
+    AtomicReference<Thread> completingThread = new AtomicReference<>();
+    user.thenRun(() -> completingThread.set(Thread.currentThread()));
+    // nothing waits for the lookup until the result is joined
+    Assert.assertFalse(user.isDone());
+
+    Assert.assertTrue(mentor.looselyEquals(user.join()));
+    Assert.assertSame(Thread.currentThread(), completingThread.get());
+  }
+
+  @Test
+  public void getUserAsyncBackfillsLookupEntityTest() throws EntityNotFoundException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    ds.delete(KeyFactory.createKey("UserIDLookup", mentor.getUserID()));
+
+    Assert.assertTrue(
+        mentor.looselyEquals(asyncDataAccess.getUserAsync(mentor.getUserID()).join()));
+    Assert.assertEquals(
+        mentor.getDatastoreKey(),
+        ds.get(KeyFactory.createKey("UserIDLookup", mentor.getUserID())).getProperty("userKey"));
+  }
+
+  @Test
+  public void getUsersAsyncTest() {
+    List<Long> keys =
+        mentees.stream()
+            .map(Mentee::getDatastoreKey)
+            .collect(Collectors.toCollection(ArrayList::new));
+    keys.add(mentor.getDatastoreKey() + 1000);
+
+    Map<Long, UserAccount> users = asyncDataAccess.getUsersAsync(keys).join();
+    Assert.assertEquals(MENTEE_COUNT, users.size());
+    for (Mentee mentee : mentees) {
+      Assert.assertTrue(mentee.looselyEquals(users.get(mentee.getDatastoreKey())));
+    }
+  }
+
+  @Test
+  public void getMentorMenteeRelationsAsyncTest() {
+    for (Mentee mentee : mentees.subList(0, 2)) {
+      Assert.assertTrue(
+          dataAccess.makeMentorMenteeRelation(mentor.getDatastoreKey(), mentee.getDatastoreKey()));
+    }
+
+    Collection<MentorMenteeRelation> relations =
+        asyncDataAccess.getMentorMenteeRelationsAsync(mentor).join();
+    Assert.assertEquals(
+        menteeKeys(dataAccess.getMentorMenteeRelations(mentor)), menteeKeys(relations));
+    for (MentorMenteeRelation relation : relations) {
+      Assert.assertSame(mentor, relation.getMentor());
+      Assert.assertEquals(relation.getMenteeKey(), relation.getMentee().getDatastoreKey());
+    }
+    Assert.assertEquals(
+        1, asyncDataAccess.getMentorMenteeRelationsAsync(mentees.get(0)).join().size());
+    Assert.assertTrue(
+        asyncDataAccess
+            .getMentorMenteeRelationsAsync(RandomObjects.randomMentor())
+            .join()
+            .isEmpty());
+  }
+
+  @Test
+  public void getRequestsAsyncTest() {
+    for (Mentee mentee : mentees.subList(1, 4)) {
+      Assert.assertTrue(
+          dataAccess.publishRequest(
+              new MentorshipRequest(mentor.getDatastoreKey(), mentee.getDatastoreKey())));
+    }
+
+    CompletableFuture<Collection<MentorshipRequest>> incomingRequests =
+        asyncDataAccess.getIncomingRequestsAsync(mentor);
+    CompletableFuture<Collection<MentorshipRequest>> outgoingRequests =
+        asyncDataAccess.getOutgoingRequestsAsync(mentees.get(1));
+    Assert.assertEquals(3, incomingRequests.join().size());
+    for (MentorshipRequest request : incomingRequests.join()) {
+      Assert.assertSame(mentor, request.getToUser());
+      Assert.assertEquals(request.getFromUserKey(), request.getFromUser().getDatastoreKey());
+    }
+    Assert.assertEquals(1, outgoingRequests.join().size());
+    Assert.assertEquals(
+        mentor.getDatastoreKey(), outgoingRequests.join().iterator().next().getToUserKey());
+    Assert.assertTrue(asyncDataAccess.getOutgoingRequestsAsync(mentees.get(0)).join().isEmpty());
+  }
+
+  private static List<Long> menteeKeys(Collection<MentorMenteeRelation> relations) {
+    return relations.stream()
+        .map(MentorMenteeRelation::getMenteeKey)
+        .sorted(Comparator.naturalOrder())
+        .collect(Collectors.toList());
+  }
+}
@@ -18,10 +18,18 @@ import static com.google.appengine.api.datastore.FetchOptions.Builder.withLimit;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.appengine.api.blobstore.BlobInfo;
@@ -35,10 +43,16 @@ import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.DeferredTask;
 import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.common.collect.Iterables;
+import com.google.sps.tasks.TaskQueue;
+import com.google.sps.util.ParameterConstants;
+import com.google.sps.util.RandomObjects;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -49,6 +63,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -57,6 +72,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.AdditionalAnswers;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -195,6 +211,9 @@ public final class DatastoreAccessTest {
 
   @After
   public void tearDown() {
+    UserIdentityMap.end();
+    MentorCandidateIndex.getInstance().clear();
+    DatastoreIdAllocator.getInstance().clear();
     helper.tearDown();
   }
 
@@ -235,9 +254,7 @@ public final class DatastoreAccessTest {
         entity.getProperty("desiredMeetingFrequency"));
     assertEquals(
         mentee.getDislikedMentorKeys(),
-        entity.getProperty("dislikedMentorKeys") == null
-            ? new HashSet()
-            : new HashSet((Collection) entity.getProperty("dislikedMentorKeys")));
+        MentorKeySet.fromProperty(entity.getProperty("dislikedMentorKeys")));
     assertEquals(
         (String) mentee.getDesiredMentorType().name(), entity.getProperty("desiredMentorType"));
   }
@@ -298,6 +315,50 @@ public final class DatastoreAccessTest {
     assertNull(dataAccess.getUser("1234"));
   }
 
+  @Test
+  public void getUserByUserIdUsesLookupEntityTest() throws EntityNotFoundException {
+    DatastoreService ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    DataAccess lookupDataAccess = DatastoreAccess.newBuilder().datastoreService(ds).build();
+    assertTrue(lookupDataAccess.createUser(defaultMentee));
+    Entity lookupEntity = ds.get(KeyFactory.createKey("UserIDLookup", "101"));
+    assertEquals(defaultMentee.getDatastoreKey(), lookupEntity.getProperty("userKey"));
+    assertTrue(defaultMentee.looselyEquals(lookupDataAccess.getUser("101")));
+    verify(ds, never()).prepare(any(Query.class));
+    assertTrue(lookupDataAccess.deleteUser(defaultMentee));
+    assertEquals(0, ds.prepare(new Query("UserIDLookup")).countEntities(withLimit(10)));
+  }
+
+  @Test
+  public void getUserByUserIdBackfillsLookupEntityTest() throws EntityNotFoundException {
+    DatastoreService ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    DataAccess lookupDataAccess = DatastoreAccess.newBuilder().datastoreService(ds).build();
+    ds.put(defaultMenteeEntity);
+    assertNotNull(lookupDataAccess.getUser("101"));
+    assertNotNull(lookupDataAccess.getUser("101"));
+    verify(ds, times(1)).prepare(any(Query.class));
+    assertEquals(
+        defaultMenteeEntity.getKey().getId(),
+        ds.get(KeyFactory.createKey("UserIDLookup", "101")).getProperty("userKey"));
+  }
+
+  @Test
+  public void updateUserMovesLookupEntityTest() throws EntityNotFoundException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    assertTrue(dataAccess.createUser(defaultMentee));
+    Entity menteeEntity = defaultMentee.convertToEntity();
+    menteeEntity.setProperty("userID", "102");
+    assertTrue(dataAccess.updateUser(new Mentee(menteeEntity)));
+    assertNull(dataAccess.getUser("101"));
+    assertEquals(defaultMentee.getDatastoreKey(), dataAccess.getUser("102").getDatastoreKey());
+    assertEquals(1, ds.prepare(new Query("UserIDLookup")).countEntities(withLimit(10)));
+  }
+
   @Test
   public void getUserByDatastoreKeyTest() {
     Key key = KeyFactory.createKey("UserAccount", 1234);
@@ -584,6 +645,255 @@ public final class DatastoreAccessTest {
     assertEquals(1, ds.prepare(new Query("UserAccount")).countEntities(withLimit(10)));
   }
 
+  @Test
+  public void getUserWithinRequestScopeReadsOnceTest() throws EntityNotFoundException {
+    DatastoreService ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    DataAccess scopedDataAccess = DatastoreAccess.newBuilder().datastoreService(ds).build();
+    Key key = KeyFactory.createKey("UserAccount", 1234);
+    Entity entity = new Entity(key);
+    entity.setPropertiesFrom(defaultMenteeEntity);
+    ds.put(entity);
+    UserIdentityMap.begin();
+    UserAccount user = scopedDataAccess.getUser(1234);
+    assertNotNull(user);
+    assertSame(user, scopedDataAccess.getUser(1234));
+    assertSame(user, scopedDataAccess.getMentee(1234));
+    assertSame(user, scopedDataAccess.getUser("101"));
+    assertNull(scopedDataAccess.getMentor(1234));
+    verify(ds, times(1)).get(key);
+    verify(ds, never()).prepare(any(Query.class));
+  }
+
+  @Test
+  public void getUserWithinRequestScopeRemembersMissingUsersTest() throws EntityNotFoundException {
+    DatastoreService ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    DataAccess scopedDataAccess = DatastoreAccess.newBuilder().datastoreService(ds).build();
+    UserIdentityMap.begin();
+    assertNull(scopedDataAccess.getUser("1234"));
+    assertNull(scopedDataAccess.getUser("1234"));
+    assertNull(scopedDataAccess.getUser(1234));
+    assertNull(scopedDataAccess.getUser(1234));
+    verify(ds, times(1)).prepare(any(Query.class));
+    verify(ds, times(1)).get(KeyFactory.createKey("UserAccount", 1234));
+  }
+
+  @Test
+  public void existenceChecksReuseUsersLoadedInRequestScopeTest() throws EntityNotFoundException {
+    DatastoreService ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    DataAccess scopedDataAccess = DatastoreAccess.newBuilder().datastoreService(ds).build();
+    ds.put(Arrays.asList(defaultMentorEntity, defaultMenteeEntity));
+    long mentorKey = defaultMentorEntity.getKey().getId();
+    long menteeKey = defaultMenteeEntity.getKey().getId();
+    UserIdentityMap.begin();
+    Mentee mentee = scopedDataAccess.getMentee(menteeKey);
+    Mentor mentor = scopedDataAccess.getMentor(mentorKey);
+    assertFalse(scopedDataAccess.makeMentorMenteeRelation(menteeKey, mentorKey));
+    assertTrue(scopedDataAccess.dislikeMentor(mentee, mentor));
+    assertTrue(scopedDataAccess.makeMentorMenteeRelation(mentorKey, menteeKey));
+    verify(ds, times(1)).get(defaultMentorEntity.getKey());
+    verify(ds, times(1)).get(defaultMenteeEntity.getKey());
+  }
+
+  @Test
+  public void existenceChecksRejectWrongUserTypesTest() {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    ds.put(Arrays.asList(defaultMentorEntity, defaultMenteeEntity));
+    Mentor mentor = new Mentor(defaultMentorEntity);
+    // a mentee object that claims the key of the stored mentor
+    Entity misplacedMenteeEntity = new Entity(defaultMentorEntity.getKey());
+    misplacedMenteeEntity.setPropertiesFrom(defaultMenteeEntity);
+    assertFalse(
+        dataAccess.makeMentorMenteeRelation(
+            defaultMenteeEntity.getKey().getId(), defaultMentorEntity.getKey().getId()));
+    assertFalse(dataAccess.dislikeMentor(new Mentee(misplacedMenteeEntity), mentor));
+    assertTrue(dataAccess.dislikeMentor(new Mentee(defaultMenteeEntity), mentor));
+  }
+
+  @Test
+  public void getUserReadsThroughUserCacheTest() throws EntityNotFoundException {
+    DatastoreService ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    UserAccountCache userCache =
+        new UserAccountCache(UserAccountCache.DEFAULT_MAX_WEIGHT_BYTES, 60_000, null);
+    DataAccess cachedDataAccess =
+        DatastoreAccess.newBuilder().datastoreService(ds).userCache(userCache).build();
+    assertTrue(cachedDataAccess.createUser(defaultMentee));
+    assertTrue(cachedDataAccess.createUser(defaultMentor));
+    Key menteeKey = KeyFactory.createKey("UserAccount", defaultMentee.getDatastoreKey());
+    for (int i = 0; i < 3; i++) {
+      assertTrue(defaultMentee.looselyEquals(cachedDataAccess.getUser("101")));
+      assertTrue(defaultMentee.looselyEquals(cachedDataAccess.getMentee(menteeKey.getId())));
+    }
+    // once when createUser checks for an existing user and once for the first read
+    verify(ds, times(2)).get(menteeKey);
+    verify(ds, times(1)).get(KeyFactory.createKey("UserIDLookup", "101"));
+    assertEquals(7, userCache.getHitCount());
+
+    Mentee mentee = cachedDataAccess.getMentee(menteeKey.getId());
+    assertTrue(cachedDataAccess.dislikeMentor(mentee, defaultMentor));
+    assertTrue(
+        cachedDataAccess
+            .getMentee(menteeKey.getId())
+            .getDislikedMentorKeys()
+            .contains(defaultMentor.getDatastoreKey()));
+    assertTrue(cachedDataAccess.deleteUser(defaultMentee));
+    assertNull(cachedDataAccess.getUser("101"));
+    assertNull(cachedDataAccess.getUser(menteeKey.getId()));
+  }
+
+  @Test
+  public void updateUserWithinRequestScopeTest() {
+    assertTrue(dataAccess.createUser(defaultMentee));
+    UserIdentityMap.begin();
+    Mentee mentee = dataAccess.getMentee(defaultMentee.getDatastoreKey());
+    mentee.setName("Thomas");
+    assertTrue(dataAccess.updateUser(mentee));
+    assertSame(mentee, dataAccess.getUser("101"));
+    assertEquals("Thomas", dataAccess.getUser(defaultMentee.getDatastoreKey()).getName());
+  }
+
+  @Test
+  public void updateUserOnlyWritesChangedUsersTest() throws EntityNotFoundException {
+    DatastoreService ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    DataAccess trackingDataAccess = DatastoreAccess.newBuilder().datastoreService(ds).build();
+    assertTrue(trackingDataAccess.createUser(defaultMentee));
+    assertFalse(defaultMentee.isDirty());
+    Mentee mentee = trackingDataAccess.getMentee(defaultMentee.getDatastoreKey());
+    assertFalse(mentee.isDirty());
+    assertTrue(trackingDataAccess.updateUser(mentee));
+    verify(ds, never()).put(any(Entity.class));
+
+    mentee.setEncodedCursor("cursor");
+    assertEquals(
+        Collections.singleton(ParameterConstants.ENCODED_CURSOR), mentee.getDirtyProperties());
+    assertTrue(trackingDataAccess.updateUser(mentee));
+    assertFalse(mentee.isDirty());
+    // the userID did not change, so only the user entity is written and not its lookup entity
+    verify(ds, never()).put(any(Entity.class));
+    verify(ds, times(1)).put(anyIterable());
+    verify(ds, times(1))
+        .put(
+            any(Transaction.class),
+            argThat((Iterable<Entity> entities) -> Iterables.size(entities) == 1));
+    Entity menteeEntity =
+        ds.get(KeyFactory.createKey("UserAccount", defaultMentee.getDatastoreKey()));
+    assertEquals("cursor", menteeEntity.getProperty(ParameterConstants.ENCODED_CURSOR));
+    assertTrue(menteeEntity.isUnindexedProperty(ParameterConstants.ENCODED_CURSOR));
+  }
+
+  @Test
+  public void mergedServedMentorsLeaveOutDislikedMentorsTest() throws EntityNotFoundException {
+    Mentor otherMentor = RandomObjects.randomMentor();
+    assertTrue(dataAccess.createUser(defaultMentee));
+    assertTrue(dataAccess.createUser(defaultMentor));
+    assertTrue(dataAccess.createUser(otherMentor));
+    Mentee servingCopy = dataAccess.getMentee(defaultMentee.getDatastoreKey());
+    servingCopy.saveServedMentorKey(defaultMentor.getDatastoreKey());
+    assertTrue(dataAccess.updateUser(servingCopy));
+
+    Mentee firstCopy = dataAccess.getMentee(defaultMentee.getDatastoreKey());
+    Mentee secondCopy = dataAccess.getMentee(defaultMentee.getDatastoreKey());
+    // disliking the mentor removes them from the first copy's served window
+    assertTrue(dataAccess.dislikeMentor(firstCopy, defaultMentor));
+    // the second copy still has the mentor in its window when it is merged into the stored one
+    secondCopy.saveServedMentorKey(otherMentor.getDatastoreKey());
+    assertTrue(dataAccess.updateUser(secondCopy));
+
+    Mentee storedMentee =
+        new Mentee(
+            DatastoreServiceFactory.getDatastoreService()
+                .get(KeyFactory.createKey("UserAccount", defaultMentee.getDatastoreKey())));
+    long nowMillis = System.currentTimeMillis();
+    assertTrue(storedMentee.getDislikedMentorKeys().contains(defaultMentor.getDatastoreKey()));
+    assertFalse(
+        storedMentee.getServedMentors().contains(defaultMentor.getDatastoreKey(), nowMillis));
+    assertTrue(storedMentee.getServedMentors().contains(otherMentor.getDatastoreKey(), nowMillis));
+  }
+
+  @Test
+  public void servedMentorsChangeOnlyThroughTheMenteeTest() throws EntityNotFoundException {
+    assertTrue(dataAccess.createUser(defaultMentee));
+    assertTrue(dataAccess.createUser(defaultMentor));
+    Mentee mentee = dataAccess.getMentee(defaultMentee.getDatastoreKey());
+    long nowMillis = System.currentTimeMillis();
+    // changing the returned window does not change the mentee without marking it dirty
+    mentee.getServedMentors().add(defaultMentor.getDatastoreKey(), nowMillis);
+    assertFalse(mentee.getServedMentors().contains(defaultMentor.getDatastoreKey(), nowMillis));
+
+    mentee.saveServedMentorKey(defaultMentor.getDatastoreKey());
+    assertTrue(dataAccess.updateUser(mentee));
+
+    Mentee storedMentee =
+        new Mentee(
+            DatastoreServiceFactory.getDatastoreService()
+                .get(KeyFactory.createKey("UserAccount", defaultMentee.getDatastoreKey())));
+    assertTrue(
+        storedMentee.getServedMentors().contains(defaultMentor.getDatastoreKey(), nowMillis));
+
+    mentee.clearServedMentors();
+    assertTrue(dataAccess.updateUser(mentee));
+    storedMentee =
+        new Mentee(
+            DatastoreServiceFactory.getDatastoreService()
+                .get(KeyFactory.createKey("UserAccount", defaultMentee.getDatastoreKey())));
+    assertEquals(0, storedMentee.getServedMentors().size());
+  }
+
+  @Test
+  public void concurrentBrowsingStateWritesAreMergedTest() throws EntityNotFoundException {
+    Mentor otherMentor = RandomObjects.randomMentor();
+    assertTrue(dataAccess.createUser(defaultMentee));
+    assertTrue(dataAccess.createUser(defaultMentor));
+    assertTrue(dataAccess.createUser(otherMentor));
+    Mentee firstCopy = dataAccess.getMentee(defaultMentee.getDatastoreKey());
+    Mentee secondCopy = dataAccess.getMentee(defaultMentee.getDatastoreKey());
+    assertNotSame(firstCopy, secondCopy);
+    long version = firstCopy.getVersion();
+    long staleWriteCount = OptimisticUserWriter.getInstance().getStaleWriteCount();
+
+    assertTrue(dataAccess.dislikeMentor(firstCopy, defaultMentor));
+    assertEquals(version + 1, firstCopy.getVersion());
+    // the second copy was read before the first write, so it is merged into the stored version
+    assertTrue(dataAccess.dislikeMentor(secondCopy, otherMentor));
+    assertEquals(version + 2, secondCopy.getVersion());
+    assertEquals(staleWriteCount + 1, OptimisticUserWriter.getInstance().getStaleWriteCount());
+
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Entity menteeEntity =
+        ds.get(KeyFactory.createKey("UserAccount", defaultMentee.getDatastoreKey()));
+    assertEquals(version + 2, UserAccount.versionOf(menteeEntity));
+    MentorKeySet dislikedMentorKeys =
+        MentorKeySet.fromProperty(
+            menteeEntity.getProperty(ParameterConstants.MENTEE_DISLIKED_MENTOR_KEYS));
+    assertTrue(dislikedMentorKeys.contains(defaultMentor.getDatastoreKey()));
+    assertTrue(dislikedMentorKeys.contains(otherMentor.getDatastoreKey()));
+  }
+
+  @Test
+  public void createAndDeleteUserWithinRequestScopeTest() {
+    UserIdentityMap.begin();
+    assertNull(dataAccess.getUser("101"));
+    assertTrue(dataAccess.createUser(defaultMentee));
+    assertSame(defaultMentee, dataAccess.getUser("101"));
+    assertTrue(dataAccess.deleteUser(defaultMentee));
+    assertNull(dataAccess.getUser("101"));
+    assertNull(dataAccess.getUser(defaultMentee.getDatastoreKey()));
+  }
+
   @Test
   public void getRelatedMentorsForNonexistentMenteeTest() {
     DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
@@ -626,6 +936,112 @@ public final class DatastoreAccessTest {
         mentors.stream().map(mentor -> mentor.getUserID()).collect(Collectors.toSet()));
   }
 
+  @Test
+  public void getRelatedMentorsPagesThroughCandidateIndexTest() {
+    DatastoreService ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    DataAccess indexedDataAccess = DatastoreAccess.newBuilder().datastoreService(ds).build();
+    List<Entity> mentorEntities = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      Entity mentorEntity = new Entity("UserAccount");
+      mentorEntity.setPropertiesFrom(defaultMentorEntity);
+      mentorEntity.setProperty("userID", "2" + i);
+      mentorEntities.add(mentorEntity);
+    }
+    ds.put(mentorEntities);
+    ds.put(defaultMenteeEntity);
+    Mentee mentee = new Mentee(defaultMenteeEntity);
+    Collection<Mentor> firstPage = indexedDataAccess.getRelatedMentors(mentee);
+    assertEquals(20, firstPage.size());
+    assertEquals(20, mentee.getServedMentorKeys().size());
+    Set<Long> firstPageKeys = new HashSet<>(mentee.getServedMentorKeys());
+    Collection<Mentor> secondPage = indexedDataAccess.getRelatedMentors(mentee);
+    assertEquals(20, secondPage.size());
+    Set<Long> newMentorKeys =
+        secondPage.stream()
+            .map(Mentor::getDatastoreKey)
+            .filter(key -> !firstPageKeys.contains(key))
+            .collect(Collectors.toSet());
+    assertEquals(5, newMentorKeys.size());
+    assertEquals(25, mentee.getServedMentorKeys().size());
+    verify(ds, times(1)).prepare(argThat((Query query) -> query.getKind().equals("UserAccount")));
+  }
+
+  @Test
+  public void getRelatedMentorsRanksMostSimilarFirstTest() {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Entity differentMentorEntity = new Entity("UserAccount");
+    differentMentorEntity.setPropertiesFrom(defaultMentorEntity);
+    differentMentorEntity.setProperty("userID", "201");
+    differentMentorEntity.setProperty("gender", Gender.FEMALE.name());
+    differentMentorEntity.setProperty("firstGen", true);
+    Entity similarMentorEntity = new Entity("UserAccount");
+    similarMentorEntity.setPropertiesFrom(defaultMentorEntity);
+    similarMentorEntity.setProperty("userID", "202");
+    ds.put(Arrays.asList(differentMentorEntity, similarMentorEntity));
+    ds.put(defaultMenteeEntity);
+    List<Mentor> mentors =
+        new ArrayList<>(dataAccess.getRelatedMentors(new Mentee(defaultMenteeEntity)));
+    assertEquals(2, mentors.size());
+    assertEquals("202", mentors.get(0).getUserID());
+    assertEquals("201", mentors.get(1).getUserID());
+  }
+
+  @Test
+  public void getRelatedMentorsSkipsBlockedMentorsTest() {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    List<Entity> mentorEntities = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Entity mentorEntity = new Entity("UserAccount");
+      mentorEntity.setPropertiesFrom(defaultMentorEntity);
+      mentorEntity.setProperty("userID", "20" + i);
+      mentorEntities.add(mentorEntity);
+    }
+    ds.put(mentorEntities);
+    Entity menteeEntity = new Entity("UserAccount");
+    menteeEntity.setPropertiesFrom(defaultMenteeEntity);
+    menteeEntity.setProperty(
+        "dislikedMentorKeys", Arrays.asList(mentorEntities.get(0).getKey().getId()));
+    ds.put(menteeEntity);
+    Entity requestEntity = new Entity("MentorshipRequest");
+    requestEntity.setProperty("toUserKey", mentorEntities.get(1).getKey().getId());
+    requestEntity.setProperty("fromUserKey", menteeEntity.getKey().getId());
+    ds.put(requestEntity);
+    ds.put(
+        new MentorMenteeRelation(
+                mentorEntities.get(2).getKey().getId(), menteeEntity.getKey().getId())
+            .convertToEntity());
+    Mentee mentee = new Mentee(menteeEntity);
+    Collection<Mentor> mentors = dataAccess.getRelatedMentors(mentee);
+    assertEquals(1, mentors.size());
+    assertEquals("203", mentors.iterator().next().getUserID());
+    mentors = dataAccess.getRelatedMentors(mentee);
+    assertEquals(1, mentors.size());
+    assertEquals("203", mentors.iterator().next().getUserID());
+  }
+
+  @Test
+  public void mentorCandidateIndexTracksUserWritesTest() {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    MentorCandidateIndex index = MentorCandidateIndex.getInstance();
+    assertTrue(index.getCandidates(MentorType.TUTOR, ds).isEmpty());
+    assertTrue(dataAccess.createUser(defaultMentor));
+    long mentorKey = defaultMentor.getDatastoreKey();
+    assertTrue(index.getCandidates(MentorType.TUTOR, ds).containsKey(mentorKey));
+
+    Entity hiddenMentorEntity = defaultMentor.convertToEntity();
+    hiddenMentorEntity.setProperty("visibility", false);
+    assertTrue(dataAccess.updateUser(new Mentor(hiddenMentorEntity)));
+    assertFalse(index.getCandidates(MentorType.TUTOR, ds).containsKey(mentorKey));
+
+    assertTrue(dataAccess.updateUser(defaultMentor));
+    assertTrue(index.getCandidates(MentorType.TUTOR, ds).containsKey(mentorKey));
+    assertTrue(dataAccess.deleteUser(defaultMentor));
+    assertFalse(index.getCandidates(MentorType.TUTOR, ds).containsKey(mentorKey));
+  }
+
   @Test
   public void getIncomingRequestsForNonexistentUserTest() {
     DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
@@ -754,6 +1170,72 @@ public final class DatastoreAccessTest {
     assertEquals(menteeEntity1.getKey().getId(), requests.get(1).getFromUserKey());
   }
 
+  @Test
+  public void getIncomingRequestsHydratesSendersInOneBatchTest() {
+    DatastoreService ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    DataAccess batchedDataAccess = DatastoreAccess.newBuilder().datastoreService(ds).build();
+    Entity menteeEntity1 = new Entity("UserAccount");
+    menteeEntity1.setPropertiesFrom(defaultMenteeEntity);
+    menteeEntity1.setProperty("userID", "301");
+    Entity menteeEntity2 = new Entity("UserAccount");
+    menteeEntity2.setPropertiesFrom(defaultMenteeEntity);
+    menteeEntity2.setProperty("userID", "302");
+    ds.put(Arrays.asList(defaultMentorEntity, menteeEntity1, menteeEntity2));
+    List<Entity> requestEntities = new ArrayList<>();
+    for (Entity menteeEntity : Arrays.asList(menteeEntity1, menteeEntity2, menteeEntity1)) {
+      Entity requestEntity = new Entity("MentorshipRequest");
+      requestEntity.setProperty("toUserKey", defaultMentorEntity.getKey().getId());
+      requestEntity.setProperty("fromUserKey", menteeEntity.getKey().getId());
+      requestEntities.add(requestEntity);
+    }
+    ds.put(requestEntities);
+    Mentor mentor = new Mentor(defaultMentorEntity);
+    Collection<MentorshipRequest> requests = batchedDataAccess.getIncomingRequests(mentor);
+    assertEquals(3, requests.size());
+    for (MentorshipRequest request : requests) {
+      assertSame(mentor, request.getToUser());
+      assertNotNull(request.getFromUser());
+      assertEquals(request.getFromUserKey(), request.getFromUser().getDatastoreKey());
+    }
+    verify(ds, times(1)).get(anyIterable());
+  }
+
+  @Test
+  public void getOutgoingRequestsHydratesReceiversTest() {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Entity mentorEntity1 = new Entity("UserAccount");
+    mentorEntity1.setPropertiesFrom(defaultMentorEntity);
+    mentorEntity1.setProperty("userID", "201");
+    ds.put(Arrays.asList(defaultMenteeEntity, mentorEntity1));
+    Entity requestEntity = new Entity("MentorshipRequest");
+    requestEntity.setProperty("toUserKey", mentorEntity1.getKey().getId());
+    requestEntity.setProperty("fromUserKey", defaultMenteeEntity.getKey().getId());
+    ds.put(requestEntity);
+    Mentee mentee = new Mentee(defaultMenteeEntity);
+    ArrayList<MentorshipRequest> requests = new ArrayList<>(dataAccess.getOutgoingRequests(mentee));
+    assertEquals(1, requests.size());
+    assertSame(mentee, requests.get(0).getFromUser());
+    assertEquals(mentorEntity1.getKey().getId(), requests.get(0).getToUser().getDatastoreKey());
+    assertEquals("201", requests.get(0).getToUser().getUserID());
+  }
+
+  @Test
+  public void getUsersTest() {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    ds.put(Arrays.asList(defaultMenteeEntity, defaultMentorEntity));
+    long menteeKey = defaultMenteeEntity.getKey().getId();
+    long mentorKey = defaultMentorEntity.getKey().getId();
+    Map<Long, UserAccount> users =
+        dataAccess.getUsers(Arrays.asList(menteeKey, mentorKey, menteeKey, 1234L));
+    assertEquals(2, users.size());
+    assertEquals("101", users.get(menteeKey).getUserID());
+    assertEquals("102", users.get(mentorKey).getUserID());
+    assertNull(users.get(1234L));
+  }
+
   @Test
   public void dislikeMentorNonexistentMenteeTest() {
     DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
@@ -907,6 +1389,81 @@ public final class DatastoreAccessTest {
     assertFalse(dataAccess.publishRequest(request));
   }
 
+  @Test
+  public void publishRequestRetryCollapsesToOneRequestTest() {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Entity mentorEntity1 = new Entity("UserAccount");
+    mentorEntity1.setPropertiesFrom(defaultMentorEntity);
+    mentorEntity1.setProperty("userID", "201");
+    Entity menteeEntity1 = new Entity("UserAccount");
+    menteeEntity1.setPropertiesFrom(defaultMenteeEntity);
+    menteeEntity1.setProperty("userID", "301");
+    ds.put(Arrays.asList(mentorEntity1, menteeEntity1));
+    long mentorKey = mentorEntity1.getKey().getId();
+    long menteeKey = menteeEntity1.getKey().getId();
+    MentorshipRequest request = new MentorshipRequest(mentorKey, menteeKey);
+    MentorshipRequest retriedRequest = new MentorshipRequest(mentorKey, menteeKey);
+    assertEquals(request.getDatastoreKey(), retriedRequest.getDatastoreKey());
+    assertEquals(
+        request.getDatastoreKey(),
+        new MentorMenteeRelation(mentorKey, menteeKey).getDatastoreKey());
+    assertTrue(dataAccess.publishRequest(request));
+    assertFalse(dataAccess.publishRequest(retriedRequest));
+    assertEquals(1, ds.prepare(new Query("MentorshipRequest")).countEntities(withLimit(10)));
+  }
+
+  @Test
+  public void makeMentorMenteeRelationChecksExistingRelationByKeyTest()
+      throws EntityNotFoundException {
+    DatastoreService ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    DataAccess keyedDataAccess = DatastoreAccess.newBuilder().datastoreService(ds).build();
+    ds.put(Arrays.asList(defaultMentorEntity, defaultMenteeEntity));
+    long mentorKey = defaultMentorEntity.getKey().getId();
+    long menteeKey = defaultMenteeEntity.getKey().getId();
+    assertTrue(keyedDataAccess.makeMentorMenteeRelation(mentorKey, menteeKey));
+    assertFalse(keyedDataAccess.makeMentorMenteeRelation(mentorKey, menteeKey));
+    // only the first check misses the derived key and looks for a relation with an allocated ID
+    verify(ds, times(1))
+        .prepare(argThat((Query query) -> query.getKind().equals("MentorMenteeRelation")));
+    verify(ds, times(2))
+        .get(
+            KeyFactory.createKey(
+                "MentorMenteeRelation",
+                MentorMenteeRelation.datastoreKeyFor(mentorKey, menteeKey)));
+  }
+
+  @Test
+  public void linksWithAllocatedIDsAreStillFoundTest() throws EntityNotFoundException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    ds.put(Arrays.asList(defaultMentorEntity, defaultMenteeEntity));
+    long mentorKey = defaultMentorEntity.getKey().getId();
+    long menteeKey = defaultMenteeEntity.getKey().getId();
+    // links written before their keys were derived from the pair of users
+    Entity legacyRequest = new Entity("MentorshipRequest");
+    legacyRequest.setProperty(ParameterConstants.TO_USER_KEY, mentorKey);
+    legacyRequest.setProperty(ParameterConstants.FROM_USER_KEY, menteeKey);
+    Entity legacyRelation = new Entity("MentorMenteeRelation");
+    legacyRelation.setProperty(ParameterConstants.MENTOR_KEY, mentorKey);
+    legacyRelation.setProperty(ParameterConstants.MENTEE_KEY, menteeKey);
+    ds.put(Arrays.asList(legacyRequest, legacyRelation));
+
+    assertFalse(dataAccess.publishRequest(new MentorshipRequest(mentorKey, menteeKey)));
+    assertFalse(dataAccess.publishRequest(new MentorshipRequest(menteeKey, mentorKey)));
+    assertFalse(dataAccess.makeMentorMenteeRelation(mentorKey, menteeKey));
+    assertEquals(1, ds.prepare(new Query("MentorshipRequest")).countEntities(withLimit(10)));
+    assertEquals(1, ds.prepare(new Query("MentorMenteeRelation")).countEntities(withLimit(10)));
+
+    assertTrue(dataAccess.deleteRequest(new MentorshipRequest(mentorKey, menteeKey)));
+    assertTrue(
+        dataAccess.deleteMentorMenteeRelation(new MentorMenteeRelation(mentorKey, menteeKey)));
+    assertEquals(0, ds.prepare(new Query("MentorshipRequest")).countEntities(withLimit(10)));
+    assertEquals(0, ds.prepare(new Query("MentorMenteeRelation")).countEntities(withLimit(10)));
+    assertTrue(dataAccess.publishRequest(new MentorshipRequest(mentorKey, menteeKey)));
+  }
+
   @Test
   public void getMentorshipRequestID0Test() {
     assertNull(dataAccess.getMentorshipRequest(0));
@@ -1222,6 +1779,186 @@ public final class DatastoreAccessTest {
     assertTrue(new Mentor(mentorEntity1).looselyEquals(createdRelations.get(0).getMentor()));
   }
 
+  @Test
+  public void getMentorMenteeRelationsHydratesInOneBatchTest() {
+    DatastoreService ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    DataAccess batchedDataAccess = DatastoreAccess.newBuilder().datastoreService(ds).build();
+    List<Entity> menteeEntities = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      Entity menteeEntity = new Entity("UserAccount");
+      menteeEntity.setPropertiesFrom(defaultMenteeEntity);
+      menteeEntity.setProperty("userID", "30" + i);
+      menteeEntities.add(menteeEntity);
+    }
+    ds.put(defaultMentorEntity);
+    ds.put(menteeEntities);
+    List<Entity> relationEntities = new ArrayList<>();
+    for (Entity menteeEntity : menteeEntities) {
+      relationEntities.add(
+          new MentorMenteeRelation(
+                  defaultMentorEntity.getKey().getId(), menteeEntity.getKey().getId())
+              .convertToEntity());
+    }
+    ds.put(relationEntities);
+    Mentor mentor = new Mentor(defaultMentorEntity);
+    Collection<MentorMenteeRelation> relations = batchedDataAccess.getMentorMenteeRelations(mentor);
+    assertEquals(5, relations.size());
+    for (MentorMenteeRelation relation : relations) {
+      assertSame(mentor, relation.getMentor());
+      assertEquals(relation.getMenteeKey(), relation.getMentee().getDatastoreKey());
+    }
+    verify(ds, times(1)).get(anyIterable());
+  }
+
+  @Test
+  public void deleteUserDeletesDependentsInOneBatchTest() {
+    DatastoreService ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    DataAccess batchedDataAccess = DatastoreAccess.newBuilder().datastoreService(ds).build();
+    Entity mentorEntity1 = new Entity("UserAccount");
+    mentorEntity1.setPropertiesFrom(defaultMentorEntity);
+    mentorEntity1.setProperty("userID", "201");
+    ds.put(Arrays.asList(defaultMenteeEntity, defaultMentorEntity, mentorEntity1));
+    long menteeKey = defaultMenteeEntity.getKey().getId();
+    ds.put(
+        Arrays.asList(
+            new MentorshipRequest(mentorEntity1.getKey().getId(), menteeKey).convertToEntity(),
+            new MentorshipRequest(menteeKey, mentorEntity1.getKey().getId()).convertToEntity(),
+            new MentorMenteeRelation(defaultMentorEntity.getKey().getId(), menteeKey)
+                .convertToEntity()));
+    assertTrue(batchedDataAccess.deleteUser(new Mentee(defaultMenteeEntity)));
+    verify(ds, never()).prepare(argThat((Query query) -> !query.isKeysOnly()));
+    assertEquals(2, ds.prepare(new Query("UserAccount")).countEntities(withLimit(10)));
+    assertEquals(0, ds.prepare(new Query("MentorshipRequest")).countEntities(withLimit(10)));
+    assertEquals(0, ds.prepare(new Query("MentorMenteeRelation")).countEntities(withLimit(10)));
+    assertEquals(0, ds.prepare(new Query("DeletedUser")).countEntities(withLimit(10)));
+    verify(ds, times(1)).delete(anyIterable());
+    verify(ds, times(1)).delete(any(Key.class));
+  }
+
+  @Test
+  public void deleteUserDeletesProfilePictureTest() {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    defaultMenteeEntity.setProperty("profilePicBlobKey", "profile-pic");
+    ds.put(defaultMenteeEntity);
+    assertTrue(dataAccess.deleteUser(new Mentee(defaultMenteeEntity)));
+    verify(blobstoreService, times(1)).delete(new BlobKey("profile-pic"));
+    assertNull(dataAccess.getUser("101"));
+    assertEquals(0, ds.prepare(new Query("DeletedUser")).countEntities(withLimit(10)));
+  }
+
+  @Test
+  public void deleteUserDefersCleanupToTaskQueueTest() {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    List<DeferredTask> queuedTasks = new ArrayList<>();
+    TaskQueue taskQueue =
+        new TaskQueue(
+            (tasks, delayMillis) -> {
+              queuedTasks.addAll(tasks.values());
+              return tasks.size();
+            },
+            1,
+            0);
+    DataAccess queuedDataAccess = DatastoreAccess.newBuilder().taskQueue(taskQueue).build();
+    ds.put(Arrays.asList(defaultMenteeEntity, defaultMentorEntity));
+    ds.put(
+        new MentorshipRequest(
+                defaultMentorEntity.getKey().getId(), defaultMenteeEntity.getKey().getId())
+            .convertToEntity());
+    ds.put(
+        new MentorMenteeRelation(
+                defaultMentorEntity.getKey().getId(), defaultMenteeEntity.getKey().getId())
+            .convertToEntity());
+    assertTrue(queuedDataAccess.deleteUser(new Mentee(defaultMenteeEntity)));
+    assertNull(queuedDataAccess.getUser(defaultMenteeEntity.getKey().getId()));
+    assertEquals(1, ds.prepare(new Query("MentorshipRequest")).countEntities(withLimit(10)));
+    // links to the deleted user are hidden until the cleanup removes them
+    Mentor mentor = new Mentor(defaultMentorEntity);
+    assertTrue(queuedDataAccess.getIncomingRequests(mentor).isEmpty());
+    assertTrue(queuedDataAccess.getMentorMenteeRelations(mentor).isEmpty());
+    assertEquals(1, queuedTasks.size());
+    queuedTasks.get(0).run();
+    assertEquals(0, ds.prepare(new Query("MentorshipRequest")).countEntities(withLimit(10)));
+    assertEquals(0, ds.prepare(new Query("DeletedUser")).countEntities(withLimit(10)));
+    assertEquals(1, taskQueue.getCompletedCount());
+  }
+
+  @Test
+  public void completeUserDeletionResumesFromTombstoneTest() {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    ds.put(defaultMentorEntity);
+    long mentorKey = defaultMentorEntity.getKey().getId();
+    ds.put(new MentorMenteeRelation(mentorKey, 12345).convertToEntity());
+    // a deletion of user 12345 that stopped right after the user was tombstoned
+    ds.put(new Entity(KeyFactory.createKey("DeletedUser", 12345)));
+    List<Entity> requestEntities = new ArrayList<>();
+    for (long toUserKey = 1; toUserKey <= DatastoreAccess.DELETE_BATCH_SIZE + 1; toUserKey++) {
+      requestEntities.add(new MentorshipRequest(toUserKey, 12345).convertToEntity());
+    }
+    ds.put(requestEntities);
+    ds.put(new MentorshipRequest(mentorKey, 54321).convertToEntity());
+    // users without a tombstone are left alone
+    dataAccess.completeUserDeletion(mentorKey);
+    assertEquals(
+        DatastoreAccess.DELETE_BATCH_SIZE + 2,
+        ds.prepare(new Query("MentorshipRequest")).countEntities(withLimit(1000)));
+    dataAccess.completeUserDeletion(12345);
+    assertEquals(1, ds.prepare(new Query("MentorshipRequest")).countEntities(withLimit(1000)));
+    assertEquals(0, ds.prepare(new Query("MentorMenteeRelation")).countEntities(withLimit(10)));
+    assertEquals(0, ds.prepare(new Query("DeletedUser")).countEntities(withLimit(10)));
+  }
+
+  @Test
+  public void getMentorMenteeRelationsQueriesOnlyTheUsersSideTest() {
+    DatastoreService ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    DataAccess plannedDataAccess = DatastoreAccess.newBuilder().datastoreService(ds).build();
+    ds.put(Arrays.asList(defaultMentorEntity, defaultMenteeEntity));
+    ds.put(
+        new MentorMenteeRelation(
+                defaultMentorEntity.getKey().getId(), defaultMenteeEntity.getKey().getId())
+            .convertToEntity());
+    Collection<MentorMenteeRelation> relations =
+        plannedDataAccess.getMentorMenteeRelations(new Mentor(defaultMentorEntity));
+    assertEquals(1, relations.size());
+    assertEquals("101", relations.iterator().next().getMentee().getUserID());
+    verify(ds, times(1))
+        .prepare(argThat((Query query) -> query.getKind().equals("MentorMenteeRelation")));
+    verify(ds, times(1))
+        .prepare(
+            argThat(
+                (Query query) ->
+                    query.getFilter() instanceof Query.FilterPredicate
+                        && ((Query.FilterPredicate) query.getFilter())
+                            .getPropertyName()
+                            .equals("mentorKey")));
+  }
+
+  @Test
+  public void deleteUserDeletesRelationsOnBothSidesTest() {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Entity menteeEntity1 = new Entity("UserAccount");
+    menteeEntity1.setPropertiesFrom(defaultMenteeEntity);
+    menteeEntity1.setProperty("userID", "301");
+    ds.put(Arrays.asList(defaultMentorEntity, defaultMenteeEntity, menteeEntity1));
+    long menteeKey = defaultMenteeEntity.getKey().getId();
+    // the mentee used to be a mentor, so they are also on the mentor side of an older relation
+    ds.put(
+        Arrays.asList(
+            new MentorMenteeRelation(defaultMentorEntity.getKey().getId(), menteeKey)
+                .convertToEntity(),
+            new MentorMenteeRelation(menteeKey, menteeEntity1.getKey().getId()).convertToEntity()));
+    assertTrue(dataAccess.deleteUser(new Mentee(defaultMenteeEntity)));
+    assertEquals(0, ds.prepare(new Query("MentorMenteeRelation")).countEntities(withLimit(10)));
+  }
+
   @Test
   public void deleteMentorMenteeRelationNonexistentRequestTest() {
     DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
@@ -0,0 +1,123 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.util.ParameterConstants;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * This test class uses JUnit to test that the DatastoreIdAllocator only hands out IDs that were
+ * reserved in the database and never hands out the same ID twice.
+ *
+ * @param JUnit4.class makes the tests run under the JUnit 4 framework
+ * @author guptamudit
+ * @version 1.0
+ */
+@RunWith(JUnit4.class)
+public final class DatastoreIdAllocatorTest {
+  private static final int THREAD_COUNT = 4;
+  private static final int IDS_PER_THREAD = 5 * DatastoreIdAllocator.BLOCK_SIZE;
+  private static final int MAX_OUTSTANDING_BLOCKS = 4;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    DatastoreIdAllocator.getInstance().clear();
+    helper.tearDown();
+  }
+
+  @Test
+  public void handsOutReservedIdsTest() {
+    String kind = ParameterConstants.ENTITY_TYPE_USER_ACCOUNT;
+    Set<Long> ids = new HashSet<>();
+    for (int i = 0; i < 3 * DatastoreIdAllocator.BLOCK_SIZE; i++) {
+      Assert.assertTrue(ids.add(DatastoreIdAllocator.getInstance().nextId(kind)));
+    }
+    long nextReserved =
+        DatastoreServiceFactory.getDatastoreService().allocateIds(kind, 1).getStart().getId();
+    for (long id : ids) {
+      Assert.assertTrue(id < nextReserved);
+    }
+  }
+
+  @Test
+  public void concurrentCallersGetUniqueIdsTest() throws Exception {
+    String kind = ParameterConstants.ENTITY_TYPE_MENTORSHIP_REQUEST;
+    long firstReserved =
+        DatastoreServiceFactory.getDatastoreService().allocateIds(kind, 1).getStart().getId();
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    Callable<List<Long>> allocate =
+        () -> {
+          ApiProxy.setEnvironmentForCurrentThread(environment);
+          try {
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < IDS_PER_THREAD; i++) {
+              ids.add(DatastoreIdAllocator.getInstance().nextId(kind));
+            }
+            return ids;
+          } finally {
+            ApiProxy.clearEnvironmentForCurrentThread();
+          }
+        };
+    List<Callable<List<Long>>> callers = new ArrayList<>();
+    for (int i = 0; i < THREAD_COUNT; i++) {
+      callers.add(allocate);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    Set<Long> ids = new HashSet<>();
+    try {
+      for (Future<List<Long>> result : executor.invokeAll(callers)) {
+        ids.addAll(result.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    Assert.assertEquals(THREAD_COUNT * IDS_PER_THREAD, ids.size());
+    // every reserved block is used up, apart from a few fetched ahead of time that can still be
+    // outstanding when a blocking allocation takes their place
+    long nextReserved =
+        DatastoreServiceFactory.getDatastoreService().allocateIds(kind, 1).getStart().getId();
+    Assert.assertTrue(
+        nextReserved - firstReserved
+            <= THREAD_COUNT * IDS_PER_THREAD
+                + MAX_OUTSTANDING_BLOCKS * DatastoreIdAllocator.BLOCK_SIZE
+                + 1);
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.util.RandomObjects;
+import com.google.sps.util.ServletUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * This test class uses JUnit to test that scores computed from packed MatchAttributes are the same
+ * as scores computed field by field from the Mentee and Mentor objects.
+ *
+ * @param JUnit4.class makes the tests run under the JUnit 4 framework
+ * @author guptamudit
+ * @version 1.0
+ */
+@RunWith(JUnit4.class)
+public final class MatchAttributesTest {
+  private static final int TRIALS = 2000;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    DatastoreIdAllocator.getInstance().clear();
+    helper.tearDown();
+  }
+
+  private static int expectedScoreForMentee(Mentee mentee, Mentor mentor) {
+    int result = 0;
+    if (mentor.getFocusList().contains(mentee.getGoal()))
+      result += ServletUtils.SIMILARITY_SCORE_HIGH;
+    if (mentor.getEducationLevel().ordinal() > mentee.getEducationLevel().ordinal())
+      result += ServletUtils.SIMILARITY_SCORE_HIGH;
+    if (mentor.getGender() == mentee.getGender()) result += ServletUtils.SIMILARITY_SCORE_HIGH;
+    if (mentor.getTimezone() == mentee.getTimezone() || mentor.getCountry() == mentee.getCountry())
+      result += ServletUtils.SIMILARITY_SCORE_LOW;
+    if (mentor.isFirstGen() == mentee.isFirstGen()) result += ServletUtils.SIMILARITY_SCORE_LOW;
+    return result;
+  }
+
+  private static int expectedScoreBetweenMentors(Mentor mentor, Mentor other) {
+    int result = 0;
+    if (other.getTimezone() == mentor.getTimezone() || other.getCountry() == mentor.getCountry())
+      result += ServletUtils.SIMILARITY_SCORE_HIGH;
+    if (other.getGender() == mentor.getGender()) result += ServletUtils.SIMILARITY_SCORE_HIGH;
+    if (other.isFirstGen() == mentor.isFirstGen()) result += ServletUtils.SIMILARITY_SCORE_HIGH;
+    if (other.isLowIncome() == mentor.isLowIncome()) result += ServletUtils.SIMILARITY_SCORE_LOW;
+    if (other.getEducationLevel() == mentor.getEducationLevel())
+      result += ServletUtils.SIMILARITY_SCORE_LOW;
+    return result;
+  }
+
+  @Test
+  public void scoreForMenteeMatchesFieldComparisonTest() {
+    for (int i = 0; i < TRIALS; i++) {
+      Mentee mentee = RandomObjects.randomMentee();
+      Mentor mentor = RandomObjects.randomMentor();
+      assertEquals(expectedScoreForMentee(mentee, mentor), mentee.similarityWithMentor(mentor));
+    }
+  }
+
+  @Test
+  public void scoreBetweenMentorsMatchesFieldComparisonTest() {
+    for (int i = 0; i < TRIALS; i++) {
+      Mentor mentor = RandomObjects.randomMentor();
+      Mentor other = RandomObjects.randomMentor();
+      assertEquals(expectedScoreBetweenMentors(mentor, other), mentor.similarity(other));
+      assertEquals(mentor.similarity(other), other.similarity(mentor));
+    }
+  }
+
+  @Test
+  public void packMentorEntityMatchesPackMentorTest() {
+    for (int i = 0; i < TRIALS / 10; i++) {
+      Mentor mentor = RandomObjects.randomMentor();
+      assertEquals(
+          MatchAttributes.pack(mentor), MatchAttributes.packMentorEntity(mentor.convertToEntity()));
+    }
+  }
+}
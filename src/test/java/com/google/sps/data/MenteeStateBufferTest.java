@@ -0,0 +1,178 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.util.ParameterConstants;
+import com.google.sps.util.RandomObjects;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.AdditionalAnswers;
+
+/**
+ * This test class uses JUnit to test that the MenteeStateBuffer coalesces mentee browsing state,
+ * makes it visible to reads before it is flushed, writes it in batches, and never holds dislikes.
+ *
+ * @param JUnit4.class makes the tests run under the JUnit 4 framework
+ * @author guptamudit
+ * @version 1.0
+ */
+@RunWith(JUnit4.class)
+public final class MenteeStateBufferTest {
+  private static final long FLUSH_DELAY_MILLIS = 60_000;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService ds;
+  private MenteeStateBuffer buffer;
+  private DataAccess dataAccess;
+  private Mentee mentee;
+  private Mentor mentor;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ds =
+        mock(
+            DatastoreService.class,
+            AdditionalAnswers.delegatesTo(DatastoreServiceFactory.getDatastoreService()));
+    buffer = new MenteeStateBuffer(ds, FLUSH_DELAY_MILLIS, 2);
+    dataAccess =
+        DatastoreAccess.newBuilder().datastoreService(ds).menteeStateBuffer(buffer).build();
+    mentee = RandomObjects.randomMentee();
+    mentor = RandomObjects.randomMentor();
+    dataAccess.createUser(mentee);
+    dataAccess.createUser(mentor);
+  }
+
+  @After
+  public void tearDown() {
+    MentorCandidateIndex.getInstance().clear();
+    DatastoreIdAllocator.getInstance().clear();
+    helper.tearDown();
+  }
+
+  private Entity storedEntity(Mentee mentee) throws EntityNotFoundException {
+    return DatastoreServiceFactory.getDatastoreService()
+        .get(KeyFactory.createKey("UserAccount", mentee.getDatastoreKey()));
+  }
+
+  private Object storedLastRequestedMentorKey(Mentee mentee) throws EntityNotFoundException {
+    return storedEntity(mentee).getProperty(ParameterConstants.MENTEE_LAST_REQUESTED_MENTOR_KEY);
+  }
+
+  /** Requests a mentor that was served to the mentee, which only changes buffered state. */
+  private void requestServedMentor(Mentee mentee, Mentor mentor) {
+    Mentee storedMentee = dataAccess.getMentee(mentee.getDatastoreKey());
+    storedMentee.saveServedMentorKey(mentor.getDatastoreKey());
+    Assert.assertTrue(dataAccess.requestMentor(storedMentee, mentor));
+    Assert.assertFalse(storedMentee.isDirty());
+  }
+
+  @Test
+  public void bufferedStateIsReadBeforeItIsFlushedTest() throws EntityNotFoundException {
+    requestServedMentor(mentee, mentor);
+    Assert.assertEquals(1, buffer.size());
+    Assert.assertNotEquals(mentor.getDatastoreKey(), storedLastRequestedMentorKey(mentee));
+    Assert.assertEquals(
+        mentor.getDatastoreKey(),
+        (long) dataAccess.getMentee(mentee.getDatastoreKey()).getLastRequestedMentorKey());
+    Assert.assertEquals(0, buffer.flushDue());
+
+    Assert.assertEquals(1, buffer.flushAll());
+    Assert.assertEquals(0, buffer.size());
+    Assert.assertEquals(mentor.getDatastoreKey(), storedLastRequestedMentorKey(mentee));
+    // one batch for each of the two users that were created and one transaction for the flush
+    verify(ds, times(2)).put(anyIterable());
+    verify(ds, times(1)).put(any(Transaction.class), anyIterable());
+    verify(ds, times(0)).put(any(Entity.class));
+  }
+
+  @Test
+  public void dislikesAreWrittenRightAwayTest() throws EntityNotFoundException {
+    Assert.assertTrue(
+        dataAccess.dislikeMentor(dataAccess.getMentee(mentee.getDatastoreKey()), mentor));
+    Assert.assertEquals(0, buffer.size());
+    Assert.assertTrue(
+        MentorKeySet.fromProperty(
+                storedEntity(mentee).getProperty(ParameterConstants.MENTEE_DISLIKED_MENTOR_KEYS))
+            .contains(mentor.getDatastoreKey()));
+  }
+
+  @Test
+  public void flushDueWritesOnceTooManyMenteesArePendingTest() throws EntityNotFoundException {
+    Mentee otherMentee = RandomObjects.randomMentee();
+    Mentor otherMentor = RandomObjects.randomMentor();
+    dataAccess.createUser(otherMentee);
+    dataAccess.createUser(otherMentor);
+    requestServedMentor(mentee, mentor);
+    requestServedMentor(mentee, otherMentor);
+    Assert.assertEquals(1, buffer.size());
+    Assert.assertEquals(0, buffer.flushDue());
+
+    requestServedMentor(otherMentee, mentor);
+    Assert.assertEquals(2, buffer.flushDue());
+    Assert.assertEquals(0, buffer.size());
+    Assert.assertEquals(otherMentor.getDatastoreKey(), storedLastRequestedMentorKey(mentee));
+    Assert.assertEquals(mentor.getDatastoreKey(), storedLastRequestedMentorKey(otherMentee));
+  }
+
+  @Test
+  public void flushDueWritesOneTransactionPerCallTest() {
+    int menteeCount = OptimisticUserWriter.MAX_ENTITY_GROUPS_PER_TRANSACTION + 5;
+    for (int i = 0; i < menteeCount; i++) {
+      Mentee otherMentee = RandomObjects.randomMentee();
+      dataAccess.createUser(otherMentee);
+      requestServedMentor(otherMentee, mentor);
+    }
+    Assert.assertEquals(menteeCount, buffer.size());
+    Assert.assertEquals(OptimisticUserWriter.MAX_ENTITY_GROUPS_PER_TRANSACTION, buffer.flushDue());
+    // the mentees that were left stay due
+    Assert.assertEquals(5, buffer.flushDue());
+    Assert.assertEquals(0, buffer.size());
+    Assert.assertEquals(0, buffer.flushDue());
+  }
+
+  @Test
+  public void updateUserKeepsBufferedStateTest() throws EntityNotFoundException {
+    Mentee staleMentee = dataAccess.getMentee(mentee.getDatastoreKey());
+    requestServedMentor(mentee, mentor);
+    staleMentee.setName("Thomas");
+    Assert.assertTrue(dataAccess.updateUser(staleMentee));
+    Assert.assertEquals(0, buffer.size());
+
+    Mentee storedMentee = dataAccess.getMentee(mentee.getDatastoreKey());
+    Assert.assertEquals("Thomas", storedMentee.getName());
+    Assert.assertEquals(mentor.getDatastoreKey(), storedLastRequestedMentorKey(mentee));
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Blob;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * This test class uses JUnit to test the in-memory operations of MentorKeySet, its encoded storage
+ * format, and reading keys stored in the old list format.
+ *
+ * @param JUnit4.class makes the tests run under the JUnit 4 framework
+ * @author guptamudit
+ * @version 1.0
+ */
+@RunWith(JUnit4.class)
+public final class MentorKeySetTest {
+
+  @Test
+  public void keepsKeysSortedAndDistinctTest() {
+    MentorKeySet keys = new MentorKeySet();
+    Assert.assertTrue(keys.add(30L));
+    Assert.assertTrue(keys.add(10L));
+    Assert.assertTrue(keys.add(20L));
+    Assert.assertFalse(keys.add(10L));
+    Assert.assertEquals(Arrays.asList(10L, 20L, 30L), new ArrayList<>(keys));
+    Assert.assertTrue(keys.contains(20L));
+    Assert.assertTrue(keys.remove(20L));
+    Assert.assertFalse(keys.contains(20L));
+    Assert.assertFalse(keys.remove(20L));
+
+    Iterator<Long> iterator = keys.iterator();
+    iterator.next();
+    iterator.remove();
+    Assert.assertEquals(Arrays.asList(30L), new ArrayList<>(keys));
+  }
+
+  @Test
+  public void encodesAndDecodesKeysTest() {
+    MentorKeySet keys =
+        MentorKeySet.copyOf(
+            Arrays.asList(5629499534213120L, 5629499534213121L, 1L, Long.MAX_VALUE, -7L));
+    Blob property = keys.toProperty();
+    Assert.assertEquals(keys, MentorKeySet.fromProperty(property));
+    Assert.assertEquals(
+        new MentorKeySet(), MentorKeySet.fromProperty(new MentorKeySet().toProperty()));
+  }
+
+  @Test
+  public void encodesCloseKeysCompactlyTest() {
+    MentorKeySet keys = new MentorKeySet();
+    for (long key = 5629499534213120L; keys.size() < 100; key += 100) {
+      keys.add(key);
+    }
+    // one 8 byte key and 99 one or two byte differences instead of 100 indexed list entries
+    Assert.assertTrue(keys.encode().length < 2 * keys.size() + 12);
+  }
+
+  @Test
+  public void readsKeysStoredAsListTest() {
+    List<Long> legacyKeys = Arrays.asList(3L, 1L, 2L, 3L);
+    Assert.assertEquals(
+        Arrays.asList(1L, 2L, 3L), new ArrayList<>(MentorKeySet.fromProperty(legacyKeys)));
+    Assert.assertTrue(MentorKeySet.fromProperty(null).isEmpty());
+  }
+}
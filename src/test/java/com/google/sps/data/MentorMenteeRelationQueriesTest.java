@@ -0,0 +1,90 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * This test class uses JUnit to test that MentorMenteeRelationQueries plans a query for each needed
+ * side and merges their results without duplicates.
+ *
+ * @param JUnit4.class makes the tests run under the JUnit 4 framework
+ * @author guptamudit
+ * @version 1.0
+ */
+@RunWith(JUnit4.class)
+public final class MentorMenteeRelationQueriesTest {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private static List<String> filteredProperties(List<Query> queries) {
+    return queries.stream()
+        .map(query -> ((Query.FilterPredicate) query.getFilter()).getPropertyName())
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void plansOneQueryPerSideTest() {
+    Assert.assertEquals(
+        Arrays.asList("mentorKey"),
+        filteredProperties(MentorMenteeRelationQueries.plan(1, UserType.MENTOR)));
+    Assert.assertEquals(
+        Arrays.asList("menteeKey"),
+        filteredProperties(MentorMenteeRelationQueries.plan(1, UserType.MENTEE)));
+    Assert.assertEquals(
+        Arrays.asList("mentorKey", "menteeKey"),
+        filteredProperties(MentorMenteeRelationQueries.plan(1, null)));
+  }
+
+  @Test
+  public void mergesResultsWithoutDuplicatesTest() {
+    Entity relation1 = new MentorMenteeRelation(1, 2).convertToEntity();
+    Entity relation2 = new MentorMenteeRelation(1, 3).convertToEntity();
+    Entity relation3 = new MentorMenteeRelation(4, 1).convertToEntity();
+    List<Iterator<Entity>> results =
+        Arrays.asList(
+            Arrays.asList(relation1, relation2).iterator(),
+            Arrays.asList(relation3, relation1).iterator());
+    List<MentorMenteeRelation> relations = MentorMenteeRelationQueries.merge(results);
+    Assert.assertEquals(
+        Arrays.asList(relation1.getKey(), relation3.getKey(), relation2.getKey()),
+        relations.stream()
+            .map(relation -> relation.convertToEntity().getKey())
+            .collect(Collectors.toList()));
+  }
+}
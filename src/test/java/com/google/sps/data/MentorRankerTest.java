@@ -0,0 +1,116 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.util.RandomObjects;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * This test class uses JUnit to test that the MentorRanker selects the same mentors, in the same
+ * order, as fully sorting every candidate by score.
+ *
+ * @param JUnit4.class makes the tests run under the JUnit 4 framework
+ * @author guptamudit
+ * @version 1.0
+ */
+@RunWith(JUnit4.class)
+public final class MentorRankerTest {
+  private static final int CANDIDATE_COUNT = 3000;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    DatastoreIdAllocator.getInstance().clear();
+    helper.tearDown();
+  }
+
+  private List<MentorCandidateIndex.Candidate> randomCandidates(int count) {
+    List<MentorCandidateIndex.Candidate> candidates = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Mentor mentor =
+          RandomObjects.randomUserBuilder(Mentor.Builder.newBuilder())
+              .focusList(new ArrayList<>())
+              .build();
+      mentor.getFocusList().add(RandomObjects.randomEnum(Topic.class));
+      candidates.add(
+          new MentorCandidateIndex.Candidate(
+              i + 1, i, MentorType.CAREER, MatchAttributes.pack(mentor)));
+    }
+    return candidates;
+  }
+
+  private long[] sortedKeys(
+      List<MentorCandidateIndex.Candidate> candidates, MentorRanker ranker, int limit) {
+    return candidates.stream()
+        .sorted(
+            Comparator.comparingInt(
+                    (MentorCandidateIndex.Candidate candidate) ->
+                        -ranker.score(candidate.getAttributes()))
+                .thenComparingLong(MentorCandidateIndex.Candidate::getDatastoreKey))
+        .limit(limit)
+        .mapToLong(MentorCandidateIndex.Candidate::getDatastoreKey)
+        .toArray();
+  }
+
+  @Test
+  public void selectTopMatchesFullSortTest() {
+    List<MentorCandidateIndex.Candidate> candidates = randomCandidates(CANDIDATE_COUNT);
+    MentorRanker ranker =
+        MentorRanker.Builder.newBuilder()
+            .mentee(MatchAttributes.pack(RandomObjects.randomMentee()))
+            .lastRequested(candidates.get(0).getAttributes())
+            .lastDisliked(candidates.get(1).getAttributes())
+            .build();
+    for (int limit : new int[] {0, 1, 20, CANDIDATE_COUNT, CANDIDATE_COUNT + 1}) {
+      assertArrayEquals(
+          sortedKeys(candidates, ranker, limit),
+          ranker.selectTop(candidates, candidate -> true, limit));
+    }
+  }
+
+  @Test
+  public void selectTopSkipsExcludedCandidatesTest() {
+    List<MentorCandidateIndex.Candidate> candidates = randomCandidates(100);
+    MentorRanker ranker =
+        MentorRanker.Builder.newBuilder()
+            .mentee(MatchAttributes.pack(RandomObjects.randomMentee()))
+            .build();
+    long[] selected =
+        ranker.selectTop(candidates, candidate -> candidate.getDatastoreKey() % 2 == 0, 100);
+    assertEquals(50, selected.length);
+    for (long key : selected) {
+      assertEquals(0, key % 2);
+    }
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.util.ParameterConstants;
+import java.util.ConcurrentModificationException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * This test class uses JUnit to test that the OptimisticUserWriter versions every write, runs
+ * transactions again when they collide with other writes, and gives up after a bounded number of
+ * attempts.
+ *
+ * @param JUnit4.class makes the tests run under the JUnit 4 framework
+ * @author guptamudit
+ * @version 1.0
+ */
+@RunWith(JUnit4.class)
+public final class OptimisticUserWriterTest {
+  private static final long USER_KEY = 42;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService ds;
+  private OptimisticUserWriter writer;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+    writer = new OptimisticUserWriter(2);
+    Entity userEntity =
+        new Entity(KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, USER_KEY));
+    userEntity.setProperty(ParameterConstants.NAME, "stored");
+    ds.put(userEntity);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private Entity storedEntity() throws EntityNotFoundException {
+    return ds.get(KeyFactory.createKey(ParameterConstants.ENTITY_TYPE_USER_ACCOUNT, USER_KEY));
+  }
+
+  /** A change that renames the user, colliding with another transaction first. */
+  private final class RenameChange implements OptimisticUserWriter.Change {
+    private final long baseVersion;
+    private int collisionsLeft;
+
+    private RenameChange(long baseVersion, int collisions) {
+      this.baseVersion = baseVersion;
+      this.collisionsLeft = collisions;
+    }
+
+    public long getBaseVersion() {
+      return baseVersion;
+    }
+
+    public Entity applyTo(Entity storedEntity) {
+      if (collisionsLeft > 0) {
+        collisionsLeft--;
+        Entity otherWrite = storedEntity.clone();
+        otherWrite.setProperty(ParameterConstants.NAME, "other");
+        Transaction otherTransaction = ds.beginTransaction();
+        ds.put(otherTransaction, otherWrite);
+        otherTransaction.commit();
+      }
+      storedEntity.setProperty(ParameterConstants.NAME, "renamed");
+      return storedEntity;
+    }
+  }
+
+  @Test
+  public void writesIncrementTheVersionTest() throws EntityNotFoundException {
+    Assert.assertEquals(0, UserAccount.versionOf(storedEntity()));
+    Entity writtenEntity = writer.write(ds, USER_KEY, new RenameChange(0, 0));
+    Assert.assertEquals(1, UserAccount.versionOf(writtenEntity));
+    writer.write(ds, USER_KEY, new RenameChange(0, 0));
+    Assert.assertEquals(2, UserAccount.versionOf(storedEntity()));
+    Assert.assertEquals("renamed", storedEntity().getProperty(ParameterConstants.NAME));
+    Assert.assertEquals(1, writer.getStaleWriteCount());
+    Assert.assertEquals(0, writer.getConflictCount());
+  }
+
+  @Test
+  public void missingUsersAreNotWrittenTest() {
+    Assert.assertNull(writer.write(ds, USER_KEY + 1, new RenameChange(0, 0)));
+  }
+
+  @Test
+  public void collidingWritesAreRetriedTest() throws EntityNotFoundException {
+    writer.write(ds, USER_KEY, new RenameChange(OptimisticUserWriter.Change.ANY_VERSION, 1));
+    Assert.assertEquals("renamed", storedEntity().getProperty(ParameterConstants.NAME));
+    Assert.assertEquals(1, writer.getConflictCount());
+    Assert.assertEquals(0, writer.getFailureCount());
+  }
+
+  @Test
+  public void collidingWritesAreGivenUpAfterMaxAttemptsTest() throws EntityNotFoundException {
+    try {
+      writer.write(ds, USER_KEY, new RenameChange(OptimisticUserWriter.Change.ANY_VERSION, 2));
+      Assert.fail();
+    } catch (ConcurrentModificationException e) {
+      // expected once both attempts collide
+    }
+    Assert.assertEquals("other", storedEntity().getProperty(ParameterConstants.NAME));
+    Assert.assertEquals(2, writer.getConflictCount());
+    Assert.assertEquals(1, writer.getFailureCount());
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * This test class uses JUnit to test that the ServedMentorWindow stays within its capacity and
+ * horizon, survives being stored, and reads served keys stored in the older formats.
+ *
+ * @param JUnit4.class makes the tests run under the JUnit 4 framework
+ * @author guptamudit
+ * @version 1.0
+ */
+@RunWith(JUnit4.class)
+public final class ServedMentorWindowTest {
+  private static final long NOW_MILLIS = TimeUnit.DAYS.toMillis(18000);
+  private static final long HORIZON_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private static List<Long> keys(ServedMentorWindow window, long nowMillis) {
+    List<Long> keys = new ArrayList<>();
+    window.forEachKey(nowMillis, keys::add);
+    return keys;
+  }
+
+  @Test
+  public void pushesOutOldestMentorsWhenFullTest() {
+    ServedMentorWindow window = new ServedMentorWindow(3, HORIZON_MILLIS);
+    for (long mentorKey = 1; mentorKey <= 5; mentorKey++) {
+      Assert.assertTrue(window.add(mentorKey, NOW_MILLIS));
+    }
+    Assert.assertEquals(Arrays.asList(3L, 4L, 5L), keys(window, NOW_MILLIS));
+    Assert.assertFalse(window.add(3L, NOW_MILLIS));
+    Assert.assertEquals(Arrays.asList(4L, 5L, 3L), keys(window, NOW_MILLIS));
+    Assert.assertTrue(window.remove(5L));
+    Assert.assertEquals(Arrays.asList(4L, 3L), keys(window, NOW_MILLIS));
+  }
+
+  @Test
+  public void expiresMentorsServedBeforeHorizonTest() {
+    ServedMentorWindow window = new ServedMentorWindow(10, HORIZON_MILLIS);
+    window.add(1L, NOW_MILLIS);
+    window.add(2L, NOW_MILLIS + TimeUnit.MINUTES.toMillis(30));
+    Assert.assertTrue(window.contains(1L, NOW_MILLIS + HORIZON_MILLIS));
+    Assert.assertFalse(window.contains(1L, NOW_MILLIS + HORIZON_MILLIS + 1000));
+    Assert.assertEquals(Arrays.asList(2L), keys(window, NOW_MILLIS + HORIZON_MILLIS + 1000));
+    Assert.assertEquals(1, window.size());
+    Assert.assertFalse(window.contains(2L, NOW_MILLIS + 2 * HORIZON_MILLIS));
+    Assert.assertEquals(0, window.size());
+  }
+
+  @Test
+  public void encodesAndDecodesWindowTest() {
+    ServedMentorWindow window = new ServedMentorWindow();
+    window.add(5629499534213120L, NOW_MILLIS);
+    window.add(12L, NOW_MILLIS + 1000);
+    window.add(5629499534213121L, NOW_MILLIS + 2000);
+    ServedMentorWindow storedWindow =
+        ServedMentorWindow.fromProperty(window.toProperty(), NOW_MILLIS + 3000);
+    Assert.assertEquals(window, storedWindow);
+    Assert.assertEquals(
+        Arrays.asList(5629499534213120L, 12L, 5629499534213121L),
+        keys(storedWindow, NOW_MILLIS + 3000));
+  }
+
+  @Test
+  public void readsKeysStoredInOlderFormatsTest() {
+    MentorKeySet mentorKeys = MentorKeySet.copyOf(Arrays.asList(1L, 2L));
+    Assert.assertEquals(
+        Arrays.asList(1L, 2L),
+        keys(ServedMentorWindow.fromProperty(mentorKeys.toProperty(), NOW_MILLIS), NOW_MILLIS));
+    Assert.assertEquals(
+        Arrays.asList(1L, 2L),
+        keys(ServedMentorWindow.fromProperty(Arrays.asList(2L, 1L), NOW_MILLIS), NOW_MILLIS));
+    Assert.assertEquals(0, ServedMentorWindow.fromProperty(null, NOW_MILLIS).size());
+  }
+}
@@ -0,0 +1,160 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.util.ParameterConstants;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * This test class uses JUnit to test the size bound, invalidation, and statistics of the
+ * UserAccountCache along with its memcache tier (backed by the local memcache stub).
+ *
+ * @param JUnit4.class makes the tests run under the JUnit 4 framework
+ * @author guptamudit
+ * @version 1.0
+ */
+@RunWith(JUnit4.class)
+public final class UserAccountCacheTest {
+  private static final long TTL_MILLIS = 60_000;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private static Entity userEntity(long datastoreKey) {
+    Entity entity = new Entity(KeyFactory.createKey("UserAccount", datastoreKey));
+    entity.setProperty("userID", "user" + datastoreKey);
+    entity.setProperty("name", "Mudito Mentee");
+    entity.setProperty("servedMentorKeys", Arrays.asList(1L, 2L, 3L));
+    return entity;
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedEntriesBySizeTest() {
+    long entitySize = UserAccountCache.estimateSize(userEntity(1));
+    UserAccountCache cache = new UserAccountCache(2 * entitySize, TTL_MILLIS, null);
+    cache.put(userEntity(1), cache.getVersion());
+    cache.put(userEntity(2), cache.getVersion());
+    Assert.assertNotNull(cache.get(1));
+    cache.put(userEntity(3), cache.getVersion());
+
+    Assert.assertNotNull(cache.get(1));
+    Assert.assertNull(cache.get(2));
+    Assert.assertNotNull(cache.get(3));
+    Assert.assertEquals(1, cache.getEvictionCount());
+    Assert.assertEquals(3, cache.getHitCount());
+    Assert.assertEquals(1, cache.getMissCount());
+    Assert.assertEquals(2 * entitySize, cache.getWeightBytes());
+  }
+
+  @Test
+  public void returnsCopiesOfCachedEntitiesTest() {
+    UserAccountCache cache = new UserAccountCache(Long.MAX_VALUE, TTL_MILLIS, null);
+    Entity entity = userEntity(1);
+    cache.put(entity, cache.getVersion());
+    entity.setProperty("name", "Changed");
+    cache.get(1).setProperty("name", "Changed");
+
+    Assert.assertEquals("Mudito Mentee", cache.get(1).getProperty("name"));
+  }
+
+  @Test
+  public void skipsEntitiesReadBeforeInvalidationTest() {
+    UserAccountCache cache = new UserAccountCache(Long.MAX_VALUE, TTL_MILLIS, null);
+    long readVersion = cache.getVersion();
+    cache.invalidate(1, "user1", 1);
+    cache.put(userEntity(1), readVersion);
+    cache.putDatastoreKey("user1", 1, readVersion);
+
+    Assert.assertNull(cache.get(1));
+    Assert.assertNull(cache.getDatastoreKey("user1"));
+  }
+
+  @Test
+  public void sharesEntriesThroughMemcacheTest() {
+    UserAccountCache writerCache =
+        new UserAccountCache(
+            Long.MAX_VALUE, TTL_MILLIS, MemcacheServiceFactory.getMemcacheService());
+    UserAccountCache readerCache =
+        new UserAccountCache(Long.MAX_VALUE, 0, MemcacheServiceFactory.getMemcacheService());
+    writerCache.put(userEntity(1), writerCache.getVersion());
+    writerCache.put(userEntity(2), writerCache.getVersion());
+    writerCache.putDatastoreKey("user1", 1, writerCache.getVersion());
+
+    Map<Long, Entity> entities = readerCache.getAll(Arrays.asList(1L, 2L, 3L));
+    Assert.assertEquals(2, entities.size());
+    Assert.assertEquals("user2", entities.get(2L).getProperty("userID"));
+    Assert.assertEquals(Long.valueOf(1), readerCache.getDatastoreKey("user1"));
+    Assert.assertEquals(3, readerCache.getMemcacheHitCount());
+    Assert.assertEquals(1, readerCache.getMissCount());
+
+    writerCache.invalidate(1, "user1", 1);
+    Assert.assertNull(readerCache.get(1));
+    Assert.assertNull(readerCache.getDatastoreKey("user1"));
+    Assert.assertNotNull(readerCache.get(2));
+  }
+
+  @Test
+  public void refusesEntitiesOlderThanTheInvalidatedVersionTest() {
+    UserAccountCache writerCache =
+        new UserAccountCache(Long.MAX_VALUE, 0, MemcacheServiceFactory.getMemcacheService());
+    UserAccountCache readerCache =
+        new UserAccountCache(Long.MAX_VALUE, 0, MemcacheServiceFactory.getMemcacheService());
+    Entity staleEntity = userEntity(1);
+    Entity writtenEntity = userEntity(1);
+    writtenEntity.setProperty(ParameterConstants.VERSION, 2L);
+
+    // the reader read version 0 before the writer wrote version 2 and invalidated it
+    writerCache.invalidate(1, "user1", 2);
+    readerCache.put(staleEntity, readerCache.getVersion());
+    Assert.assertNull(writerCache.get(1));
+
+    // an invalidation that arrives late never lowers the marker
+    writerCache.invalidate(1, "user1", 1);
+    readerCache.put(staleEntity, readerCache.getVersion());
+    Assert.assertNull(writerCache.get(1));
+
+    readerCache.put(writtenEntity, readerCache.getVersion());
+    Assert.assertEquals(2L, UserAccount.versionOf(writerCache.get(1)));
+    // older entities do not replace newer ones either
+    readerCache.put(staleEntity, readerCache.getVersion());
+    Assert.assertEquals(2L, UserAccount.versionOf(writerCache.get(1)));
+
+    writerCache.invalidate(1, "user1", UserAccountCache.DELETED_USER_VERSION);
+    readerCache.put(writtenEntity, readerCache.getVersion());
+    Assert.assertNull(writerCache.get(1));
+  }
+}
@@ -17,20 +17,24 @@ package com.google.sps.servlets;
 import static org.mockito.Mockito.when;
 
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.sps.data.Country;
 import com.google.sps.data.DatastoreAccess;
+import com.google.sps.data.DatastoreIdAllocator;
 import com.google.sps.data.EducationLevel;
 import com.google.sps.data.Ethnicity;
 import com.google.sps.data.Gender;
 import com.google.sps.data.Language;
 import com.google.sps.data.MeetingFrequency;
 import com.google.sps.data.Mentee;
+import com.google.sps.data.MenteeStateBuffer;
 import com.google.sps.data.Mentor;
 import com.google.sps.data.MentorType;
 import com.google.sps.data.TimeZone;
 import com.google.sps.data.Topic;
+import com.google.sps.data.UserAccountCache;
 import com.google.sps.data.UserType;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -63,7 +67,9 @@ public final class FindMentorServletTest {
   private FindMentorServlet servlet;
   private final LocalServiceTestHelper helper =
       new LocalServiceTestHelper(
-              new LocalUserServiceTestConfig(), new LocalDatastoreServiceTestConfig())
+              new LocalUserServiceTestConfig(),
+              new LocalDatastoreServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig())
           .setEnvAttributes(
               Collections.singletonMap(
                   "com.google.appengine.api.users.UserService.user_id_key", "102"))
@@ -133,6 +139,9 @@ public final class FindMentorServletTest {
 
   @After
   public void tearDown() {
+    DatastoreIdAllocator.getInstance().clear();
+    UserAccountCache.getInstance().clear();
+    MenteeStateBuffer.getInstance().clear();
     helper.tearDown();
   }
 
@@ -14,25 +14,33 @@
 
 package com.google.sps.servlets;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.apphosting.api.ApiProxy;
 import com.google.sps.data.Country;
 import com.google.sps.data.DatastoreAccess;
+import com.google.sps.data.DatastoreIdAllocator;
 import com.google.sps.data.EducationLevel;
 import com.google.sps.data.Ethnicity;
 import com.google.sps.data.Gender;
 import com.google.sps.data.Language;
 import com.google.sps.data.Mentee;
+import com.google.sps.data.MenteeStateBuffer;
 import com.google.sps.data.Mentor;
 import com.google.sps.data.MentorType;
 import com.google.sps.data.TimeZone;
 import com.google.sps.data.Topic;
+import com.google.sps.data.UserAccount;
+import com.google.sps.data.UserAccountCache;
 import com.google.sps.data.UserType;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -43,6 +51,12 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.After;
@@ -65,6 +79,8 @@ import org.mockito.MockitoAnnotations;
  */
 @RunWith(JUnit4.class)
 public final class QuestionnaireServletTest {
+  private static final int CONCURRENT_SUBMISSIONS = 25;
+
   @Mock private HttpServletRequest request;
   @Mock private HttpServletResponse response;
   DatastoreAccess dataAccess = new DatastoreAccess();
@@ -72,7 +88,9 @@ public final class QuestionnaireServletTest {
   @InjectMocks private QuestionnaireServlet servlet;
   private final LocalServiceTestHelper helper =
       new LocalServiceTestHelper(
-              new LocalUserServiceTestConfig(), new LocalDatastoreServiceTestConfig())
+              new LocalUserServiceTestConfig(),
+              new LocalDatastoreServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig())
           .setEnvAttributes(
               Collections.singletonMap(
                   "com.google.appengine.api.users.UserService.user_id_key", "101"))
@@ -116,6 +134,9 @@ public final class QuestionnaireServletTest {
 
   @After
   public void tearDown() {
+    DatastoreIdAllocator.getInstance().clear();
+    UserAccountCache.getInstance().clear();
+    MenteeStateBuffer.getInstance().clear();
     helper.tearDown();
   }
 
@@ -332,4 +353,127 @@ public final class QuestionnaireServletTest {
     writer.flush();
     Assert.assertTrue(stringWriter.toString().contains("testKey1"));
   }
+
+  /**
+   * Wraps the test environment so that a worker thread is logged in as a different user than the
+   * thread that set up the test helper.
+   */
+  private static final class UserEnvironment implements ApiProxy.Environment {
+    private final ApiProxy.Environment environment;
+    private final String email;
+    private final Map<String, Object> attributes;
+
+    private UserEnvironment(ApiProxy.Environment environment, String userID, String email) {
+      this.environment = environment;
+      this.email = email;
+      this.attributes = new HashMap<>(environment.getAttributes());
+      this.attributes.put("com.google.appengine.api.users.UserService.user_id_key", userID);
+    }
+
+    public String getAppId() {
+      return environment.getAppId();
+    }
+
+    public String getModuleId() {
+      return environment.getModuleId();
+    }
+
+    public String getVersionId() {
+      return environment.getVersionId();
+    }
+
+    public String getEmail() {
+      return email;
+    }
+
+    public boolean isLoggedIn() {
+      return true;
+    }
+
+    public boolean isAdmin() {
+      return environment.isAdmin();
+    }
+
+    public String getAuthDomain() {
+      return environment.getAuthDomain();
+    }
+
+    @Deprecated
+    public String getRequestNamespace() {
+      return environment.getRequestNamespace();
+    }
+
+    public Map<String, Object> getAttributes() {
+      return attributes;
+    }
+
+    public long getRemainingMillis() {
+      return environment.getRemainingMillis();
+    }
+  }
+
+  private Callable<Void> submitQuestionnaires(
+      ApiProxy.Environment environment,
+      CyclicBarrier barrier,
+      String userID,
+      String name,
+      Gender gender,
+      String formType) {
+    return () -> {
+      ApiProxy.setEnvironmentForCurrentThread(
+          new UserEnvironment(environment, userID, userID + "@example.com"));
+      try {
+        for (int i = 0; i < CONCURRENT_SUBMISSIONS; i++) {
+          HttpServletRequest userRequest = mock(HttpServletRequest.class);
+          when(userRequest.getParameter("name")).thenReturn(name);
+          when(userRequest.getParameter("gender")).thenReturn(gender.name());
+          when(userRequest.getParameter("formType")).thenReturn(formType);
+          HttpServletResponse userResponse = mock(HttpServletResponse.class);
+          StringWriter stringWriter = new StringWriter();
+          when(userResponse.getWriter()).thenReturn(new PrintWriter(stringWriter, true));
+          barrier.await(10, TimeUnit.SECONDS);
+          servlet.doPost(userRequest, userResponse);
+          Assert.assertTrue(stringWriter.toString().contains(name));
+          Assert.assertTrue(stringWriter.toString().contains(userID));
+        }
+      } finally {
+        ApiProxy.clearEnvironmentForCurrentThread();
+      }
+      return null;
+    };
+  }
+
+  @Test
+  public void concurrentSubmissionsDoNotMixProfiles() throws Exception {
+    when(blobstoreService.getUploads(any())).thenReturn(new HashMap<>());
+    servlet.init();
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    CyclicBarrier barrier = new CyclicBarrier(2);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<Void>> submissions =
+          executor.invokeAll(
+              Arrays.asList(
+                  submitQuestionnaires(
+                      environment, barrier, "201", "Mentor Submitter", Gender.MALE, "mentor"),
+                  submitQuestionnaires(
+                      environment, barrier, "202", "Mentee Submitter", Gender.FEMALE, "mentee")));
+      for (Future<Void> submission : submissions) {
+        submission.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    UserAccount mentor = dataAccess.getUser("201");
+    Assert.assertTrue(mentor instanceof Mentor);
+    Assert.assertEquals("Mentor Submitter", mentor.getName());
+    Assert.assertEquals("201@example.com", mentor.getEmail());
+    Assert.assertEquals(Gender.MALE, mentor.getGender());
+    UserAccount mentee = dataAccess.getUser("202");
+    Assert.assertTrue(mentee instanceof Mentee);
+    Assert.assertEquals("Mentee Submitter", mentee.getName());
+    Assert.assertEquals("202@example.com", mentee.getEmail());
+    Assert.assertEquals(Gender.FEMALE, mentee.getGender());
+  }
 }
@@ -0,0 +1,220 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.tasks;
+
+import com.google.appengine.api.taskqueue.DeferredTask;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * This test class uses JUnit to test that the TaskQueue skips duplicate tasks, runs tasks that were
+ * serialized on another instance, retries failing tasks with backoff, and that the LocalTaskRunner
+ * bounds how many tasks run at once.
+ *
+ * @param JUnit4.class makes the tests run under the JUnit 4 framework
+ * @author guptamudit
+ * @version 1.0
+ */
+@RunWith(JUnit4.class)
+public final class TaskQueueTest {
+  private final List<DeferredTask> submittedTasks = new ArrayList<>();
+  private final List<Long> submittedDelays = new ArrayList<>();
+  private final TaskRunner manualRunner =
+      (tasks, delayMillis) -> {
+        for (DeferredTask task : tasks.values()) {
+          submittedTasks.add(task);
+          submittedDelays.add(delayMillis);
+        }
+        return tasks.size();
+      };
+
+  /**
+   * Stands in for the App Engine task queue: tasks are serialized like queue task payloads, and a
+   * name that was already used is refused.
+   */
+  private static final class SerializingRunner implements TaskRunner {
+    private final Map<String, byte[]> payloads = new LinkedHashMap<>();
+
+    public int submit(Map<String, ? extends DeferredTask> tasks, long delayMillis) {
+      int added = 0;
+      for (Map.Entry<String, ? extends DeferredTask> task : tasks.entrySet()) {
+        if (!payloads.containsKey(task.getKey())) {
+          payloads.put(task.getKey(), serialize(task.getValue()));
+          added++;
+        }
+      }
+      return added;
+    }
+
+    public boolean deduplicatesNames() {
+      return true;
+    }
+
+    private static byte[] serialize(DeferredTask task) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeObject(task);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      return bytes.toByteArray();
+    }
+
+    private static DeferredTask deserialize(byte[] payload) throws Exception {
+      try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+        return (DeferredTask) in.readObject();
+      }
+    }
+  }
+
+  /** A task that can be serialized and counts its runs in a static field. */
+  private static final class CountingTask implements DeferredTask {
+    private static final long serialVersionUID = 1L;
+    private static final AtomicInteger RUNS = new AtomicInteger();
+
+    public void run() {
+      RUNS.incrementAndGet();
+    }
+  }
+
+  private void runSubmittedTasks() {
+    while (!submittedTasks.isEmpty()) {
+      submittedTasks.remove(0).run();
+    }
+  }
+
+  @Test
+  public void skipsTasksWithPendingNamesTest() {
+    TaskQueue queue = new TaskQueue(manualRunner, 3, 100);
+    AtomicInteger runs = new AtomicInteger();
+    Assert.assertTrue(queue.enqueue("a", runs::incrementAndGet));
+    Assert.assertFalse(queue.enqueue("a", runs::incrementAndGet));
+    Map<String, DeferredTask> batch = new LinkedHashMap<>();
+    batch.put("a", runs::incrementAndGet);
+    batch.put("b", runs::incrementAndGet);
+    Assert.assertEquals(1, queue.enqueueAll(batch));
+    Assert.assertEquals(2, queue.getPendingCount());
+    runSubmittedTasks();
+    Assert.assertEquals(2, runs.get());
+    Assert.assertEquals(2, queue.getCompletedCount());
+    Assert.assertFalse(queue.isPending("a"));
+    Assert.assertTrue(queue.enqueue("a", runs::incrementAndGet));
+  }
+
+  @Test
+  public void serializedTasksRunOnAnotherInstanceTest() throws Exception {
+    SerializingRunner runner = new SerializingRunner();
+    TaskQueue queue = new TaskQueue(runner, 3, 100);
+    Assert.assertTrue(queue.enqueue("a", new CountingTask()));
+    // the runner refuses the name, so the task is not queued twice by any instance
+    Assert.assertFalse(queue.enqueue("a", new CountingTask()));
+    // names are not tracked locally since the task may finish on another instance
+    Assert.assertEquals(0, queue.getPendingCount());
+
+    int runs = CountingTask.RUNS.get();
+    long completedCount = TaskQueue.getInstance().getCompletedCount();
+    SerializingRunner.deserialize(runner.payloads.get("a")).run();
+    Assert.assertEquals(runs + 1, CountingTask.RUNS.get());
+    // the deserialized attempt has no queue, so the shared queue of the running instance runs it
+    Assert.assertEquals(completedCount + 1, TaskQueue.getInstance().getCompletedCount());
+    Assert.assertEquals(0, queue.getCompletedCount());
+    Assert.assertFalse(queue.isPending("a"));
+    Assert.assertEquals(1, runner.payloads.size());
+  }
+
+  @Test
+  public void taskNamesAreEscapedForTheQueueTest() {
+    Assert.assertEquals("delete-user-42", AppEngineTaskRunner.toTaskName("delete-user-42"));
+    Assert.assertEquals("a_2e_b_5f_", AppEngineTaskRunner.toTaskName("a.b_"));
+    Assert.assertNotEquals(
+        AppEngineTaskRunner.toTaskName("a.b"), AppEngineTaskRunner.toTaskName("a_b"));
+  }
+
+  @Test
+  public void retriesFailingTasksWithBackoffTest() {
+    TaskQueue queue = new TaskQueue(manualRunner, 5, 100);
+    AtomicInteger runs = new AtomicInteger();
+    queue.enqueue(
+        "flaky",
+        () -> {
+          if (runs.incrementAndGet() < 3) {
+            throw new IllegalStateException();
+          }
+        });
+    runSubmittedTasks();
+    Assert.assertEquals(3, runs.get());
+    Assert.assertEquals(Arrays.asList(0L, 100L, 200L), submittedDelays);
+    Assert.assertEquals(2, queue.getRetryCount());
+    Assert.assertEquals(1, queue.getCompletedCount());
+    Assert.assertEquals(0, queue.getFailureCount());
+    Assert.assertFalse(queue.isPending("flaky"));
+  }
+
+  @Test
+  public void givesUpAfterMaxAttemptsTest() {
+    TaskQueue queue = new TaskQueue(manualRunner, 3, 100);
+    AtomicInteger runs = new AtomicInteger();
+    queue.enqueue(
+        "broken",
+        () -> {
+          runs.incrementAndGet();
+          throw new IllegalStateException();
+        });
+    runSubmittedTasks();
+    Assert.assertEquals(3, runs.get());
+    Assert.assertEquals(2, queue.getRetryCount());
+    Assert.assertEquals(1, queue.getFailureCount());
+    Assert.assertEquals(0, queue.getPendingCount());
+  }
+
+  @Test
+  public void localRunnerBoundsConcurrentTasksTest() throws InterruptedException {
+    LocalTaskRunner runner = new LocalTaskRunner(2);
+    TaskQueue queue = new TaskQueue(runner, 1, 0);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    Map<String, DeferredTask> batch = new LinkedHashMap<>();
+    for (int i = 0; i < 10; i++) {
+      batch.put(
+          "task-" + i,
+          () -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+              Thread.sleep(20);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+          });
+    }
+    Assert.assertEquals(10, queue.enqueueAll(batch));
+    Assert.assertTrue(runner.awaitIdle(5_000));
+    Assert.assertEquals(10, queue.getCompletedCount());
+    Assert.assertTrue(maxRunning.get() <= 2);
+  }
+}
@@ -0,0 +1,146 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.templates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.google.sps.util.ContextFields;
+import com.google.sps.util.ResourceConstants;
+import com.google.sps.util.URLPatterns;
+import com.hubspot.jinjava.Jinjava;
+import com.hubspot.jinjava.JinjavaConfig;
+import com.hubspot.jinjava.interpret.FatalTemplateErrorsException;
+import com.hubspot.jinjava.loader.FileLocator;
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * This test class uses JUnit to test that pages rendered through the shared TemplateRegistry are
+ * identical to pages rendered by parsing the template from scratch on every request.
+ *
+ * @param JUnit4.class makes the tests run under the JUnit 4 framework
+ * @author guptamudit
+ * @version 1.0
+ */
+@RunWith(JUnit4.class)
+public final class TemplateRegistryTest {
+  private Jinjava jinjava;
+  private Map<String, Object> context;
+
+  @Before
+  public void setUp() throws Exception {
+    jinjava = new Jinjava(new JinjavaConfig());
+    jinjava.setResourceLocator(
+        new FileLocator(new File(getClass().getResource(ResourceConstants.TEMPLATES).toURI())));
+    context = new HashMap<>();
+    context.put(ContextFields.URL, URLPatterns.MENTORSHIP_REQUESTS);
+    context.put(ContextFields.IS_LOGGED_IN, true);
+    context.put(ContextFields.TOGGLE_LOGIN_URL, URLPatterns.LOGOUT);
+    context.put(ContextFields.IS_MENTOR, true);
+    context.put(ContextFields.IS_MENTEE, false);
+    context.put(ContextFields.MENTORSHIP_REQUESTS, new ArrayList<>());
+  }
+
+  private String renderFromScratch(String templatePath) throws Exception {
+    String template = Resources.toString(getClass().getResource(templatePath), Charsets.UTF_8);
+    return jinjava.render(jinjava.render(template, new HashMap<>()), context);
+  }
+
+  @Test
+  public void getTemplateReturnsSharedInstanceTest() {
+    CompiledTemplate template =
+        TemplateRegistry.getInstance().getTemplate(ResourceConstants.TEMPLATE_ABOUT);
+    assertNotNull(template);
+    assertSame(
+        template, TemplateRegistry.getInstance().getTemplate(ResourceConstants.TEMPLATE_ABOUT));
+  }
+
+  @Test
+  public void getTemplateMissingFileTest() {
+    assertNull(TemplateRegistry.getInstance().getTemplate("/templates/missing.html"));
+  }
+
+  @Test
+  public void renderMatchesJinjavaTest() throws Exception {
+    for (String templatePath :
+        new String[] {
+          ResourceConstants.TEMPLATE_ABOUT,
+          ResourceConstants.TEMPLATE_LANDING,
+          ResourceConstants.TEMPLATE_MENTORSHIP_REQUESTS,
+          ResourceConstants.TEMPLATE_MENTOR_DASHBOARD
+        }) {
+      CompiledTemplate template = TemplateRegistry.getInstance().getTemplate(templatePath);
+      String rendered = template.render(context);
+      assertTrue(rendered.contains("nav-link"));
+      assertEquals(renderFromScratch(templatePath), rendered);
+      assertEquals(rendered, template.render(context));
+    }
+  }
+
+  @Test
+  public void renderToMatchesRenderTest() throws Exception {
+    CompiledTemplate template =
+        TemplateRegistry.getInstance().getTemplate(ResourceConstants.TEMPLATE_MENTORSHIP_REQUESTS);
+    StringWriter writer = new StringWriter();
+    template.renderTo(writer, context);
+    assertEquals(template.render(context), writer.toString());
+    assertEquals(
+        renderFromScratch(ResourceConstants.TEMPLATE_MENTORSHIP_REQUESTS), writer.toString());
+  }
+
+  @Test
+  public void renderToStopsBeforeAFatalErrorTest() throws Exception {
+    String source = "<p>before</p>{{ 1 + }}<p>after</p>";
+    CompiledTemplate template =
+        new CompiledTemplate(
+            TemplateRegistry.getInstance(), source, jinjava.newInterpreter().parse(source));
+    StringWriter writer = new StringWriter();
+    try {
+      template.renderTo(writer, context);
+      fail();
+    } catch (FatalTemplateErrorsException e) {
+      assertEquals("<p>before</p>", writer.toString());
+    }
+
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+    try {
+      template.renderTo(response, context);
+      fail();
+    } catch (FatalTemplateErrorsException e) {
+      // the part of the page still in the response buffer is dropped
+      verify(response).resetBuffer();
+    }
+  }
+}